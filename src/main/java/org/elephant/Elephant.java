@@ -46,6 +46,8 @@ import javax.swing.WindowConstants;
 import org.elephant.actions.AbortProcessingAction;
 import org.elephant.actions.AbstractElephantAction;
 import org.elephant.actions.BackTrackAction;
+import org.elephant.actions.BatchTrackAction;
+import org.elephant.actions.BatchTrackAction.BatchTrackActionMode;
 import org.elephant.actions.BdvColoringService;
 import org.elephant.actions.BdvContextService;
 import org.elephant.actions.BdvViewMouseMotionService;
@@ -65,6 +67,7 @@ import org.elephant.actions.ExportCTCAction;
 import org.elephant.actions.GraphListenerService;
 import org.elephant.actions.HighlightListenerService;
 import org.elephant.actions.ImportMastodonAction;
+import org.elephant.actions.LinkLengthService;
 import org.elephant.actions.LoggerService;
 import org.elephant.actions.MapTagAction;
 import org.elephant.actions.MapTagAction.ChangeTagActionMode;
@@ -95,6 +98,7 @@ import org.elephant.actions.SetUpTagSetsService;
 import org.elephant.actions.ShowControlPanelAction;
 import org.elephant.actions.ShowLogWindowAction;
 import org.elephant.actions.ShowPreferencesAction;
+import org.elephant.actions.TagCountIndexService;
 import org.elephant.actions.TagDividingCellAction;
 import org.elephant.actions.TagHighlightedVertexAction;
 import org.elephant.actions.TagHighlightedVertexAction.TagMode;
@@ -147,6 +151,10 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 
 	private final AbstractElephantAction backTrackAction;
 
+	private final AbstractElephantAction batchTrackBackwardAction;
+
+	private final AbstractElephantAction batchTrackForwardAction;
+
 	private final AbstractElephantAction predictSpotsAction;
 
 	private final AbstractElephantAction updateDetectionLabelsAction;
@@ -259,6 +267,8 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 
 	private final ElephantStatusService elephantStatusService;
 
+	private final LinkLengthService linkLengthService;
+
 	final LoggerService loggerService = new LoggerService();
 
 	@Parameter
@@ -273,11 +283,18 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 		mouseMotionService = new BdvViewMouseMotionService();
 		bdvContextService = new BdvContextService();
 		elephantStatusService = new ElephantStatusService();
+		linkLengthService = new LinkLengthService();
 		backTrackAction = new BackTrackAction();
 		pluginActions.add( backTrackAction );
+		batchTrackBackwardAction = new BatchTrackAction( BatchTrackActionMode.BACKWARD, bdvContextService );
+		pluginActions.add( batchTrackBackwardAction );
+		batchTrackForwardAction = new BatchTrackAction( BatchTrackActionMode.FORWARD, bdvContextService );
+		pluginActions.add( batchTrackForwardAction );
 		predictSpotsAction = new PredictSpotsAction( PredictSpotsActionMode.ENTIRE, mouseMotionService );
 		pluginActions.add( predictSpotsAction );
 		pluginActions.add( new PredictSpotsAction( PredictSpotsActionMode.AROUND_MOUSE, mouseMotionService ) );
+		pluginActions.add( new PredictSpotsAction( PredictSpotsActionMode.AROUND_SELECTED_SPOTS, mouseMotionService ) );
+		pluginActions.add( new PredictSpotsAction( PredictSpotsActionMode.AROUND_FN_OR_UNLABELED_SPOTS, mouseMotionService ) );
 		updateDetectionLabelsAction = new UpdateDetectionLabelsAction( bdvContextService );
 		pluginActions.add( updateDetectionLabelsAction );
 		updateFlowLabelsAction = new UpdateFlowLabelsAction();
@@ -296,9 +313,10 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 		pluginActions.add( resetDetectionLabelsAction );
 		resetFlowLabelsAction = new ResetFlowLabelsAction();
 		pluginActions.add( resetFlowLabelsAction );
-		nnLinkingAction = new NearestNeighborLinkingAction( NearestNeighborLinkingActionMode.ENTIRE, mouseMotionService );
+		nnLinkingAction = new NearestNeighborLinkingAction( NearestNeighborLinkingActionMode.ENTIRE, mouseMotionService, linkLengthService );
 		pluginActions.add( nnLinkingAction );
-		pluginActions.add( new NearestNeighborLinkingAction( NearestNeighborLinkingActionMode.AROUND_MOUSE, mouseMotionService ) );
+		pluginActions.add( new NearestNeighborLinkingAction( NearestNeighborLinkingActionMode.AROUND_MOUSE, mouseMotionService, linkLengthService ) );
+		pluginActions.add( new NearestNeighborLinkingAction( NearestNeighborLinkingActionMode.GLOBAL, mouseMotionService, linkLengthService ) );
 		trainFlowAction = new TrainFlowAction();
 		pluginActions.add( trainFlowAction );
 		abortProcessingAction = new AbortProcessingAction();
@@ -412,6 +430,10 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 		new BdvColoringService().init( pluginAppModel );
 		// BdvContextService
 		bdvContextService.init( pluginAppModel );
+		// TagCountIndexService
+		TagCountIndexService.get( pluginAppModel );
+		// LinkLengthService
+		linkLengthService.init( pluginAppModel );
 		// ElephantStatusService
 		elephantStatusService.elephantServerStatusListeners().add( ( ElephantServerStatusListener ) showControlPanelAction );
 		elephantStatusService.init( pluginAppModel );
@@ -469,6 +491,8 @@ public class Elephant extends AbstractContextual implements MamutPlugin, UpdateL
 										item( downloadDetectionModelAction.name() ) ),
 								menu( "Linking",
 										item( nnLinkingAction.name() ),
+										item( batchTrackBackwardAction.name() ),
+										item( batchTrackForwardAction.name() ),
 										item( updateFlowLabelsAction.name() ),
 										item( resetFlowLabelsAction.name() ),
 										item( trainFlowAction.name() ),
@@ -77,6 +77,8 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 
 	private JsonObject jsonRootObject;
 
+	private SpotIdResolver resolver;
+
 	private final double[] pos = new double[ 3 ];
 
 	private final double[][] cov = new double[ 3 ][ 3 ];
@@ -150,18 +152,21 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 					.add( getMainSettings().getPatchSizeZ() ) );
 		}
 		final Spot spotRef = getGraph().vertexRef();
+		resolver = new SpotIdResolver( getGraph() );
+		boolean hasSpot = false;
 		getGraph().getLock().readLock().lock();
 		try
 		{
 			final Spot spot = getAppModel().getHighlightModel().getHighlightedVertex( spotRef );
 			if ( spot == null )
 				return false;
+			hasSpot = true;
 			spot.localize( pos );
 			spot.getCovariance( cov );
 			for ( int i = 0; i < 3; i++ )
 				for ( int j = 0; j < 3; j++ )
 					cov1d[ i * 3 + j ] = cov[ i ][ j ];
-			final int id = spot.getInternalPoolIndex();
+			final int id = resolver.getId( spot );
 			final JsonObject jsonSpot = Json.object()
 					.add( "pos", Json.array( pos ) )
 					.add( "covariance", Json.array( cov1d ) )
@@ -180,6 +185,9 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 		{
 			getGraph().getLock().readLock().unlock();
 			getGraph().releaseRef( spotRef );
+			// the resolver is closed outside the read lock
+			if ( !hasSpot )
+				resolver.close();
 		}
 		return true;
 	}
@@ -187,6 +195,7 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 	@Override
 	public void processDataset()
 	{
+		final SpotIdResolver resolver = this.resolver;
 		try
 		{
 			postAsStringAsync( getEndpointURL( ENDPOINT_FLOW_PREDICT ), jsonRootObject.toString(),
@@ -203,16 +212,15 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 							getGraph().getLock().writeLock().lock();
 							try
 							{
-								final Spot spot = getGraph().vertices().stream().filter( s -> s.getInternalPoolIndex() == spotId ).findFirst().orElse( null );
+								final Spot spot = resolver.resolve( spotId, orgSpotRef );
 								if ( spot == null )
 								{
-									final String msg = "spot " + spot + " was not found";
+									final String msg = "spot " + spotId + " was not found";
 									getClientLogger().info( msg );
 									showTextOverlayAnimator( msg, 3000, TextPosition.CENTER );
 								}
 								else
 								{
-									orgSpotRef.refTo( spot );
 									final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
 									for ( int j = 0; j < 3; j++ )
 										pos[ j ] = jsonPositions.get( j ).asDouble();
@@ -229,6 +237,7 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 							}
 							finally
 							{
+								resolver.close();
 								getModel().setUndoPoint();
 								getGraph().getLock().writeLock().unlock();
 								getGraph().getLock().readLock().lock();
@@ -248,6 +257,7 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 						}
 						else
 						{
+							resolver.close();
 							final StringBuilder sb = new StringBuilder( response.getStatusText() );
 							if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
 							{
@@ -257,11 +267,22 @@ public class BackTrackAction extends AbstractElephantDatasetAction
 							showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
 							getClientLogger().severe( sb.toString() );
 						}
+					},
+					e -> {
+						resolver.close();
+						handleError( e );
+						getClientLogger().severe( "The request has failed" );
+						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+					},
+					() -> {
+						resolver.close();
+						getClientLogger().info( "The request has been cancelled" );
 					} );
 		}
 		catch ( final ElephantConnectException e )
 		{
 			// already handled by UnirestMixin
+			resolver.close();
 		}
 	}
 
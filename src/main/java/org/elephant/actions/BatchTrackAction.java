@@ -0,0 +1,511 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.elephant.actions.mixins.BdvContextMixin;
+import org.elephant.actions.mixins.BdvDataMixin;
+import org.elephant.actions.mixins.ElephantConnectException;
+import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
+import org.elephant.actions.mixins.ElephantStateManagerMixin;
+import org.elephant.actions.mixins.GraphChangeActionMixin;
+import org.elephant.actions.mixins.TimepointMixin;
+import org.elephant.actions.mixins.UIActionMixin;
+import org.elephant.actions.mixins.URLMixin;
+import org.elephant.actions.mixins.UnirestMixin;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.ui.keymap.CommandDescriptionProvider;
+import org.mastodon.ui.keymap.CommandDescriptions;
+import org.mastodon.ui.keymap.KeyConfigContexts;
+import org.scijava.plugin.Plugin;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import kong.unirest.HttpResponse;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+
+/**
+ * Track the selected spots, or the visible spots if none is selected, of the
+ * current timepoint over a number of frames, creating new spots based on a
+ * flow estimation.
+ * <p>
+ * All the spots of a frame are sent in one {@code flow/predict} request. The
+ * request for the next frame is sent as soon as the response arrives, while
+ * the spots and links of the frame are committed in batches on a dedicated
+ * thread.
+ * <p>
+ * The flow is estimated backward in time, so that tracking forward takes the
+ * flow at the next timepoint and inverts it to the first order.
+ * 
+ * @author Ko Sugawara
+ */
+public class BatchTrackAction extends AbstractElephantDatasetAction
+		implements BdvContextMixin, BdvDataMixin, ElephantGraphTagActionMixin, ElephantStateManagerMixin, GraphChangeActionMixin, TimepointMixin, UIActionMixin, UnirestMixin, URLMixin
+{
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String NAME_BASE = "[elephant] batch track %s";
+
+	private static final String NAME_BACKWARD = String.format( NAME_BASE, "backward" );
+
+	private static final String NAME_FORWARD = String.format( NAME_BASE, "forward" );
+
+	private static final String MENU_TEXT_BASE = "Batch Track %s";
+
+	private static final String MENU_TEXT_BACKWARD = String.format( MENU_TEXT_BASE, "Backward" );
+
+	private static final String MENU_TEXT_FORWARD = String.format( MENU_TEXT_BASE, "Forward" );
+
+	private static final String[] MENU_KEYS_BACKWARD = new String[] { "not mapped" };
+
+	private static final String[] MENU_KEYS_FORWARD = new String[] { "not mapped" };
+
+	private static final String DESCRIPTION_BASE = "Track the selected or visible vertices %s in time.";
+
+	private static final String DESCRIPTION_BACKWARD = String.format( DESCRIPTION_BASE, "backward" );
+
+	private static final String DESCRIPTION_FORWARD = String.format( DESCRIPTION_BASE, "forward" );
+
+	private static final long WRITE_LOCK_BUDGET_NANOS = 20_000_000L;
+
+	public enum BatchTrackActionMode
+	{
+		BACKWARD( NAME_BACKWARD, MENU_TEXT_BACKWARD, MENU_KEYS_BACKWARD, -1 ),
+		FORWARD( NAME_FORWARD, MENU_TEXT_FORWARD, MENU_KEYS_FORWARD, 1 );
+
+		private final String name;
+
+		private final String menuText;
+
+		private final String[] menuKeys;
+
+		private final int step;
+
+		private BatchTrackActionMode( final String name, final String menuText, final String[] menuKeys, final int step )
+		{
+			this.name = name;
+			this.menuText = menuText;
+			this.menuKeys = menuKeys;
+			this.step = step;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public String getMenuText()
+		{
+			return menuText;
+		}
+
+		public String[] getMenuKeys()
+		{
+			return menuKeys;
+		}
+	}
+
+	private final BatchTrackActionMode mode;
+
+	private final BdvContextService bdvContextService;
+
+	private int timepoint;
+
+	private int nFrames;
+
+	private JsonObject jsonRootObject;
+
+	private SpotIdResolver resolver;
+
+	private CancellationToken cancellationToken;
+
+	/** The ids of the spots to track. */
+	private int[] seedIds;
+
+	/** The coordinates of the spots to track, 3 values per spot. */
+	private double[] seedPos;
+
+	/** The covariances of the spots to track, 9 values per spot. */
+	private double[] seedCov;
+
+	/*
+	 * Command description.
+	 */
+	@Plugin( type = Descriptions.class )
+	public static class Descriptions extends CommandDescriptionProvider
+	{
+		public Descriptions()
+		{
+			super( KeyConfigContexts.BIGDATAVIEWER );
+		}
+
+		@Override
+		public void getCommandDescriptions( final CommandDescriptions descriptions )
+		{
+			descriptions.add(
+					NAME_BACKWARD,
+					MENU_KEYS_BACKWARD,
+					DESCRIPTION_BACKWARD );
+			descriptions.add(
+					NAME_FORWARD,
+					MENU_KEYS_FORWARD,
+					DESCRIPTION_FORWARD );
+		}
+	}
+
+	@Override
+	public String getMenuText()
+	{
+		return mode.getMenuText();
+	}
+
+	@Override
+	public String[] getMenuKeys()
+	{
+		return mode.getMenuKeys();
+	}
+
+	public BatchTrackAction( final BatchTrackActionMode mode, final BdvContextService bdvContextService )
+	{
+		super( mode.getName() );
+		this.mode = mode;
+		this.bdvContextService = bdvContextService;
+	}
+
+	@Override
+	public BdvContextService getBdvContextService()
+	{
+		return bdvContextService;
+	}
+
+	@Override
+	boolean prepare()
+	{
+		timepoint = getCurrentTimepoint( 0 );
+		final int maxFrames = mode == BatchTrackActionMode.BACKWARD ? timepoint : getAppModel().getMaxTimepoint() - timepoint;
+		if ( maxFrames < 1 )
+			return false;
+		final AtomicInteger nFramesAtomic = new AtomicInteger( -1 );
+		try
+		{
+			SwingUtilities.invokeAndWait( () -> {
+				final IntegerInputDialog dialog = new IntegerInputDialog( maxFrames, "Number of frames" );
+				dialog.setVisible( true );
+				try
+				{
+					if ( !dialog.isCanceled() )
+						nFramesAtomic.set( dialog.getValue() );
+				}
+				finally
+				{
+					dialog.dispose();
+				}
+			} );
+		}
+		catch ( InvocationTargetException | InterruptedException e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+		}
+		nFrames = nFramesAtomic.get();
+		if ( nFrames < 1 )
+			return false;
+
+		final VoxelDimensions voxelSize = getVoxelDimensions();
+		final JsonArray scales = new JsonArray()
+				.add( voxelSize.dimension( 0 ) )
+				.add( voxelSize.dimension( 1 ) )
+				.add( voxelSize.dimension( 2 ) );
+		final Dimensions dimensions = getRescaledDimensions();
+		final JsonArray inputSize = new JsonArray()
+				.add( dimensions.dimension( 0 ) )
+				.add( dimensions.dimension( 1 ) )
+				.add( dimensions.dimension( 2 ) );
+		jsonRootObject = Json.object()
+				.add( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+				.add( JSON_KEY_MODEL_NAME, getMainSettings().getFlowModelName() )
+				.add( JSON_KEY_DEBUG, getMainSettings().getDebug() )
+				.add( JSON_KEY_OUTPUT_PREDICTION, getMainSettings().getOutputPrediction() )
+				.add( JSON_KEY_MAX_DISPLACEMENT, getMainSettings().getMaxDisplacement() )
+				.add( JSON_KEY_SCALES, scales )
+				.add( JSON_KEY_N_KEEP_AXIALS, getNKeepAxials() )
+				.add( JSON_KEY_INPUT_SIZE, inputSize )
+				.add( JSON_KEY_CACHE_MAXBYTES, getMainSettings().getCacheMaxbytes() )
+				.add( JSON_KEY_USE_MEMMAP, getMainSettings().getUseMemmap() );
+		if ( getMainSettings().getPatch() )
+		{
+			jsonRootObject.add( JSON_KEY_PATCH, new JsonArray()
+					.add( getMainSettings().getPatchSizeX() )
+					.add( getMainSettings().getPatchSizeY() )
+					.add( getMainSettings().getPatchSizeZ() ) );
+		}
+
+		resolver = new SpotIdResolver( getGraph() );
+		boolean hasSeeds = takeSeeds( getAppModel().getSelectionModel().getSelectedVertices() );
+		if ( !hasSeeds && showContextChooserDialog() )
+			hasSeeds = takeSeeds( getVisibleVertices( timepoint ) );
+		if ( !hasSeeds )
+		{
+			resolver.close();
+			return false;
+		}
+		cancellationToken = getActionStateManager().getCancellationToken();
+		return true;
+	}
+
+	/**
+	 * Take the spots at the current timepoint to track.
+	 * 
+	 * @return {@code true} if there is any spot to track.
+	 */
+	private boolean takeSeeds( final Iterable< Spot > spots )
+	{
+		if ( spots == null )
+			return false;
+		final double[] spotPos = new double[ 3 ];
+		final double[][] spotCov = new double[ 3 ][ 3 ];
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			int n = 0;
+			for ( final Spot spot : spots )
+			{
+				if ( spot.getTimepoint() == timepoint )
+					n++;
+			}
+			seedIds = new int[ n ];
+			seedPos = new double[ n * 3 ];
+			seedCov = new double[ n * 9 ];
+			int i = 0;
+			for ( final Spot spot : spots )
+			{
+				if ( spot.getTimepoint() != timepoint )
+					continue;
+				spot.localize( spotPos );
+				spot.getCovariance( spotCov );
+				seedIds[ i ] = resolver.getId( spot );
+				System.arraycopy( spotPos, 0, seedPos, i * 3, 3 );
+				for ( int j = 0; j < 3; j++ )
+					System.arraycopy( spotCov[ j ], 0, seedCov, i * 9 + j * 3, 3 );
+				i++;
+			}
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+		return seedIds.length != 0;
+	}
+
+	@Override
+	public void processDataset()
+	{
+		final SpotIdResolver resolver = this.resolver;
+		final ExecutorService commitExecutor = Executors.newSingleThreadExecutor();
+		final AtomicInteger nTracked = new AtomicInteger();
+		try
+		{
+			final String url = getEndpointURL( ENDPOINT_FLOW_PREDICT );
+			// the spots of the frame being tracked; the index in the arrays is sent as the id
+			int[] sourceIds = seedIds;
+			double[] pos = seedPos;
+			double[] cov = seedCov;
+			for ( int frame = 0; frame < nFrames && pos.length != 0 && !cancellationToken.isCancelled(); frame++ )
+			{
+				final int source = timepoint + frame * mode.step;
+				final int target = source + mode.step;
+				final JsonArray jsonSpots = Json.array();
+				for ( int i = 0; i < pos.length / 3; i++ )
+				{
+					jsonSpots.add( Json.object()
+							.add( "pos", Json.array( pos[ i * 3 ], pos[ i * 3 + 1 ], pos[ i * 3 + 2 ] ) )
+							.add( "covariance", Json.array( Arrays.copyOfRange( cov, i * 9, i * 9 + 9 ) ) )
+							.add( "id", i ) );
+				}
+				// the flow maps the spots at a timepoint to the previous one
+				final String body = new JsonObject( jsonRootObject )
+						.set( JSON_KEY_TIMEPOINT, Math.max( source, target ) )
+						.set( JSON_KEY_SPOTS, jsonSpots )
+						.toString();
+				final HttpResponse< String > response = postAsStringAsync( url, body, cancellationToken, r -> {} ).join();
+				if ( !isResponseOk( response ) )
+					break;
+				final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
+				if ( !rootObject.get( "completed" ).asBoolean() )
+					break;
+				final JsonArray jsonSpotsRes = rootObject.get( "spots" ).asArray();
+				final int n = jsonSpotsRes.size();
+				final int[] sourceOf = new int[ n ];
+				final double[] nextPos = new double[ n * 3 ];
+				final double[] nextCov = new double[ n * 9 ];
+				int j = 0;
+				for ( final JsonValue jsonValue : jsonSpotsRes )
+				{
+					final JsonObject jsonSpot = jsonValue.asObject();
+					final int i = jsonSpot.get( "id" ).asInt();
+					final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
+					for ( int d = 0; d < 3; d++ )
+					{
+						final double flowed = jsonPositions.get( d ).asDouble();
+						nextPos[ j * 3 + d ] = mode == BatchTrackActionMode.BACKWARD ? flowed : 2 * pos[ i * 3 + d ] - flowed;
+					}
+					System.arraycopy( cov, i * 9, nextCov, j * 9, 9 );
+					sourceOf[ j ] = i;
+					j++;
+				}
+				final int[] createdIds = new int[ n ];
+				final int[] commitSourceIds = sourceIds;
+				commitExecutor.execute( () -> commit( resolver, target, commitSourceIds, sourceOf, nextPos, nextCov, createdIds, nTracked ) );
+				sourceIds = createdIds;
+				pos = nextPos;
+				cov = nextCov;
+			}
+		}
+		catch ( final ElephantConnectException | CompletionException | CancellationException e )
+		{
+			// already handled by UnirestMixin
+		}
+		finally
+		{
+			commitExecutor.shutdown();
+			try
+			{
+				commitExecutor.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			resolver.close();
+			if ( 0 < nTracked.get() )
+			{
+				getGraph().getLock().writeLock().lock();
+				try
+				{
+					getModel().setUndoPoint();
+				}
+				finally
+				{
+					getGraph().getLock().writeLock().unlock();
+				}
+				notifyGraphChanged();
+				final String message = String.format( "Tracked %d spots", nTracked.get() );
+				showTextOverlayAnimator( message, 3000, TextPosition.BOTTOM_RIGHT );
+				getClientLogger().info( message );
+			}
+		}
+	}
+
+	/**
+	 * Create the spots of a frame and link them to their sources in batches.
+	 * Runs on the commit thread, after the commit of the previous frame has
+	 * filled {@code sourceIds}.
+	 */
+	private void commit( final SpotIdResolver resolver, final int target, final int[] sourceIds, final int[] sourceOf,
+			final double[] pos, final double[] cov, final int[] createdIds, final AtomicInteger nTracked )
+	{
+		final Tag detectionFNTag = getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME );
+		final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final ObjTagMap< Spot, Tag > tagMapTrackingSpot = getVertexTagMap( getTrackingTagSet() );
+		final ObjTagMap< Link, Tag > tagMapTrackingLink = getEdgeTagMap( getTrackingTagSet() );
+		final Spot sourceRef = getGraph().vertexRef();
+		final Spot newSpotRef = getGraph().vertexRef();
+		final Link edgeRef = getGraph().edgeRef();
+		final double[] spotPos = new double[ 3 ];
+		final double[][] spotCov = new double[ 3 ][ 3 ];
+		try
+		{
+			applyInWriteLockedChunks( createdIds.length, j -> {
+				createdIds[ j ] = -1;
+				final int sourceId = sourceIds[ sourceOf[ j ] ];
+				final Spot sourceSpot = sourceId < 0 ? null : resolver.resolve( sourceId, sourceRef );
+				if ( sourceSpot == null )
+					return;
+				System.arraycopy( pos, j * 3, spotPos, 0, 3 );
+				for ( int i = 0; i < 3; i++ )
+					System.arraycopy( cov, j * 9 + i * 3, spotCov[ i ], 0, 3 );
+				final Spot newSpot = getGraph().addVertex( newSpotRef ).init( target, spotPos, spotCov );
+				tagMapDetection.set( newSpot, detectionFNTag );
+				tagMapTrackingSpot.set( newSpot, trackingApprovedTag );
+				final Link edge = mode == BatchTrackActionMode.BACKWARD
+						? getGraph().addEdge( newSpot, sourceSpot, edgeRef ).init()
+						: getGraph().addEdge( sourceSpot, newSpot, edgeRef ).init();
+				tagMapTrackingLink.set( edge, trackingApprovedTag );
+				createdIds[ j ] = resolver.getId( newSpot );
+				nTracked.incrementAndGet();
+			}, WRITE_LOCK_BUDGET_NANOS );
+		}
+		catch ( final Exception e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+		}
+		finally
+		{
+			getGraph().releaseRef( sourceRef );
+			getGraph().releaseRef( newSpotRef );
+			getGraph().releaseRef( edgeRef );
+		}
+		showTextOverlayAnimator( String.format( "Tracked to %d", target ), 1000, TextPosition.BOTTOM_RIGHT );
+	}
+
+	private boolean isResponseOk( final HttpResponse< String > response )
+	{
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+			return true;
+		final StringBuilder sb = new StringBuilder( response.getStatusText() );
+		if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
+		{
+			sb.append( ": " );
+			sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
+		}
+		showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+		getClientLogger().severe( sb.toString() );
+		return false;
+	}
+
+}
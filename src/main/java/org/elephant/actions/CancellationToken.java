@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A token shared by the requests and the graph merges of a run, so that they
+ * can be stopped cooperatively on abort. Cancelling the token cancels all the
+ * registered futures, and the code that merges results into the graph checks
+ * {@link #isCancelled()} at consistent boundaries (e.g. between timepoints).
+ * 
+ * <p>
+ * Cancelling a future only stops the client from waiting for the response,
+ * which is discarded when it arrives. Unirest does not abort the HTTP
+ * exchange, so the server keeps processing the request until it receives the
+ * abort signal sent by {@link AbortProcessingAction}.
+ * 
+ * @author Ko Sugawara
+ */
+public final class CancellationToken
+{
+
+	private boolean isCancelled = false;
+
+	private final List< Future< ? > > futures = new ArrayList<>();
+
+	public synchronized boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	/**
+	 * Cancel the token and all the registered futures, so that the client
+	 * stops waiting for their responses. Nothing happens if the token is
+	 * already cancelled.
+	 */
+	public void cancel()
+	{
+		final List< Future< ? > > futuresToCancel;
+		synchronized ( this )
+		{
+			if ( isCancelled )
+				return;
+			isCancelled = true;
+			futuresToCancel = new ArrayList<>( futures );
+			futures.clear();
+		}
+		for ( final Future< ? > future : futuresToCancel )
+			future.cancel( true );
+	}
+
+	/**
+	 * Register a future to be cancelled with the token. The future is
+	 * cancelled immediately if the token is already cancelled.
+	 * 
+	 * @param future
+	 *            the future to register.
+	 * @return the future.
+	 */
+	public < F extends Future< ? > > F register( final F future )
+	{
+		synchronized ( this )
+		{
+			if ( !isCancelled )
+			{
+				futures.removeIf( Future::isDone );
+				futures.add( future );
+				return future;
+			}
+		}
+		future.cancel( true );
+		return future;
+	}
+
+}
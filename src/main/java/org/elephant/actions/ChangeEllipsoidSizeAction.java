@@ -29,7 +29,6 @@ package org.elephant.actions;
 import org.elephant.actions.SetControlAxisAction.ControlAxis;
 import org.elephant.actions.mixins.BdvDataMixin;
 import org.elephant.actions.mixins.ElephantStateManagerMixin;
-import org.elephant.actions.mixins.EllipsoidActionMixin;
 import org.elephant.actions.mixins.GraphChangeActionMixin;
 import org.elephant.actions.mixins.UIActionMixin;
 import org.mastodon.mamut.model.Spot;
@@ -39,7 +38,6 @@ import org.mastodon.ui.keymap.KeyConfigContexts;
 import org.scijava.plugin.Plugin;
 
 import bdv.viewer.animate.TextOverlayAnimator;
-import net.imglib2.util.LinAlgHelpers;
 
 /**
  * Change the size of the highlighted ellipsoid along the control axis set by
@@ -48,7 +46,7 @@ import net.imglib2.util.LinAlgHelpers;
  * @author Ko Sugawara
  */
 public class ChangeEllipsoidSizeAction extends AbstractElephantAction
-		implements BdvDataMixin, EllipsoidActionMixin, GraphChangeActionMixin, ElephantStateManagerMixin, UIActionMixin
+		implements BdvDataMixin, GraphChangeActionMixin, ElephantStateManagerMixin, UIActionMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -166,25 +164,28 @@ public class ChangeEllipsoidSizeAction extends AbstractElephantAction
 				return;
 			}
 			final double[][] cov = new double[ 3 ][ 3 ];
+			final double[] m = new double[ 9 ];
+			final double[] V = new double[ 9 ];
+			final double[] d = new double[ 3 ];
 			spot.getCovariance( cov );
-			getEig().decomposeSymmetric( cov );
-			final double[][] V = getEig().getV();
-			final double[] d = getEig().getRealEigenvalues();
-			final double[][] S = new double[ 3 ][ 3 ];
+			EllipsoidGeometry.flatten( cov, m );
+			EllipsoidGeometry.decomposeSymmetric( m, 0, d, V );
+			final double[] S = new double[ 9 ];
 			final int axis = getActionStateManager().getAxis().getIndex();
 			for ( int i = 0; i < 3; i++ )
 			{
 				for ( int j = 0; j < 3; j++ )
 				{
 					if ( i == j )
-						S[ i ][ j ] = axis == i ? mode.getFactor() : 1;
+						S[ i * 3 + j ] = axis == i ? mode.getFactor() : 1;
 					else
-						S[ i ][ j ] = 0;
+						S[ i * 3 + j ] = 0;
 				}
 			}
-			final double[][] SR = new double[ 3 ][ 3 ];
-			LinAlgHelpers.mult( S, V, SR );
-			LinAlgHelpersExt.compose( SR, d, cov );
+			final double[] SR = new double[ 9 ];
+			EllipsoidGeometry.mult( S, V, SR );
+			EllipsoidGeometry.compose( SR, d, m );
+			EllipsoidGeometry.unflatten( m, cov );
 			spot.setCovariance( cov );
 			getGraph().releaseRef( ref );
 		}
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Divisions among the spots to be linked, each made of a mother in the
+ * previous frame and two daughters that have the mother as a link candidate.
+ * <p>
+ * Every pair of daughters of a mother is scored in parallel over the mothers.
+ * The cost of a division sums up
+ * <ul>
+ * <li>the distance between the mother and the midpoint of the daughters,
+ * relative to the linking radius,</li>
+ * <li>the deviation of the total volume of the daughters from the volume of
+ * the mother,</li>
+ * <li>the asymmetry of the volumes of the daughters,</li>
+ * <li>the misalignment of the daughters with the long axis of an elongated
+ * mother, and</li>
+ * <li>with optical flow, a term decreasing with the flow displacement of the
+ * daughters.</li>
+ * </ul>
+ * The terms are summed up unweighted. Each of them is dimensionless and
+ * reaches about 1 for a pair of spots that is clearly not a division, e.g. a
+ * midpoint at the linking radius or daughters of a total volume {@code e}
+ * times that of the mother, so the maximum cost of a division is a setting on
+ * this scale. The best division of each mother is taken if its cost is below
+ * the maximum cost, and the divisions sharing a daughter are resolved
+ * greedily, cheapest first.
+ * 
+ * @author Ko Sugawara
+ */
+final class DivisionCandidates
+{
+
+	private static final DivisionCandidates NONE = new DivisionCandidates( 0, 0 );
+
+	/** The id of the mother of each spot, or -1. */
+	private final int[] motherOf;
+
+	/** The ids of the mothers. */
+	private final BitSet mothers = new BitSet();
+
+	/** The cost of the division of each mother, by id. */
+	private final double[] costOf;
+
+	private DivisionCandidates( final int nSpots, final int nIds )
+	{
+		this.motherOf = new int[ nSpots ];
+		Arrays.fill( motherOf, -1 );
+		this.costOf = new double[ nIds ];
+	}
+
+	/**
+	 * @return the division candidates with no division.
+	 */
+	static DivisionCandidates none()
+	{
+		return NONE;
+	}
+
+	/**
+	 * Score the divisions from the spots in the frame.
+	 * 
+	 * @param candidates
+	 *            the link candidates, whose first frame is {@code frame}.
+	 * @param frame
+	 *            the previous frame.
+	 * @param pos
+	 *            the coordinates of the spots to be linked, 3 values per
+	 *            spot.
+	 * @param cov
+	 *            the covariances of the spots to be linked, 9 values per
+	 *            spot.
+	 * @param sqDisps
+	 *            the squared flow displacements of the spots to be linked, or
+	 *            {@code null} without optical flow.
+	 * @param nSpots
+	 *            the number of spots to be linked.
+	 * @param squaredRadius
+	 *            the squared linking radius.
+	 * @param maxCost
+	 *            the maximum cost of a division to be taken.
+	 * @return the divisions.
+	 */
+	static DivisionCandidates score( final LinkCandidates candidates, final LinkCandidates.Frame frame, final double[] pos, final double[] cov,
+			final double[] sqDisps, final int nSpots, final double squaredRadius, final double maxCost )
+	{
+		int maxId = -1;
+		for ( int f = 0; f < frame.n; f++ )
+			maxId = Math.max( maxId, frame.ids[ f ] );
+		final DivisionCandidates divisions = new DivisionCandidates( nSpots, maxId + 1 );
+		if ( candidates.depth() == 0 || frame.n == 0 )
+			return divisions;
+		final int[] indexInFrame = new int[ maxId + 1 ];
+		Arrays.fill( indexInFrame, -1 );
+		for ( int f = 0; f < frame.n; f++ )
+		{
+			if ( 0 <= frame.ids[ f ] )
+				indexInFrame[ frame.ids[ f ] ] = f;
+		}
+
+		// daughter candidates of each mother in CSR layout
+		final int[] start = new int[ frame.n + 1 ];
+		for ( int s = 0; s < nSpots; s++ )
+		{
+			for ( int k = 0; k < candidates.size( s, 0 ); k++ )
+			{
+				final int f = frameIndex( indexInFrame, candidates.getId( s, 0, k ) );
+				if ( 0 <= f )
+					start[ f + 1 ]++;
+			}
+		}
+		for ( int f = 0; f < frame.n; f++ )
+			start[ f + 1 ] += start[ f ];
+		final int[] daughters = new int[ start[ frame.n ] ];
+		final int[] fill = Arrays.copyOf( start, frame.n );
+		for ( int s = 0; s < nSpots; s++ )
+		{
+			for ( int k = 0; k < candidates.size( s, 0 ); k++ )
+			{
+				final int f = frameIndex( indexInFrame, candidates.getId( s, 0, k ) );
+				if ( 0 <= f )
+					daughters[ fill[ f ]++ ] = s;
+			}
+		}
+
+		final double[] bestCost = new double[ frame.n ];
+		final int[] bestA = new int[ frame.n ];
+		final int[] bestB = new int[ frame.n ];
+		IntStream.range( 0, frame.n ).parallel().forEach( f -> {
+			bestCost[ f ] = Double.POSITIVE_INFINITY;
+			if ( start[ f + 1 ] - start[ f ] < 2 )
+				return;
+			final double[] eigenvalues = new double[ 3 ];
+			final double[] eigenvectors = new double[ 9 ];
+			EllipsoidGeometry.decomposeSymmetric( frame.cov, f * 9, eigenvalues, eigenvectors );
+			// the long axis counts only as much as the mother is elongated
+			final double elongation = 0 < eigenvalues[ 2 ] ? 1 - Math.max( 0, eigenvalues[ 1 ] ) / eigenvalues[ 2 ] : 0;
+			final double motherVolume = volume( frame.cov, f );
+			for ( int i = start[ f ]; i < start[ f + 1 ]; i++ )
+			{
+				final int a = daughters[ i ];
+				for ( int j = i + 1; j < start[ f + 1 ]; j++ )
+				{
+					final int b = daughters[ j ];
+					double midCost = 0;
+					double axis = 0;
+					double separation = 0;
+					for ( int d = 0; d < 3; d++ )
+					{
+						final double mid = 0.5 * ( pos[ a * 3 + d ] + pos[ b * 3 + d ] ) - frame.pos[ f * 3 + d ];
+						midCost += mid * mid;
+						final double delta = pos[ b * 3 + d ] - pos[ a * 3 + d ];
+						axis += delta * eigenvectors[ d * 3 + 2 ];
+						separation += delta * delta;
+					}
+					double cost = midCost / squaredRadius;
+					if ( 0 < separation )
+						cost += elongation * ( 1 - axis * axis / separation );
+					final double volumeA = volume( cov, a );
+					final double volumeB = volume( cov, b );
+					if ( 0 < motherVolume && 0 < volumeA && 0 < volumeB )
+					{
+						final double volumeRatio = Math.log( ( volumeA + volumeB ) / motherVolume );
+						final double asymmetry = Math.log( volumeA / volumeB );
+						cost += volumeRatio * volumeRatio + asymmetry * asymmetry;
+					}
+					if ( sqDisps != null )
+						cost += 0.5 / ( 1 + Math.min( sqDisps[ a ], sqDisps[ b ] ) );
+					if ( cost < bestCost[ f ] )
+					{
+						bestCost[ f ] = cost;
+						bestA[ f ] = a;
+						bestB[ f ] = b;
+					}
+				}
+			}
+		} );
+
+		// take the divisions, cheapest first, each daughter at most once
+		final long[] order = new long[ frame.n ];
+		int nOrder = 0;
+		for ( int f = 0; f < frame.n; f++ )
+		{
+			if ( bestCost[ f ] < maxCost )
+				order[ nOrder++ ] = ( ( long ) Float.floatToIntBits( ( float ) bestCost[ f ] ) << 32 ) | f;
+		}
+		Arrays.sort( order, 0, nOrder );
+		for ( int i = 0; i < nOrder; i++ )
+		{
+			final int f = ( int ) order[ i ];
+			if ( divisions.motherOf[ bestA[ f ] ] < 0 && divisions.motherOf[ bestB[ f ] ] < 0 )
+			{
+				divisions.motherOf[ bestA[ f ] ] = frame.ids[ f ];
+				divisions.motherOf[ bestB[ f ] ] = frame.ids[ f ];
+				divisions.mothers.set( frame.ids[ f ] );
+				divisions.costOf[ frame.ids[ f ] ] = bestCost[ f ];
+			}
+		}
+		return divisions;
+	}
+
+	/**
+	 * @return the id of the mother of the spot, or -1 if it is not a
+	 *         daughter.
+	 */
+	int getMother( final int spot )
+	{
+		return spot < motherOf.length ? motherOf[ spot ] : -1;
+	}
+
+	/**
+	 * @return {@code true} if the spot is the mother of a division.
+	 */
+	boolean isMother( final int id )
+	{
+		return mothers.get( id );
+	}
+
+	/**
+	 * @return the cost of the division of the mother, below the maximum cost,
+	 *         or {@link Double#POSITIVE_INFINITY} if it is not a mother.
+	 */
+	double getCost( final int id )
+	{
+		return mothers.get( id ) ? costOf[ id ] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return {@code true} if the spot can be linked to the candidate: the
+	 *         daughters only to their mother, and the other spots to anything
+	 *         but a mother.
+	 */
+	boolean accepts( final int spot, final int candidateId )
+	{
+		final int mother = getMother( spot );
+		return mother < 0 ? !mothers.get( candidateId ) : mother == candidateId;
+	}
+
+	private static int frameIndex( final int[] indexInFrame, final int id )
+	{
+		return 0 <= id && id < indexInFrame.length ? indexInFrame[ id ] : -1;
+	}
+
+	/**
+	 * @return a value proportional to the volume of the ellipsoid, or 0 if it
+	 *         is degenerate.
+	 */
+	private static double volume( final double[] cov, final int index )
+	{
+		return Math.sqrt( Math.max( 0, EllipsoidGeometry.determinant( cov, index * 9 ) ) );
+	}
+
+}
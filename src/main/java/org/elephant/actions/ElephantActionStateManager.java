@@ -49,6 +49,8 @@ public enum ElephantActionStateManager
 
 	private ControlAxis axis = ControlAxis.X;
 
+	private CancellationToken cancellationToken = new CancellationToken();
+
 	public synchronized boolean isLivemode()
 	{
 		return isLivemode;
@@ -67,9 +69,30 @@ public enum ElephantActionStateManager
 		return isAborted;
 	}
 
-	public synchronized void setAborted( boolean isAborted )
+	/**
+	 * Set the aborted flag. Setting it cancels the cancellation token of the
+	 * current run, and resetting it starts a new run with a new token.
+	 * 
+	 * @param isAborted
+	 *            the aborted flag.
+	 */
+	public void setAborted( boolean isAborted )
+	{
+		final CancellationToken tokenToCancel;
+		synchronized ( this )
+		{
+			this.isAborted = isAborted;
+			if ( !isAborted && cancellationToken.isCancelled() )
+				cancellationToken = new CancellationToken();
+			tokenToCancel = isAborted ? cancellationToken : null;
+		}
+		if ( tokenToCancel != null )
+			tokenToCancel.cancel();
+	}
+
+	public synchronized CancellationToken getCancellationToken()
 	{
-		this.isAborted = isAborted;
+		return cancellationToken;
 	}
 
 	public synchronized boolean isAutoFocus()
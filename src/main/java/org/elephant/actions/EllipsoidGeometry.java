@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+/**
+ * Closed-form geometry of 3D ellipsoids represented by their covariance
+ * matrices.
+ * <p>
+ * Matrices are 3x3 and stored row-major in flat {@code double} arrays, with an
+ * optional offset so that many of them can be packed in a single array. All
+ * methods work on caller-provided buffers without allocation and without
+ * shared state, so that they can be used concurrently.
+ * 
+ * @author Ko Sugawara
+ */
+final class EllipsoidGeometry
+{
+
+	/**
+	 * Compute the determinant of a 3x3 matrix.
+	 */
+	static double determinant( final double[] m, final int offset )
+	{
+		final double a00 = m[ offset ], a01 = m[ offset + 1 ], a02 = m[ offset + 2 ];
+		final double a10 = m[ offset + 3 ], a11 = m[ offset + 4 ], a12 = m[ offset + 5 ];
+		final double a20 = m[ offset + 6 ], a21 = m[ offset + 7 ], a22 = m[ offset + 8 ];
+		return a00 * ( a11 * a22 - a12 * a21 )
+				- a01 * ( a10 * a22 - a12 * a20 )
+				+ a02 * ( a10 * a21 - a11 * a20 );
+	}
+
+	/**
+	 * Compare volumes of two ellipsoids represented with covariances. The
+	 * volume of an ellipsoid is proportional to the square root of the
+	 * determinant of its covariance, so the determinants are compared
+	 * directly.
+	 * 
+	 * @return a negative integer, zero, or a positive integer as the first
+	 *         ellipsoid is smaller than, equal to, or larger than the second.
+	 */
+	static int compareVolume( final double[] cov1, final int offset1, final double[] cov2, final int offset2 )
+	{
+		return Double.compare( determinant( cov1, offset1 ), determinant( cov2, offset2 ) );
+	}
+
+	/**
+	 * Decompose a symmetric 3x3 matrix into eigenvalues and eigenvectors using
+	 * a closed-form solution.
+	 * 
+	 * @param m
+	 *            the symmetric matrix.
+	 * @param offset
+	 *            the offset of the matrix in {@code m}.
+	 * @param eigenvalues
+	 *            receives the 3 eigenvalues in ascending order.
+	 * @param eigenvectors
+	 *            receives the eigenvectors as the columns of a row-major 3x3
+	 *            matrix, in the order of {@code eigenvalues}.
+	 */
+	static void decomposeSymmetric( final double[] m, final int offset, final double[] eigenvalues, final double[] eigenvectors )
+	{
+		// scale the matrix to avoid overflow and underflow
+		double scale = 0;
+		for ( int i = 0; i < 9; i++ )
+			scale = Math.max( scale, Math.abs( m[ offset + i ] ) );
+		if ( scale == 0 )
+		{
+			eigenvalues[ 0 ] = eigenvalues[ 1 ] = eigenvalues[ 2 ] = 0;
+			setIdentity( eigenvectors );
+			return;
+		}
+		final double a00 = m[ offset ] / scale;
+		final double a01 = m[ offset + 1 ] / scale;
+		final double a02 = m[ offset + 2 ] / scale;
+		final double a11 = m[ offset + 4 ] / scale;
+		final double a12 = m[ offset + 5 ] / scale;
+		final double a22 = m[ offset + 8 ] / scale;
+
+		final double norm = a01 * a01 + a02 * a02 + a12 * a12;
+		if ( norm == 0 )
+		{
+			// diagonal matrix
+			eigenvalues[ 0 ] = a00;
+			eigenvalues[ 1 ] = a11;
+			eigenvalues[ 2 ] = a22;
+			setIdentity( eigenvectors );
+			sortAscending( eigenvalues, eigenvectors );
+			scale( eigenvalues, scale );
+			return;
+		}
+
+		final double q = ( a00 + a11 + a22 ) / 3;
+		final double b00 = a00 - q;
+		final double b11 = a11 - q;
+		final double b22 = a22 - q;
+		final double p = Math.sqrt( ( b00 * b00 + b11 * b11 + b22 * b22 + 2 * norm ) / 6 );
+		final double halfDet = ( b00 * ( b11 * b22 - a12 * a12 )
+				- a01 * ( a01 * b22 - a12 * a02 )
+				+ a02 * ( a01 * a12 - b11 * a02 ) ) / ( 2 * p * p * p );
+		final double angle = Math.acos( Math.max( -1, Math.min( 1, halfDet ) ) ) / 3;
+		final double eigMax = q + 2 * p * Math.cos( angle );
+		final double eigMin = q + 2 * p * Math.cos( angle + 2 * Math.PI / 3 );
+		final double eigMid = 3 * q - eigMax - eigMin;
+		eigenvalues[ 0 ] = eigMin;
+		eigenvalues[ 1 ] = eigMid;
+		eigenvalues[ 2 ] = eigMax;
+
+		// compute the eigenvector of the most isolated eigenvalue first
+		final int first = 0 <= halfDet ? 2 : 0;
+		final int last = 2 - first;
+		computeEigenvector0( a00, a01, a02, a11, a12, a22, eigenvalues[ first ], eigenvectors, first );
+		computeEigenvector1( a00, a01, a02, a11, a12, a22, eigenvectors, first, eigMid );
+		// the last one is the cross product of the others
+		final double x0 = eigenvectors[ first ], y0 = eigenvectors[ 3 + first ], z0 = eigenvectors[ 6 + first ];
+		final double x1 = eigenvectors[ 1 ], y1 = eigenvectors[ 4 ], z1 = eigenvectors[ 7 ];
+		eigenvectors[ last ] = y0 * z1 - z0 * y1;
+		eigenvectors[ 3 + last ] = z0 * x1 - x0 * z1;
+		eigenvectors[ 6 + last ] = x0 * y1 - y0 * x1;
+		scale( eigenvalues, scale );
+	}
+
+	/**
+	 * Compose a covariance from eigenvectors and eigenvalues:
+	 * {@code cov = V diag(d) V^T}. {@code cov} must not be the same array as
+	 * {@code eigenvectors}.
+	 */
+	static void compose( final double[] eigenvectors, final double[] eigenvalues, final double[] cov )
+	{
+		for ( int i = 0; i < 3; i++ )
+		{
+			for ( int j = i; j < 3; j++ )
+			{
+				double sum = 0;
+				for ( int k = 0; k < 3; k++ )
+					sum += eigenvectors[ i * 3 + k ] * eigenvalues[ k ] * eigenvectors[ j * 3 + k ];
+				cov[ i * 3 + j ] = sum;
+				cov[ j * 3 + i ] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Compute {@code ab = a * b}. {@code ab} must not be the same array as
+	 * {@code a} or {@code b}.
+	 */
+	static void mult( final double[] a, final double[] b, final double[] ab )
+	{
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 3; j++ )
+				ab[ i * 3 + j ] = a[ i * 3 ] * b[ j ] + a[ i * 3 + 1 ] * b[ 3 + j ] + a[ i * 3 + 2 ] * b[ 6 + j ];
+	}
+
+	/**
+	 * Test whether two ellipsoids may overlap, projecting both of them onto
+	 * the line through their centers. The extent of an ellipsoid with
+	 * covariance {@code S} along a unit direction {@code u} is
+	 * {@code sqrt(u^T S u)}. A {@code false} result is exact; a {@code true}
+	 * result means the ellipsoids are not separated along that line.
+	 */
+	static boolean mayOverlap( final double[] pos1, final int posOffset1, final double[] cov1, final int covOffset1,
+			final double[] pos2, final int posOffset2, final double[] cov2, final int covOffset2 )
+	{
+		final double dx = pos2[ posOffset2 ] - pos1[ posOffset1 ];
+		final double dy = pos2[ posOffset2 + 1 ] - pos1[ posOffset1 + 1 ];
+		final double dz = pos2[ posOffset2 + 2 ] - pos1[ posOffset1 + 2 ];
+		final double sqDist = dx * dx + dy * dy + dz * dz;
+		if ( sqDist == 0 )
+			return true;
+		final double extent = Math.sqrt( quadraticForm( cov1, covOffset1, dx, dy, dz ) )
+				+ Math.sqrt( quadraticForm( cov2, covOffset2, dx, dy, dz ) );
+		// both extents are scaled by the distance since (dx, dy, dz) is not normalized
+		return sqDist <= extent;
+	}
+
+	static void flatten( final double[][] matrix, final double[] m )
+	{
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 3; j++ )
+				m[ i * 3 + j ] = matrix[ i ][ j ];
+	}
+
+	static void unflatten( final double[] m, final double[][] matrix )
+	{
+		for ( int i = 0; i < 3; i++ )
+			for ( int j = 0; j < 3; j++ )
+				matrix[ i ][ j ] = m[ i * 3 + j ];
+	}
+
+	private static double quadraticForm( final double[] m, final int offset, final double x, final double y, final double z )
+	{
+		return x * ( m[ offset ] * x + m[ offset + 1 ] * y + m[ offset + 2 ] * z )
+				+ y * ( m[ offset + 3 ] * x + m[ offset + 4 ] * y + m[ offset + 5 ] * z )
+				+ z * ( m[ offset + 6 ] * x + m[ offset + 7 ] * y + m[ offset + 8 ] * z );
+	}
+
+	/**
+	 * Compute the eigenvector of an eigenvalue with multiplicity 1 as the
+	 * largest cross product of two rows of {@code A - eigenvalue * I}.
+	 */
+	private static void computeEigenvector0( final double a00, final double a01, final double a02, final double a11, final double a12, final double a22,
+			final double eigenvalue, final double[] eigenvectors, final int column )
+	{
+		final double r00 = a00 - eigenvalue, r01 = a01, r02 = a02;
+		final double r10 = a01, r11 = a11 - eigenvalue, r12 = a12;
+		final double r20 = a02, r21 = a12, r22 = a22 - eigenvalue;
+		final double c0x = r01 * r12 - r02 * r11, c0y = r02 * r10 - r00 * r12, c0z = r00 * r11 - r01 * r10;
+		final double c1x = r01 * r22 - r02 * r21, c1y = r02 * r20 - r00 * r22, c1z = r00 * r21 - r01 * r20;
+		final double c2x = r11 * r22 - r12 * r21, c2y = r12 * r20 - r10 * r22, c2z = r10 * r21 - r11 * r20;
+		final double d0 = c0x * c0x + c0y * c0y + c0z * c0z;
+		final double d1 = c1x * c1x + c1y * c1y + c1z * c1z;
+		final double d2 = c2x * c2x + c2y * c2y + c2z * c2z;
+		double x, y, z, d;
+		if ( d1 <= d0 && d2 <= d0 )
+		{
+			x = c0x;
+			y = c0y;
+			z = c0z;
+			d = d0;
+		}
+		else if ( d2 <= d1 )
+		{
+			x = c1x;
+			y = c1y;
+			z = c1z;
+			d = d1;
+		}
+		else
+		{
+			x = c2x;
+			y = c2y;
+			z = c2z;
+			d = d2;
+		}
+		final double invLength = 1 / Math.sqrt( d );
+		eigenvectors[ column ] = x * invLength;
+		eigenvectors[ 3 + column ] = y * invLength;
+		eigenvectors[ 6 + column ] = z * invLength;
+	}
+
+	/**
+	 * Compute the eigenvector of the middle eigenvalue in the plane
+	 * orthogonal to an already computed eigenvector, and store it in the
+	 * middle column.
+	 */
+	private static void computeEigenvector1( final double a00, final double a01, final double a02, final double a11, final double a12, final double a22,
+			final double[] eigenvectors, final int column, final double eigenvalue )
+	{
+		final double wx = eigenvectors[ column ], wy = eigenvectors[ 3 + column ], wz = eigenvectors[ 6 + column ];
+		// orthonormal basis (u, v) of the plane orthogonal to w
+		final double ux, uy, uz;
+		if ( Math.abs( wy ) < Math.abs( wx ) )
+		{
+			final double invLength = 1 / Math.sqrt( wx * wx + wz * wz );
+			ux = -wz * invLength;
+			uy = 0;
+			uz = wx * invLength;
+		}
+		else
+		{
+			final double invLength = 1 / Math.sqrt( wy * wy + wz * wz );
+			ux = 0;
+			uy = wz * invLength;
+			uz = -wy * invLength;
+		}
+		final double vx = wy * uz - wz * uy;
+		final double vy = wz * ux - wx * uz;
+		final double vz = wx * uy - wy * ux;
+
+		// 2x2 matrix of A - eigenvalue * I in the (u, v) basis
+		final double aux = a00 * ux + a01 * uy + a02 * uz;
+		final double auy = a01 * ux + a11 * uy + a12 * uz;
+		final double auz = a02 * ux + a12 * uy + a22 * uz;
+		final double avx = a00 * vx + a01 * vy + a02 * vz;
+		final double avy = a01 * vx + a11 * vy + a12 * vz;
+		final double avz = a02 * vx + a12 * vy + a22 * vz;
+		double m00 = ux * aux + uy * auy + uz * auz - eigenvalue;
+		double m01 = ux * avx + uy * avy + uz * avz;
+		double m11 = vx * avx + vy * avy + vz * avz - eigenvalue;
+		final double absM00 = Math.abs( m00 );
+		final double absM01 = Math.abs( m01 );
+		final double absM11 = Math.abs( m11 );
+		double cu = 1;
+		double cv = 0;
+		if ( absM11 <= absM00 )
+		{
+			if ( 0 < Math.max( absM00, absM01 ) )
+			{
+				if ( absM01 <= absM00 )
+				{
+					m01 /= m00;
+					m00 = 1 / Math.sqrt( 1 + m01 * m01 );
+					m01 *= m00;
+				}
+				else
+				{
+					m00 /= m01;
+					m01 = 1 / Math.sqrt( 1 + m00 * m00 );
+					m00 *= m01;
+				}
+				cu = m01;
+				cv = -m00;
+			}
+		}
+		else
+		{
+			if ( 0 < Math.max( absM11, absM01 ) )
+			{
+				if ( absM01 <= absM11 )
+				{
+					m01 /= m11;
+					m11 = 1 / Math.sqrt( 1 + m01 * m01 );
+					m01 *= m11;
+				}
+				else
+				{
+					m11 /= m01;
+					m01 = 1 / Math.sqrt( 1 + m11 * m11 );
+					m11 *= m01;
+				}
+				cu = m11;
+				cv = -m01;
+			}
+		}
+		eigenvectors[ 1 ] = cu * ux + cv * vx;
+		eigenvectors[ 4 ] = cu * uy + cv * vy;
+		eigenvectors[ 7 ] = cu * uz + cv * vz;
+	}
+
+	private static void setIdentity( final double[] m )
+	{
+		for ( int i = 0; i < 9; i++ )
+			m[ i ] = i % 4 == 0 ? 1 : 0;
+	}
+
+	private static void scale( final double[] values, final double factor )
+	{
+		for ( int i = 0; i < values.length; i++ )
+			values[ i ] *= factor;
+	}
+
+	/**
+	 * Sort eigenvalues in ascending order together with the eigenvector
+	 * columns.
+	 */
+	private static void sortAscending( final double[] eigenvalues, final double[] eigenvectors )
+	{
+		for ( int i = 0; i < 2; i++ )
+		{
+			for ( int j = 0; j < 2 - i; j++ )
+			{
+				if ( eigenvalues[ j + 1 ] < eigenvalues[ j ] )
+				{
+					final double tmp = eigenvalues[ j ];
+					eigenvalues[ j ] = eigenvalues[ j + 1 ];
+					eigenvalues[ j + 1 ] = tmp;
+					for ( int r = 0; r < 3; r++ )
+					{
+						final double tmpV = eigenvectors[ r * 3 + j ];
+						eigenvectors[ r * 3 + j ] = eigenvectors[ r * 3 + j + 1 ];
+						eigenvectors[ r * 3 + j + 1 ] = tmpV;
+					}
+				}
+			}
+		}
+	}
+
+	private EllipsoidGeometry()
+	{
+		throw new AssertionError();
+	}
+
+}
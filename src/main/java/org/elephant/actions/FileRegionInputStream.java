@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream over a region of a file. The bytes are read with
+ * positional reads on a {@link FileChannel} directly into the caller's
+ * buffer, so that regions of the same channel can be streamed concurrently.
+ * Closing the stream leaves the channel open.
+ * 
+ * @author Ko Sugawara
+ */
+final class FileRegionInputStream extends InputStream
+{
+
+	private final FileChannel channel;
+
+	private final long end;
+
+	private long position;
+
+	private long mark;
+
+	/**
+	 * Create a stream over a region of a file.
+	 * 
+	 * @param channel
+	 *            the channel to read from.
+	 * @param position
+	 *            the start of the region in the file.
+	 * @param length
+	 *            the length of the region.
+	 */
+	FileRegionInputStream( final FileChannel channel, final long position, final long length )
+	{
+		this.channel = channel;
+		this.position = position;
+		this.end = position + length;
+		this.mark = position;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		final byte[] b = new byte[ 1 ];
+		return read( b, 0, 1 ) == -1 ? -1 : b[ 0 ] & 0xFF;
+	}
+
+	@Override
+	public int read( final byte[] b, final int off, final int len ) throws IOException
+	{
+		if ( len == 0 )
+			return 0;
+		if ( end <= position )
+			return -1;
+		final int n = ( int ) Math.min( len, end - position );
+		final int readBytes = channel.read( ByteBuffer.wrap( b, off, n ), position );
+		if ( readBytes == -1 )
+			throw new IOException( "Unexpected end of file at " + position );
+		position += readBytes;
+		return readBytes;
+	}
+
+	@Override
+	public long skip( final long n )
+	{
+		final long skipped = Math.max( 0, Math.min( n, end - position ) );
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available()
+	{
+		return ( int ) Math.min( Integer.MAX_VALUE, end - position );
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark( final int readlimit )
+	{
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		position = mark;
+	}
+
+}
@@ -103,7 +103,7 @@ public class IntegerInputDialog extends JDialog
 			@Override
 			public void actionPerformed( ActionEvent e )
 			{
-				defaultValue = getMinimumNumberOfLinks();
+				defaultValue = getValue();
 				isCanceled = false;
 				setVisible( false );
 			}
@@ -130,9 +130,14 @@ public class IntegerInputDialog extends JDialog
 		return isCanceled;
 	}
 
-	public int getMinimumNumberOfLinks()
+	public int getValue()
 	{
 		return ( ( Number ) spinner.getValue() ).intValue();
 	}
 
+	public int getMinimumNumberOfLinks()
+	{
+		return getValue();
+	}
+
 }
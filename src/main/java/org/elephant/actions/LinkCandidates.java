@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Link candidates of the spots to be linked, searched in the previous frames
+ * up to the search depth.
+ * <p>
+ * The search runs on read-only {@link Frame} snapshots without holding the
+ * graph lock. The spots to be linked are grouped into spatial tiles, which
+ * are processed in parallel on the common fork-join pool.
+ * 
+ * @author Ko Sugawara
+ */
+final class LinkCandidates
+{
+
+	/**
+	 * A read-only snapshot of the spots at a timepoint.
+	 */
+	static final class Frame
+	{
+
+		final int timepoint;
+
+		final int n;
+
+		/** Spot ids obtained from a {@link SpotIdResolver}. */
+		final int[] ids;
+
+		/** Spot coordinates, 3 values per spot. */
+		final double[] pos;
+
+		/** Spot covariances, 9 values per spot. */
+		final double[] cov;
+
+		/** The spots that can be linked to. */
+		final BitSet accepted;
+
+		private final PointKDTree tree;
+
+		Frame( final int timepoint, final int n, final int[] ids, final double[] pos, final double[] cov, final BitSet accepted )
+		{
+			this.timepoint = timepoint;
+			this.n = n;
+			this.ids = ids;
+			this.pos = pos;
+			this.cov = cov;
+			this.accepted = accepted;
+			this.tree = new PointKDTree( pos, n );
+		}
+
+	}
+
+	/** The tile edge length in units of the linking radius. */
+	private static final double TILE_SIZE_IN_RADII = 4;
+
+	private final int depth;
+
+	private final int nNeighbors;
+
+	/** The number of candidates for each (spot, depth). */
+	private final int[] counts;
+
+	/** Candidate spot ids for each (spot, depth), nearest first. */
+	private final int[] ids;
+
+	private final double[] squaredDistances;
+
+	private LinkCandidates( final int nSpots, final int depth, final int nNeighbors )
+	{
+		this.depth = depth;
+		this.nNeighbors = nNeighbors;
+		this.counts = new int[ nSpots * depth ];
+		this.ids = new int[ nSpots * depth * nNeighbors ];
+		this.squaredDistances = new double[ nSpots * depth * nNeighbors ];
+	}
+
+	/**
+	 * Search the link candidates. For each spot and each frame, the
+	 * {@code nNeighbors} nearest spots within the linking radius are
+	 * examined, and those accepted by the frame become the candidates.
+	 * 
+	 * @param frames
+	 *            the frames to search, the previous frame first.
+	 * @param pos
+	 *            the coordinates of the spots to be linked, 3 values per
+	 *            spot.
+	 * @param nSpots
+	 *            the number of spots to be linked.
+	 * @param nNeighbors
+	 *            the number of nearest neighbors examined in each frame.
+	 * @param squaredRadius
+	 *            the squared linking radius.
+	 * @return the candidates.
+	 */
+	static LinkCandidates search( final Frame[] frames, final double[] pos, final int nSpots, final int nNeighbors, final double squaredRadius )
+	{
+		final LinkCandidates candidates = new LinkCandidates( nSpots, frames.length, Math.max( 0, nNeighbors ) );
+		if ( nSpots == 0 || frames.length == 0 || nNeighbors <= 0 )
+			return candidates;
+		final long[] tiles = sortIntoTiles( pos, nSpots, TILE_SIZE_IN_RADII * Math.sqrt( squaredRadius ) );
+		final int[] tileStart = new int[ nSpots + 1 ];
+		int nTiles = 0;
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			if ( i == 0 || ( tiles[ i ] >>> 32 ) != ( tiles[ i - 1 ] >>> 32 ) )
+				tileStart[ nTiles++ ] = i;
+		}
+		tileStart[ nTiles ] = nSpots;
+		IntStream.range( 0, nTiles ).parallel().forEach( tile -> {
+			final int[] foundIndices = new int[ nNeighbors ];
+			final double[] foundSquaredDistances = new double[ nNeighbors ];
+			for ( int j = tileStart[ tile ]; j < tileStart[ tile + 1 ]; j++ )
+			{
+				final int i = ( int ) tiles[ j ];
+				for ( int t = 0; t < frames.length; t++ )
+				{
+					final Frame frame = frames[ t ];
+					final int nFound = frame.tree.nearest( pos[ i * 3 ], pos[ i * 3 + 1 ], pos[ i * 3 + 2 ],
+							nNeighbors, squaredRadius, foundIndices, foundSquaredDistances );
+					final int slot = i * frames.length + t;
+					int count = 0;
+					for ( int k = 0; k < nFound; k++ )
+					{
+						if ( frame.accepted.get( foundIndices[ k ] ) )
+						{
+							candidates.ids[ slot * nNeighbors + count ] = frame.ids[ foundIndices[ k ] ];
+							candidates.squaredDistances[ slot * nNeighbors + count ] = foundSquaredDistances[ k ];
+							count++;
+						}
+					}
+					candidates.counts[ slot ] = count;
+				}
+			}
+		} );
+		return candidates;
+	}
+
+	/**
+	 * Sort the spots by the tile they fall into. Each entry holds the tile
+	 * index in its upper and the spot index in its lower 32 bits.
+	 */
+	private static long[] sortIntoTiles( final double[] pos, final int nSpots, final double tileSize )
+	{
+		final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], pos[ i * 3 + d ] );
+				max[ d ] = Math.max( max[ d ], pos[ i * 3 + d ] );
+			}
+		}
+		// keep the number of tiles within an int
+		final long[] dims = new long[ 3 ];
+		double size = 0 < tileSize ? tileSize : 1;
+		while ( true )
+		{
+			for ( int d = 0; d < 3; d++ )
+				dims[ d ] = ( long ) ( ( max[ d ] - min[ d ] ) / size ) + 1;
+			if ( dims[ 0 ] * dims[ 1 ] * dims[ 2 ] <= Integer.MAX_VALUE )
+				break;
+			size *= 2;
+		}
+		final long[] tiles = new long[ nSpots ];
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			long tile = 0;
+			for ( int d = 0; d < 3; d++ )
+				tile = tile * dims[ d ] + Math.min( dims[ d ] - 1, ( long ) ( ( pos[ i * 3 + d ] - min[ d ] ) / size ) );
+			tiles[ i ] = ( tile << 32 ) | i;
+		}
+		Arrays.parallelSort( tiles );
+		return tiles;
+	}
+
+	/**
+	 * @return the number of frames searched.
+	 */
+	int depth()
+	{
+		return depth;
+	}
+
+	/**
+	 * @return the number of candidates of the spot in the frame at the depth.
+	 */
+	int size( final int spot, final int depth )
+	{
+		return counts[ spot * this.depth + depth ];
+	}
+
+	/**
+	 * @return the id of the {@code k}-th nearest candidate.
+	 */
+	int getId( final int spot, final int depth, final int k )
+	{
+		return ids[ ( spot * this.depth + depth ) * nNeighbors + k ];
+	}
+
+	/**
+	 * @return the squared distance to the {@code k}-th nearest candidate.
+	 */
+	double getSquaredDistance( final int spot, final int depth, final int k )
+	{
+		return squaredDistances[ ( spot * this.depth + depth ) * nNeighbors + k ];
+	}
+
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+
+import org.elephant.actions.mixins.GraphActionMixin;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.mamut.plugin.MamutPluginAppModel;
+import org.mastodon.spatial.VertexPositionListener;
+
+/**
+ * Keep the squared length of every link, indexed by the pool index of the
+ * link, so that it can be read without allocating.
+ * 
+ * <p>
+ * The lengths are updated when a link is added and when one of its spots is
+ * moved. All methods must be called with the graph lock held; the listeners
+ * are called with the write lock held.
+ * 
+ * @author Ko Sugawara
+ */
+public class LinkLengthService extends AbstractElephantService
+		implements GraphActionMixin, GraphListener< Spot, Link >, VertexPositionListener< Spot >
+{
+
+	private static final long serialVersionUID = 1L;
+
+	private double[] squaredLengths = new double[ 0 ];
+
+	public LinkLengthService()
+	{
+		super();
+	}
+
+	@Override
+	public void init( final MamutPluginAppModel pluginAppModel )
+	{
+		super.init( pluginAppModel, null );
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			rebuild();
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+		getGraph().addGraphListener( this );
+		getGraph().addVertexPositionListener( this );
+	}
+
+	/**
+	 * Get the squared length of the link.
+	 */
+	public double getSquaredLength( final Link link )
+	{
+		final int index = link.getInternalPoolIndex();
+		final double[] squaredLengths = this.squaredLengths;
+		if ( index < squaredLengths.length && !Double.isNaN( squaredLengths[ index ] ) )
+			return squaredLengths[ index ];
+		return computeSquaredLength( link );
+	}
+
+	private double computeSquaredLength( final Link link )
+	{
+		final Spot source = getGraph().vertexRef();
+		final Spot target = getGraph().vertexRef();
+		try
+		{
+			link.getSource( source );
+			link.getTarget( target );
+			double squaredLength = 0;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double diff = source.getDoublePosition( d ) - target.getDoublePosition( d );
+				squaredLength += diff * diff;
+			}
+			return squaredLength;
+		}
+		finally
+		{
+			getGraph().releaseRef( source );
+			getGraph().releaseRef( target );
+		}
+	}
+
+	private void update( final Link link )
+	{
+		final int index = link.getInternalPoolIndex();
+		if ( squaredLengths.length <= index )
+		{
+			final int oldLength = squaredLengths.length;
+			squaredLengths = Arrays.copyOf( squaredLengths, Math.max( index + 1, oldLength * 2 ) );
+			Arrays.fill( squaredLengths, oldLength, squaredLengths.length, Double.NaN );
+		}
+		squaredLengths[ index ] = computeSquaredLength( link );
+	}
+
+	private void rebuild()
+	{
+		squaredLengths = new double[ 0 ];
+		for ( final Link link : getGraph().edges() )
+			update( link );
+	}
+
+	/**
+	 * GraphListener< Spot, Link >
+	 */
+
+	@Override
+	public void graphRebuilt()
+	{
+		rebuild();
+	}
+
+	@Override
+	public void vertexAdded( final Spot vertex )
+	{}
+
+	@Override
+	public void vertexRemoved( final Spot vertex )
+	{}
+
+	@Override
+	public void edgeAdded( final Link edge )
+	{
+		update( edge );
+	}
+
+	@Override
+	public void edgeRemoved( final Link edge )
+	{
+		final int index = edge.getInternalPoolIndex();
+		if ( index < squaredLengths.length )
+			squaredLengths[ index ] = Double.NaN;
+	}
+
+	/**
+	 * VertexPositionListener< Spot >
+	 */
+
+	@Override
+	public void vertexPositionChanged( final Spot vertex )
+	{
+		for ( final Link link : vertex.incomingEdges() )
+			update( link );
+		for ( final Link link : vertex.outgoingEdges() )
+			update( link );
+	}
+
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.BitSet;
+
+/**
+ * The state of the nearest-neighbor linking of a frame, keyed by the pool
+ * indices of spots and links and stored without boxing.
+ * 
+ * @author Ko Sugawara
+ */
+final class LinkingState
+{
+
+	/** The spots linked to a previous frame. */
+	private final BitSet linkedSpots = new BitSet();
+
+	/** The spots for which a spot has been interpolated. */
+	private final BitSet interpolatedSpots = new BitSet();
+
+	/** The links evicted in this run, removed at the end of it. */
+	private final BitSet evictedLinks = new BitSet();
+
+	boolean isLinked( final int spotId )
+	{
+		return linkedSpots.get( spotId );
+	}
+
+	void setLinked( final int spotId, final boolean linked )
+	{
+		linkedSpots.set( spotId, linked );
+	}
+
+	boolean isInterpolated( final int spotId )
+	{
+		return interpolatedSpots.get( spotId );
+	}
+
+	void setInterpolated( final int spotId )
+	{
+		interpolatedSpots.set( spotId );
+	}
+
+	boolean isEvicted( final int linkId )
+	{
+		return evictedLinks.get( linkId );
+	}
+
+	void evict( final int linkId )
+	{
+		evictedLinks.set( linkId );
+	}
+
+}
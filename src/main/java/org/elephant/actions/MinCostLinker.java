@@ -0,0 +1,536 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Link spots between two frames by solving a sparse min-cost flow problem on
+ * primitive arrays.
+ * <p>
+ * Each child (a spot in the later frame) is linked to at most one parent (a
+ * spot in the earlier frame) within the linking radius. The cost of a link is
+ * the squared distance between the child and the parent. A parent takes more
+ * than one child, up to {@code maxChildren}, only if a division cost is given
+ * for it, e.g. from a division score, which each additional child pays on
+ * top of its link. Without one, a child is rather left unlinked, so that new
+ * or false-positive spots next to a cell do not become spurious divisions.
+ * Leaving a child unlinked costs more than the links of all the children of
+ * its component together, so that no solution leaves a child unlinked to save
+ * on distances: the number of links is maximized first and their total cost
+ * is minimized second.
+ * <p>
+ * The candidate links are found with a {@link PointKDTree}, the resulting
+ * bipartite graph is split into connected components, and each component is
+ * solved independently (and in parallel) with successive shortest paths.
+ * 
+ * @author Ko Sugawara
+ */
+final class MinCostLinker
+{
+
+	private final double squaredRadius;
+
+	private final int maxChildren;
+
+	/**
+	 * Create a linker.
+	 * 
+	 * @param squaredRadius
+	 *            the squared linking radius.
+	 * @param maxChildren
+	 *            the maximum number of children of a parent.
+	 */
+	MinCostLinker( final double squaredRadius, final int maxChildren )
+	{
+		this.squaredRadius = squaredRadius;
+		this.maxChildren = Math.max( 1, maxChildren );
+	}
+
+	/**
+	 * Link the children to the parents.
+	 * 
+	 * @param parentPos
+	 *            parent coordinates, 3 values per parent.
+	 * @param parentChildren
+	 *            the number of children each parent already has, or
+	 *            {@code null} if none has any.
+	 * @param nParents
+	 *            the number of parents.
+	 * @param childPos
+	 *            child coordinates, 3 values per child.
+	 * @param nChildren
+	 *            the number of children.
+	 * @return the index of the parent of each child, or -1 for the children
+	 *         left unlinked.
+	 */
+	int[] link( final double[] parentPos, final int[] parentChildren, final int nParents, final double[] childPos, final int nChildren )
+	{
+		return link( parentPos, parentChildren, null, nParents, childPos, nChildren );
+	}
+
+	/**
+	 * Link the children to the parents, adding a cost per parent to the cost
+	 * of its links.
+	 * 
+	 * @param parentPos
+	 *            parent coordinates, 3 values per parent.
+	 * @param parentChildren
+	 *            the number of children each parent already has, or
+	 *            {@code null} if none has any.
+	 * @param parentCosts
+	 *            the additional cost of linking to each parent, less than the
+	 *            squared radius, or {@code null} for none.
+	 * @param nParents
+	 *            the number of parents.
+	 * @param childPos
+	 *            child coordinates, 3 values per child.
+	 * @param nChildren
+	 *            the number of children.
+	 * @return the index of the parent of each child, or -1 for the children
+	 *         left unlinked.
+	 */
+	int[] link( final double[] parentPos, final int[] parentChildren, final double[] parentCosts, final int nParents, final double[] childPos, final int nChildren )
+	{
+		return link( parentPos, parentChildren, parentCosts, null, nParents, childPos, nChildren );
+	}
+
+	/**
+	 * Link the children to the parents, adding a cost per parent to the cost
+	 * of its links and replacing the division cost of each parent.
+	 * 
+	 * @param parentPos
+	 *            parent coordinates, 3 values per parent.
+	 * @param parentChildren
+	 *            the number of children each parent already has, or
+	 *            {@code null} if none has any.
+	 * @param parentCosts
+	 *            the additional cost of linking to each parent, less than the
+	 *            squared radius, or {@code null} for none.
+	 * @param divisionCosts
+	 *            the cost of each additional child of each parent, at most the
+	 *            squared radius, or {@code null} if no parent takes more than
+	 *            one child. A parent with a larger cost, e.g.
+	 *            {@link Double#POSITIVE_INFINITY}, takes no more than one
+	 *            child.
+	 * @param nParents
+	 *            the number of parents.
+	 * @param childPos
+	 *            child coordinates, 3 values per child.
+	 * @param nChildren
+	 *            the number of children.
+	 * @return the index of the parent of each child, or -1 for the children
+	 *         left unlinked.
+	 */
+	int[] link( final double[] parentPos, final int[] parentChildren, final double[] parentCosts, final double[] divisionCosts, final int nParents,
+			final double[] childPos, final int nChildren )
+	{
+		final int[] parentOf = new int[ nChildren ];
+		Arrays.fill( parentOf, -1 );
+		if ( nParents == 0 || nChildren == 0 )
+			return parentOf;
+
+		// candidate links in CSR layout, grouped by child
+		final int[] candStart = new int[ nChildren + 1 ];
+		final int[][] candParents = new int[ nChildren ][];
+		final double[][] candCosts = new double[ nChildren ][];
+		final PointKDTree tree = new PointKDTree( parentPos, nParents );
+		IntStream.range( 0, nChildren ).parallel().forEach( c -> {
+			final IntBuffer found = new IntBuffer();
+			final double x = childPos[ c * 3 ];
+			final double y = childPos[ c * 3 + 1 ];
+			final double z = childPos[ c * 3 + 2 ];
+			tree.radius( x, y, z, squaredRadius, p -> {
+				if ( parentChildren == null || parentChildren[ p ] < maxChildren )
+					found.add( p );
+			} );
+			candParents[ c ] = found.toArray();
+			final double[] costs = new double[ found.size ];
+			for ( int k = 0; k < found.size; k++ )
+				costs[ k ] = tree.squaredDistance( found.data[ k ], x, y, z ) + ( parentCosts == null ? 0 : parentCosts[ found.data[ k ] ] );
+			candCosts[ c ] = costs;
+		} );
+		for ( int c = 0; c < nChildren; c++ )
+			candStart[ c + 1 ] = candStart[ c ] + candParents[ c ].length;
+		final int nCand = candStart[ nChildren ];
+		final int[] candParent = new int[ nCand ];
+		final double[] candCost = new double[ nCand ];
+		for ( int c = 0; c < nChildren; c++ )
+		{
+			System.arraycopy( candParents[ c ], 0, candParent, candStart[ c ], candParents[ c ].length );
+			System.arraycopy( candCosts[ c ], 0, candCost, candStart[ c ], candCosts[ c ].length );
+		}
+
+		// connected components of the candidate graph (children, then parents)
+		final int[] roots = new int[ nChildren + nParents ];
+		for ( int i = 0; i < roots.length; i++ )
+			roots[ i ] = i;
+		for ( int c = 0; c < nChildren; c++ )
+		{
+			for ( int k = candStart[ c ]; k < candStart[ c + 1 ]; k++ )
+				union( roots, c, nChildren + candParent[ k ] );
+		}
+		final int[] componentOfRoot = new int[ nChildren + nParents ];
+		Arrays.fill( componentOfRoot, -1 );
+		final int[] componentOfChild = new int[ nChildren ];
+		int nComponents = 0;
+		for ( int c = 0; c < nChildren; c++ )
+		{
+			if ( candStart[ c ] == candStart[ c + 1 ] )
+			{
+				componentOfChild[ c ] = -1;
+				continue;
+			}
+			final int root = find( roots, c );
+			if ( componentOfRoot[ root ] < 0 )
+				componentOfRoot[ root ] = nComponents++;
+			componentOfChild[ c ] = componentOfRoot[ root ];
+		}
+		final int[] componentStart = new int[ nComponents + 1 ];
+		for ( int c = 0; c < nChildren; c++ )
+		{
+			if ( 0 <= componentOfChild[ c ] )
+				componentStart[ componentOfChild[ c ] + 1 ]++;
+		}
+		for ( int i = 0; i < nComponents; i++ )
+			componentStart[ i + 1 ] += componentStart[ i ];
+		final int[] componentChildren = new int[ componentStart[ nComponents ] ];
+		final int[] fill = Arrays.copyOf( componentStart, nComponents );
+		for ( int c = 0; c < nChildren; c++ )
+		{
+			if ( 0 <= componentOfChild[ c ] )
+				componentChildren[ fill[ componentOfChild[ c ] ]++ ] = c;
+		}
+
+		// the components share no parents, so they can be solved concurrently
+		final int[] localIndex = new int[ nParents ];
+		Arrays.fill( localIndex, -1 );
+		IntStream.range( 0, nComponents ).parallel().forEach( i -> solve(
+				componentChildren, componentStart[ i ], componentStart[ i + 1 ],
+				candStart, candParent, candCost, parentChildren, divisionCosts, localIndex, parentOf ) );
+		return parentOf;
+	}
+
+	/**
+	 * Solve one connected component with successive shortest paths, running
+	 * an early-terminating Dijkstra search from each child in turn. The
+	 * children are sources of one unit of flow each, and every child can
+	 * reach the sink through its "unlinked" arc, so each search succeeds.
+	 */
+	private void solve( final int[] children, final int from, final int to,
+			final int[] candStart, final int[] candParent, final double[] candCost,
+			final int[] parentChildren, final double[] divisionCosts, final int[] localIndex, final int[] parentOf )
+	{
+		final int nc = to - from;
+		int nCand = 0;
+		double maxCandCost = 0;
+		for ( int i = from; i < to; i++ )
+		{
+			final int c = children[ i ];
+			nCand += candStart[ c + 1 ] - candStart[ c ];
+			for ( int k = candStart[ c ]; k < candStart[ c + 1 ]; k++ )
+				maxCandCost = Math.max( maxCandCost, candCost[ k ] );
+		}
+		/*
+		 * An augmenting path that links one more child reassigns at most all
+		 * the other children and ends with at most one division, which costs at
+		 * most the squared radius, so it never costs more than this.
+		 */
+		final double unlinkedCost = nc * maxCandCost + squaredRadius + 1;
+		final int[] localParents = new int[ nCand ];
+		int np = 0;
+		for ( int i = from; i < to; i++ )
+		{
+			final int c = children[ i ];
+			for ( int k = candStart[ c ]; k < candStart[ c + 1 ]; k++ )
+			{
+				final int p = candParent[ k ];
+				if ( localIndex[ p ] < 0 )
+				{
+					localIndex[ p ] = np;
+					localParents[ np++ ] = p;
+				}
+			}
+		}
+
+		// residual network: children, parents, sink
+		final int nNodes = nc + np + 1;
+		final int sink = nc + np;
+		final FlowNetwork net = new FlowNetwork( nNodes, 2 * ( nCand + nc + 2 * np ) );
+		for ( int i = 0; i < nc; i++ )
+		{
+			final int c = children[ from + i ];
+			for ( int k = candStart[ c ]; k < candStart[ c + 1 ]; k++ )
+				net.addArc( i, nc + localIndex[ candParent[ k ] ], 1, candCost[ k ] );
+			net.addArc( i, sink, 1, unlinkedCost );
+		}
+		for ( int j = 0; j < np; j++ )
+		{
+			final int used = parentChildren == null ? 0 : parentChildren[ localParents[ j ] ];
+			if ( used == 0 )
+				net.addArc( nc + j, sink, 1, 0 );
+			final int extra = maxChildren - Math.max( used, 1 );
+			// the other parents take no additional child rather than leave one unlinked
+			if ( 0 < extra && divisionCosts != null && divisionCosts[ localParents[ j ] ] <= squaredRadius )
+				net.addArc( nc + j, sink, extra, divisionCosts[ localParents[ j ] ] );
+		}
+
+		for ( int i = 0; i < nc; i++ )
+			net.augment( i, sink );
+
+		for ( int i = 0; i < nc; i++ )
+		{
+			for ( int a = net.head[ i ]; a >= 0; a = net.next[ a ] )
+			{
+				final int v = net.to[ a ];
+				if ( ( a & 1 ) == 0 && nc <= v && v < sink && net.cap[ a ] == 0 )
+				{
+					parentOf[ children[ from + i ] ] = localParents[ v - nc ];
+					break;
+				}
+			}
+		}
+	}
+
+	private static int find( final int[] roots, int i )
+	{
+		while ( roots[ i ] != i )
+		{
+			roots[ i ] = roots[ roots[ i ] ];
+			i = roots[ i ];
+		}
+		return i;
+	}
+
+	private static void union( final int[] roots, final int a, final int b )
+	{
+		final int ra = find( roots, a );
+		final int rb = find( roots, b );
+		if ( ra != rb )
+			roots[ Math.max( ra, rb ) ] = Math.min( ra, rb );
+	}
+
+	/**
+	 * A residual network stored as arc arrays, where arc {@code a ^ 1} is the
+	 * reverse of arc {@code a}, with node potentials for Dijkstra searches on
+	 * reduced costs.
+	 */
+	private static final class FlowNetwork
+	{
+
+		private final int[] head;
+
+		private final int[] next;
+
+		private final int[] to;
+
+		private final int[] cap;
+
+		private final double[] cost;
+
+		private int nArcs;
+
+		private final double[] potential;
+
+		private final double[] dist;
+
+		private final int[] prevArc;
+
+		private final boolean[] settled;
+
+		private final int[] touched;
+
+		private int nTouched;
+
+		private double[] heapKeys = new double[ 16 ];
+
+		private int[] heapNodes = new int[ 16 ];
+
+		private int heapSize;
+
+		FlowNetwork( final int nNodes, final int maxArcs )
+		{
+			head = new int[ nNodes ];
+			Arrays.fill( head, -1 );
+			next = new int[ maxArcs ];
+			to = new int[ maxArcs ];
+			cap = new int[ maxArcs ];
+			cost = new double[ maxArcs ];
+			potential = new double[ nNodes ];
+			dist = new double[ nNodes ];
+			Arrays.fill( dist, Double.POSITIVE_INFINITY );
+			prevArc = new int[ nNodes ];
+			settled = new boolean[ nNodes ];
+			touched = new int[ nNodes ];
+		}
+
+		void addArc( final int u, final int v, final int capacity, final double c )
+		{
+			to[ nArcs ] = v;
+			cap[ nArcs ] = capacity;
+			cost[ nArcs ] = c;
+			next[ nArcs ] = head[ u ];
+			head[ u ] = nArcs++;
+			to[ nArcs ] = u;
+			cap[ nArcs ] = 0;
+			cost[ nArcs ] = -c;
+			next[ nArcs ] = head[ v ];
+			head[ v ] = nArcs++;
+		}
+
+		/**
+		 * Push one unit of flow from {@code source} to {@code sink} along a
+		 * shortest path and update the potentials. Only the nodes settled
+		 * before the sink are visited, so the search stays local.
+		 */
+		void augment( final int source, final int sink )
+		{
+			nTouched = 0;
+			heapSize = 0;
+			dist[ source ] = 0;
+			touched[ nTouched++ ] = source;
+			push( 0, source );
+			while ( 0 < heapSize )
+			{
+				final double d = heapKeys[ 0 ];
+				final int u = pop();
+				if ( settled[ u ] || dist[ u ] < d )
+					continue;
+				settled[ u ] = true;
+				if ( u == sink )
+					break;
+				for ( int a = head[ u ]; a >= 0; a = next[ a ] )
+				{
+					if ( cap[ a ] <= 0 )
+						continue;
+					final int v = to[ a ];
+					if ( settled[ v ] )
+						continue;
+					final double nd = d + Math.max( 0, cost[ a ] + potential[ u ] - potential[ v ] );
+					if ( nd < dist[ v ] )
+					{
+						if ( dist[ v ] == Double.POSITIVE_INFINITY )
+							touched[ nTouched++ ] = v;
+						dist[ v ] = nd;
+						prevArc[ v ] = a;
+						push( nd, v );
+					}
+				}
+			}
+			final double sinkDist = dist[ sink ];
+			for ( int i = 0; i < nTouched; i++ )
+			{
+				final int u = touched[ i ];
+				if ( settled[ u ] )
+					potential[ u ] += dist[ u ] - sinkDist;
+			}
+			for ( int v = sink; v != source; v = to[ prevArc[ v ] ^ 1 ] )
+			{
+				cap[ prevArc[ v ] ]--;
+				cap[ prevArc[ v ] ^ 1 ]++;
+			}
+			for ( int i = 0; i < nTouched; i++ )
+			{
+				final int u = touched[ i ];
+				dist[ u ] = Double.POSITIVE_INFINITY;
+				settled[ u ] = false;
+			}
+		}
+
+		private void push( final double key, final int node )
+		{
+			if ( heapSize == heapKeys.length )
+			{
+				heapKeys = Arrays.copyOf( heapKeys, heapSize * 2 );
+				heapNodes = Arrays.copyOf( heapNodes, heapSize * 2 );
+			}
+			int i = heapSize++;
+			while ( 0 < i )
+			{
+				final int parent = ( i - 1 ) >>> 1;
+				if ( heapKeys[ parent ] <= key )
+					break;
+				heapKeys[ i ] = heapKeys[ parent ];
+				heapNodes[ i ] = heapNodes[ parent ];
+				i = parent;
+			}
+			heapKeys[ i ] = key;
+			heapNodes[ i ] = node;
+		}
+
+		private int pop()
+		{
+			final int top = heapNodes[ 0 ];
+			final double key = heapKeys[ --heapSize ];
+			final int node = heapNodes[ heapSize ];
+			int i = 0;
+			while ( true )
+			{
+				int child = 2 * i + 1;
+				if ( heapSize <= child )
+					break;
+				if ( child + 1 < heapSize && heapKeys[ child + 1 ] < heapKeys[ child ] )
+					child++;
+				if ( key <= heapKeys[ child ] )
+					break;
+				heapKeys[ i ] = heapKeys[ child ];
+				heapNodes[ i ] = heapNodes[ child ];
+				i = child;
+			}
+			heapKeys[ i ] = key;
+			heapNodes[ i ] = node;
+			return top;
+		}
+
+	}
+
+	/**
+	 * A growable {@code int} array.
+	 */
+	private static final class IntBuffer
+	{
+
+		private int[] data = new int[ 8 ];
+
+		private int size;
+
+		void add( final int value )
+		{
+			if ( size == data.length )
+				data = Arrays.copyOf( data, size * 2 );
+			data[ size++ ] = value;
+		}
+
+		int[] toArray()
+		{
+			return Arrays.copyOf( data, size );
+		}
+
+	}
+
+}
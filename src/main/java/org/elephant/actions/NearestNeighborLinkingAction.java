@@ -27,17 +27,22 @@
 package org.elephant.actions;
 
 import java.net.HttpURLConnection;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
@@ -52,13 +57,13 @@ import org.elephant.actions.mixins.ElephantGraphActionMixin;
 import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.elephant.actions.mixins.ElephantSettingsMixin;
 import org.elephant.actions.mixins.ElephantUtils;
+import org.elephant.actions.mixins.LinkLengthMixin;
 import org.elephant.actions.mixins.SpatioTemporalIndexActionMinxin;
 import org.elephant.actions.mixins.TimepointMixin;
 import org.elephant.actions.mixins.UIActionMixin;
 import org.elephant.actions.mixins.URLMixin;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefList;
-import org.mastodon.kdtree.IncrementalNearestNeighborSearch;
 import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
@@ -76,10 +81,10 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
+import kong.unirest.HttpResponse;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
-import net.imglib2.RealPoint;
 
 /**
  * A linking workflow based on Nearest Neighbor with/without a flow estimation.
@@ -87,7 +92,7 @@ import net.imglib2.RealPoint;
  * @author Ko Sugawara
  */
 public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
-		implements BdvDataMixin, ElephantConstantsMixin, ElephantGraphActionMixin, ElephantSettingsMixin, ElephantGraphTagActionMixin, UIActionMixin, SpatioTemporalIndexActionMinxin, TimepointMixin, URLMixin
+		implements BdvDataMixin, ElephantConstantsMixin, ElephantGraphActionMixin, ElephantSettingsMixin, ElephantGraphTagActionMixin, LinkLengthMixin, UIActionMixin, SpatioTemporalIndexActionMinxin, TimepointMixin, URLMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -98,22 +103,37 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 
 	private static final String NAME_AROUND_MOUSE = String.format( NAME_BASE, " (around mouse)" );
 
+	private static final String NAME_GLOBAL = String.format( NAME_BASE, " (global)" );
+
 	private static final String MENU_TEXT = "Nearest Neighbor Linking";
 
 	private static final String[] MENU_KEYS_ENTIRE = new String[] { "alt L" };
 
 	private static final String[] MENU_KEYS_AROUND_MOUSE = new String[] { "alt shift L" };
 
+	private static final String[] MENU_KEYS_GLOBAL = new String[] { "not mapped" };
+
 	private static final String DESCRIPTION_BASE = "Link spots by the nearest neighbor algorithm. %s";
 
 	private static final String DESCRIPTION_ENTIRE = String.format( DESCRIPTION_BASE, "(entire view)" );
 
 	private static final String DESCRIPTION_AROUND_MOUSE = String.format( DESCRIPTION_BASE, "(around mouse)" );
 
+	private static final String DESCRIPTION_GLOBAL = "Link spots by a min-cost assignment over each pair of frames. (entire view)";
+
+	private static final long WRITE_LOCK_BUDGET_NANOS = 20_000_000L;
+
+	/**
+	 * The maximum number of times a spot is taken from the worklist, which
+	 * bounds the evictions back and forth between spots at equal distances.
+	 */
+	private static final int MAX_LINKING_ATTEMPTS = 5;
+
 	public enum NearestNeighborLinkingActionMode
 	{
 		ENTIRE( NAME_ENTIRE, MENU_KEYS_ENTIRE ),
-		AROUND_MOUSE( NAME_AROUND_MOUSE, MENU_KEYS_AROUND_MOUSE );
+		AROUND_MOUSE( NAME_AROUND_MOUSE, MENU_KEYS_AROUND_MOUSE ),
+		GLOBAL( NAME_GLOBAL, MENU_KEYS_GLOBAL );
 
 		private String name;
 
@@ -140,6 +160,8 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 
 	private final BdvViewMouseMotionService mouseMotionService;
 
+	private final LinkLengthService linkLengthService;
+
 	private VoxelDimensions cropBoxOrigin;
 
 	private VoxelDimensions cropBoxSize;
@@ -160,6 +182,25 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 
 	private Iterator< Integer > timepointIterator;
 
+	private CancellationToken cancellationToken;
+
+	/**
+	 * The timepoints linked to their previous timepoints in the current run.
+	 */
+	private BitSet linkedTimepoints;
+
+	/**
+	 * The resolvers of the timepoints whose {@code flow/predict} requests are in
+	 * flight in the pipelined workflow.
+	 */
+	private final Map< Integer, SpotIdResolver > pipelinedResolvers = new ConcurrentHashMap<>();
+
+	/**
+	 * The requests for the spots interpolated at a timepoint after its request
+	 * was sent in the pipelined workflow.
+	 */
+	private final Map< Integer, CompletableFuture< HttpResponse< String > > > missingSpotsRequests = new ConcurrentHashMap<>();
+
 	/*
 	 * Command description.
 	 */
@@ -182,6 +223,10 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 					NAME_AROUND_MOUSE,
 					MENU_KEYS_AROUND_MOUSE,
 					DESCRIPTION_AROUND_MOUSE );
+			descriptions.add(
+					NAME_GLOBAL,
+					MENU_KEYS_GLOBAL,
+					DESCRIPTION_GLOBAL );
 		}
 	}
 
@@ -197,11 +242,18 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		return mode.getMenuKeys();
 	}
 
-	public NearestNeighborLinkingAction( final NearestNeighborLinkingActionMode mode, final BdvViewMouseMotionService mouseMotionService )
+	public NearestNeighborLinkingAction( final NearestNeighborLinkingActionMode mode, final BdvViewMouseMotionService mouseMotionService, final LinkLengthService linkLengthService )
 	{
 		super( mode.getName() );
 		this.mode = mode;
 		this.mouseMotionService = mouseMotionService;
+		this.linkLengthService = linkLengthService;
+	}
+
+	@Override
+	public LinkLengthService getLinkLengthService()
+	{
+		return linkLengthService;
 	}
 
 	@Override
@@ -214,6 +266,8 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 				.boxed().sorted( Collections.reverseOrder() ).iterator();
 
 		getActionStateManager().setAborted( false );
+		cancellationToken = getActionStateManager().getCancellationToken();
+		linkedTimepoints = new BitSet();
 
 		final VoxelDimensions voxelSize = getVoxelDimensions();
 		final JsonArray scales = new JsonArray()
@@ -279,7 +333,10 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 	@Override
 	public void processDataset()
 	{
-		processNext( timepointIterator, pos, cov );
+		if ( getMainSettings().getUseOpticalflow() && 1 < getMainSettings().getLinkingPipelineWindowSize() )
+			processPipelined();
+		else
+			processNext( timepointIterator, pos, cov );
 	}
 
 	private void processNext( final Iterator< Integer > timepointIterator, final double[] pos, final double[][] cov )
@@ -288,55 +345,42 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		{
 			final int timepoint = timepointIterator.next();
 
-			final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
-			Predicate< Link > edgeFilter = edge -> edge.getTarget().getTimepoint() == timepoint;
-			edgeFilter = edgeFilter.and( edge -> getEdgeTagMap( getTrackingTagSet() ).get( edge ) == trackingUnlabeledTag );
-			if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
-				edgeFilter = edgeFilter.and( edge -> ElephantUtils.edgeIsInside( edge, cropBoxOrigin, cropBoxSize ) );
-			// acquire lock inside removeEdgesTaggedWith
-			removeEdges( getGraph().edges(), edgeFilter );
-
-			final JsonArray jsonSpots = Json.array();
-			getGraph().getLock().readLock().lock();
-			try
-			{
-				final TagSet tagSetDetection = getDetectionTagSet();
-				final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( tagSetDetection );
-				Predicate< Spot > spotFilter = spot -> spot.getTimepoint() == timepoint;
-				spotFilter = spotFilter.and( spot -> tagsToProcess.contains( tagMapDetection.get( spot ) ) );
-				spotFilter = spotFilter.and( spot -> spot.incomingEdges().size() == 0 );
-				if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
-					spotFilter = spotFilter.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
-				addSpotsToJsonFlow( getGraph().vertices(), jsonSpots, spotFilter );
-			}
-			finally
-			{
-				getGraph().getLock().readLock().unlock();
-			}
+			removeEdgesToRelink( timepoint );
+			final SpotIdResolver resolver = new SpotIdResolver( getGraph() );
+			final JsonArray jsonSpots = collectSpotsToLink( timepoint, resolver, null );
 			if ( getMainSettings().getUseOpticalflow() )
 			{
 				jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
 				jsonRootObject.set( JSON_KEY_SPOTS, jsonSpots );
 				try
 				{
-					postAsStringAsync( getEndpointURL( ENDPOINT_FLOW_PREDICT ), jsonRootObject.toString(),
+					postAsStringAsync( getEndpointURL( ENDPOINT_FLOW_PREDICT ), jsonRootObject.toString(), cancellationToken,
 							response -> {
 								if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 								{
 									final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
-									if ( rootObject.get( "completed" ).asBoolean() )
+									try
+									{
+										if ( rootObject.get( "completed" ).asBoolean() && !cancellationToken.isCancelled() )
+										{
+											final JsonArray jsonSpotsRes = rootObject.get( "spots" ).asArray();
+											linkSpots( jsonSpotsRes, timepoint, tagsToProcess, resolver, pos, cov );
+											linkedTimepoints.set( timepoint );
+											showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000, TextPosition.BOTTOM_RIGHT );
+										}
+									}
+									finally
 									{
-										final JsonArray jsonSpotsRes = rootObject.get( "spots" ).asArray();
-										linkSpots( jsonSpotsRes, timepoint, tagsToProcess, timepointIterator, pos, cov );
-										showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000, TextPosition.BOTTOM_RIGHT );
+										resolver.close();
 									}
-									if ( getActionStateManager().isAborted() )
-										showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
+									if ( cancellationToken.isCancelled() )
+										reportAborted();
 									else
 										processNext( timepointIterator, pos, cov );
 								}
 								else
 								{
+									resolver.close();
 									final StringBuilder sb = new StringBuilder( response.getStatusText() );
 									if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
 									{
@@ -346,19 +390,38 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 									showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
 									getClientLogger().severe( sb.toString() );
 								}
+							},
+							e -> {
+								resolver.close();
+								handleError( e );
+								getClientLogger().severe( "The request has failed" );
+								showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+							},
+							() -> {
+								resolver.close();
+								reportAborted();
 							} );
 				}
 				catch ( final ElephantConnectException e )
 				{
 					// already handled by UnirestMixin
+					resolver.close();
 				}
 			}
 			else
 			{
-				linkSpots( jsonSpots, timepoint, tagsToProcess, timepointIterator, pos, cov );
+				try
+				{
+					linkSpots( jsonSpots, timepoint, tagsToProcess, resolver, pos, cov );
+				}
+				finally
+				{
+					resolver.close();
+				}
+				linkedTimepoints.set( timepoint );
 				showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000, TextPosition.BOTTOM_RIGHT );
-				if ( getActionStateManager().isAborted() )
-					showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
+				if ( cancellationToken.isCancelled() )
+					reportAborted();
 				else
 					processNext( timepointIterator, pos, cov );
 			}
@@ -366,8 +429,287 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		}
 	}
 
-	private void linkSpots( final JsonArray jsonSpots, final int timepoint, final List< Tag > tagsToProcess, final Iterator< Integer > timepointIterator, final double[] pos, final double[][] cov )
+	/**
+	 * Keeps up to {@code linkingPipelineWindowSize} {@code flow/predict}
+	 * requests in flight while the responses are linked one by one in reverse
+	 * timepoint order on a dedicated thread, which waits only when the response
+	 * for the next timepoint has not arrived yet.
+	 * <p>
+	 * The links to be relinked are removed right before linking, so that
+	 * linking stays equivalent to the sequential workflow. Spots interpolated
+	 * at a timepoint after its request was sent are requested as soon as the
+	 * next timepoint has been linked, so that the extra request is in flight
+	 * together with the others instead of being sent once the response for the
+	 * timepoint has arrived. The linking thread still waits for its response
+	 * when it links the timepoint. Only the spots that are still unknown when
+	 * the timepoint is linked are requested on the spot.
+	 */
+	private void processPipelined()
 	{
+		final Semaphore window = new Semaphore( getMainSettings().getLinkingPipelineWindowSize() );
+		final AtomicBoolean isStopped = new AtomicBoolean();
+		final ExecutorService linkExecutor = Executors.newSingleThreadExecutor();
+		pipelinedResolvers.clear();
+		missingSpotsRequests.clear();
+		try
+		{
+			final String url = getEndpointURL( ENDPOINT_FLOW_PREDICT );
+			while ( timepointIterator.hasNext() )
+			{
+				window.acquire();
+				if ( isStopped.get() || cancellationToken.isCancelled() )
+				{
+					window.release();
+					break;
+				}
+				final int timepoint = timepointIterator.next();
+				final SpotIdResolver resolver = new SpotIdResolver( getGraph() );
+				final CompletableFuture< HttpResponse< String > > future;
+				try
+				{
+					future = postAsStringAsync( url, createFlowRequestBody( timepoint, collectSpotsToLink( timepoint, resolver, null ) ), cancellationToken, response -> {} );
+				}
+				catch ( final ElephantConnectException e )
+				{
+					resolver.close();
+					throw e;
+				}
+				// registered once the spots are collected, so that no spot is requested twice
+				pipelinedResolvers.put( timepoint, resolver );
+				linkExecutor.execute( () -> {
+					try
+					{
+						final HttpResponse< String > response = future.join();
+						if ( isStopped.get() )
+							return;
+						if ( cancellationToken.isCancelled() )
+						{
+							isStopped.set( true );
+							reportAborted();
+						}
+						else if ( !linkFlowResponse( url, response, timepoint, resolver ) )
+							isStopped.set( true );
+					}
+					catch ( final CompletionException | CancellationException e )
+					{
+						// already handled by UnirestMixin
+						if ( !isStopped.getAndSet( true ) && cancellationToken.isCancelled() )
+							reportAborted();
+					}
+					finally
+					{
+						pipelinedResolvers.remove( timepoint );
+						missingSpotsRequests.remove( timepoint );
+						resolver.close();
+						window.release();
+					}
+				} );
+			}
+		}
+		catch ( final ElephantConnectException e )
+		{
+			// already handled by UnirestMixin
+		}
+		catch ( final InterruptedException e )
+		{
+			isStopped.set( true );
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			linkExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Link a timepoint with a response from {@code flow/predict}.
+	 * 
+	 * @return {@code true} if the response status was OK, otherwise
+	 *         {@code false}.
+	 */
+	private boolean linkFlowResponse( final String url, final HttpResponse< String > response, final int timepoint, final SpotIdResolver resolver )
+	{
+		final CompletableFuture< HttpResponse< String > > futureMissing = missingSpotsRequests.remove( timepoint );
+		removeEdgesToRelink( timepoint );
+		if ( !isResponseOk( response ) )
+			return false;
+		final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
+		if ( !rootObject.get( "completed" ).asBoolean() )
+			return true;
+		final JsonArray jsonSpotsRes = rootObject.get( "spots" ).asArray();
+		// spots interpolated while the next timepoint was linked
+		if ( futureMissing != null && !addFlowSpots( futureMissing.join(), jsonSpotsRes ) )
+			return false;
+		// spots that were still not known to the resolver, e.g. staged by gap closing
+		final JsonArray jsonSpotsMissing = collectSpotsToLink( timepoint, resolver, spot -> resolver.isStale( spot.getInternalPoolIndex() ) );
+		if ( !jsonSpotsMissing.isEmpty() )
+		{
+			try
+			{
+				if ( !addFlowSpots( postAsStringAsync( url, createFlowRequestBody( timepoint, jsonSpotsMissing ), cancellationToken, r -> {} ).join(), jsonSpotsRes ) )
+					return false;
+			}
+			catch ( final ElephantConnectException e )
+			{
+				// already handled by UnirestMixin
+				return false;
+			}
+		}
+		if ( !cancellationToken.isCancelled() )
+		{
+			linkSpots( jsonSpotsRes, timepoint, tagsToProcess, resolver, pos, cov );
+			linkedTimepoints.set( timepoint );
+			showTextOverlayAnimator( String.format( "Linked %d->%d", timepoint, timepoint - 1 ), 1000, TextPosition.BOTTOM_RIGHT );
+			requestMissingSpots( url, timepoint - 1 );
+		}
+		return true;
+	}
+
+	/**
+	 * Add the spots in a response from {@code flow/predict} to the spots to
+	 * link.
+	 * 
+	 * @return {@code true} if the response status was OK, otherwise
+	 *         {@code false}.
+	 */
+	private boolean addFlowSpots( final HttpResponse< String > response, final JsonArray jsonSpots )
+	{
+		if ( !isResponseOk( response ) )
+			return false;
+		final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
+		if ( rootObject.get( "completed" ).asBoolean() )
+		{
+			for ( final JsonValue jsonSpot : rootObject.get( "spots" ).asArray() )
+				jsonSpots.add( jsonSpot );
+		}
+		return true;
+	}
+
+	/**
+	 * Send the request for the spots interpolated at a timepoint after its
+	 * request was sent, so that the response is awaited together with the one
+	 * for the timepoint. Nothing is sent if the request for the timepoint has
+	 * not been sent yet, as it then contains these spots.
+	 */
+	private void requestMissingSpots( final String url, final int timepoint )
+	{
+		final SpotIdResolver resolver = pipelinedResolvers.get( timepoint );
+		if ( resolver == null )
+			return;
+		final JsonArray jsonSpotsMissing = collectSpotsToLink( timepoint, resolver, spot -> resolver.isStale( spot.getInternalPoolIndex() ) );
+		if ( jsonSpotsMissing.isEmpty() )
+			return;
+		try
+		{
+			missingSpotsRequests.put( timepoint, postAsStringAsync( url, createFlowRequestBody( timepoint, jsonSpotsMissing ), cancellationToken, r -> {} ) );
+		}
+		catch ( final ElephantConnectException e )
+		{
+			// already handled by UnirestMixin; the spots are known to the resolver now, so stop when the timepoint is linked
+			final CompletableFuture< HttpResponse< String > > futureFailed = new CompletableFuture<>();
+			futureFailed.completeExceptionally( e );
+			missingSpotsRequests.put( timepoint, futureFailed );
+		}
+	}
+
+	private boolean isResponseOk( final HttpResponse< String > response )
+	{
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+			return true;
+		final StringBuilder sb = new StringBuilder( response.getStatusText() );
+		if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
+		{
+			sb.append( ": " );
+			sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
+		}
+		showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+		getClientLogger().severe( sb.toString() );
+		return false;
+	}
+
+	private String createFlowRequestBody( final int timepoint, final JsonArray jsonSpots )
+	{
+		return new JsonObject( jsonRootObject )
+				.set( JSON_KEY_TIMEPOINT, timepoint )
+				.set( JSON_KEY_SPOTS, jsonSpots )
+				.toString();
+	}
+
+	/**
+	 * @return a filter for the unlabeled links to the timepoint, which are
+	 *         removed and relinked.
+	 */
+	private Predicate< Link > getEdgesToRelinkFilter( final int timepoint )
+	{
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+		Predicate< Link > edgeFilter = edge -> edge.getTarget().getTimepoint() == timepoint;
+		edgeFilter = edgeFilter.and( edge -> getEdgeTagMap( getTrackingTagSet() ).get( edge ) == trackingUnlabeledTag );
+		if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
+			edgeFilter = edgeFilter.and( edge -> ElephantUtils.edgeIsInside( edge, cropBoxOrigin, cropBoxSize ) );
+		return edgeFilter;
+	}
+
+	private void removeEdgesToRelink( final int timepoint )
+	{
+		// acquire lock inside removeEdgesTaggedWith
+		removeEdges( getGraph().edges(), getEdgesToRelinkFilter( timepoint ) );
+	}
+
+	/**
+	 * Collect the spots at the timepoint to be linked. A spot is linked if it
+	 * has no incoming links once the links to relink are removed, so this can
+	 * be called before removing them.
+	 * 
+	 * @param timepoint
+	 *            the timepoint.
+	 * @param resolver
+	 *            the resolver to obtain the spot ids from.
+	 * @param filter
+	 *            an additional filter, or {@code null}.
+	 * @return the spots in JSON.
+	 */
+	private JsonArray collectSpotsToLink( final int timepoint, final SpotIdResolver resolver, final Predicate< Spot > filter )
+	{
+		final JsonArray jsonSpots = Json.array();
+		final Predicate< Link > edgeToRelinkFilter = getEdgesToRelinkFilter( timepoint );
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			final TagSet tagSetDetection = getDetectionTagSet();
+			final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( tagSetDetection );
+			Predicate< Spot > spotFilter = spot -> spot.getTimepoint() == timepoint;
+			spotFilter = spotFilter.and( spot -> tagsToProcess.contains( tagMapDetection.get( spot ) ) );
+			spotFilter = spotFilter.and( spot -> StreamSupport.stream( spot.incomingEdges().spliterator(), false ).allMatch( edgeToRelinkFilter ) );
+			if ( mode == NearestNeighborLinkingActionMode.AROUND_MOUSE )
+				spotFilter = spotFilter.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
+			if ( filter != null )
+				spotFilter = spotFilter.and( filter );
+			addSpotsToJsonFlow( getGraph().vertices(), jsonSpots, spotFilter, resolver );
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+		return jsonSpots;
+	}
+
+	/**
+	 * Report the timepoints that were linked before the run was aborted.
+	 */
+	private void reportAborted()
+	{
+		final String message = String.format( "Aborted (linked frames: %s)", ElephantUtils.formatTimepoints( linkedTimepoints ) );
+		showTextOverlayAnimator( message, 3000, TextPosition.BOTTOM_RIGHT );
+		getClientLogger().info( message );
+	}
+
+	private void linkSpots( final JsonArray jsonSpots, final int timepoint, final List< Tag > tagsToProcess, final SpotIdResolver resolver, final double[] pos, final double[][] cov )
+	{
+		if ( mode == NearestNeighborLinkingActionMode.GLOBAL )
+		{
+			linkSpotsGlobal( jsonSpots, timepoint, tagsToProcess, resolver );
+			return;
+		}
 		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
 		final ObjTagMap< Spot, Tag > tagMapTrackingSpot = getVertexTagMap( getTrackingTagSet() );
 		final ObjTagMap< Link, Tag > tagMapTrackingLink = getEdgeTagMap( getTrackingTagSet() );
@@ -375,151 +717,246 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		final Tag trackingApprovedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
 		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
 
-		final List< Integer > linkedSpotIds = new ArrayList<>();
-		final Map< Integer, Double > distMap = new HashMap<>();
-		final Map< Integer, Double > sqDispMap = new HashMap<>();
-		final Set< Integer > interpolatedIdSet = new HashSet<>();
+		final LinkingState state = new LinkingState();
 
-		final boolean useInterpolation = getMainSettings().getUseInterpolation();
 		final int searchDepth = getMainSettings().getNNSearchDepth();
 		final int searchNeighbors = getMainSettings().getNNSearchNeighbors();
+		final Spot spotRef = getGraph().vertexRef();
 		final Spot sourceRef = getGraph().vertexRef();
 		final Spot targetRef = getGraph().vertexRef();
 		final Spot newSpotRef = getGraph().vertexRef();
+		final Spot nearestRef = getGraph().vertexRef();
 		final Link edgeRef = getGraph().edgeRef();
 
-		final RealPoint point = new RealPoint( 3 );
+		final Comparator< Link > comparatorLink = Comparator.comparingDouble( this::squaredLengthOf );
 
-		final Comparator< Link > comparatorLink = new Comparator< Link >()
+		final int nSpots = jsonSpots.size();
+		final double[] spotPos = new double[ nSpots * 3 ];
+		final int[] spotIds = new int[ nSpots ];
+		final double[] spotSqDisps = getMainSettings().getUseOpticalflow() ? new double[ nSpots ] : null;
+		int maxSpotId = -1;
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			final JsonObject jsonSpot = jsonSpots.get( i ).asObject();
+			final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
+			for ( int j = 0; j < 3; j++ )
+				spotPos[ i * 3 + j ] = jsonPositions.get( j ).asDouble();
+			spotIds[ i ] = jsonSpot.get( "id" ).asInt();
+			if ( spotSqDisps != null )
+				spotSqDisps[ i ] = jsonSpot.get( "sqdisp" ).asDouble();
+			maxSpotId = Math.max( maxSpotId, spotIds[ i ] );
+		}
+		final int[] indexOfSpot = new int[ maxSpotId + 1 ];
+		Arrays.fill( indexOfSpot, -1 );
+		for ( int i = 0; i < nSpots; i++ )
 		{
-			@Override
-			public int compare( Link o1, Link o2 )
+			if ( 0 <= spotIds[ i ] )
+				indexOfSpot[ spotIds[ i ] ] = i;
+		}
+		// the deeper frames are searched by the gap closing
+		final LinkCandidates.Frame[] frames = new LinkCandidates.Frame[ Math.max( 0, Math.min( 1, Math.min( searchDepth, timepoint ) ) ) ];
+		final boolean scoreDivisions = getMainSettings().getUseDivisionScoring() && 2 <= maxEdges && frames.length != 0;
+		final double[] spotCov = scoreDivisions ? new double[ nSpots * 9 ] : null;
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			for ( int t = 0; t < frames.length; t++ )
+				frames[ t ] = takeFrame( timepoint - 1 - t, tagsToProcess, resolver );
+			for ( int i = 0; scoreDivisions && i < nSpots; i++ )
 			{
-				return Double.compare(
-						distMap.getOrDefault( o1.getInternalPoolIndex(), squaredDistanceOf( o1 ) ),
-						distMap.getOrDefault( o2.getInternalPoolIndex(), squaredDistanceOf( o2 ) ) );
+				final Spot spot = resolver.resolve( spotIds[ i ], timepoint, spotRef );
+				if ( spot == null )
+					continue;
+				spot.getCovariance( cov );
+				for ( int j = 0; j < 3; j++ )
+					System.arraycopy( cov[ j ], 0, spotCov, i * 9 + j * 3, 3 );
 			}
-
-		};
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+		final LinkCandidates candidates = LinkCandidates.search( frames, spotPos, nSpots, searchNeighbors, squaredDistanceThreshold );
+		final DivisionCandidates divisions = scoreDivisions
+				? DivisionCandidates.score( candidates, frames[ 0 ], spotPos, spotCov, spotSqDisps, nSpots, squaredDistanceThreshold, getMainSettings().getDivisionMaxCost() )
+				: DivisionCandidates.none();
 
 		getGraph().getLock().readLock().lock();
 		try
 		{
 			final RefList< Link > linksToRemove = RefCollections.createRefList( getGraph().edges() );
-			final Supplier< Stream< Spot > > spotSupplier = () -> getGraph().vertices().stream().filter( s -> s.getTimepoint() == timepoint );
-			for ( int n = 0; n < 5; n++ )
+			final StagedLinks stagedLinks = new StagedLinks( nSpots );
+			final StagedSpots stagedSpots = new StagedSpots( Math.sqrt( squaredDistanceThreshold ) );
+			final int[] stagedCandidates = new int[ searchNeighbors ];
+			final double[] stagedSquaredDistances = new double[ searchNeighbors ];
+			// the parents of the spots linked across a gap, or -1
+			final int[] gapParents = new int[ nSpots ];
+			Arrays.fill( gapParents, -1 );
+			boolean gapsClosed = searchDepth < 2 || timepoint < 2;
+			// the spots to link, in order; the spots displaced by an eviction are queued again
+			final int[] worklist = new int[ nSpots ];
+			final int[] attempts = new int[ nSpots ];
+			int worklistHead = 0;
+			int worklistSize = nSpots;
+			for ( int i = 0; i < nSpots; i++ )
+				worklist[ i ] = i;
+			while ( 0 < worklistSize || !gapsClosed )
 			{
-				for ( final JsonValue jsonValue : jsonSpots )
+				if ( worklistSize == 0 )
 				{
-					final JsonObject jsonSpot = jsonValue.asObject();
-					final int spotId = jsonSpot.get( "id" ).asInt();
-					if ( linkedSpotIds.contains( spotId ) )
-						continue;
-					final Spot spot = spotSupplier.get().filter( s -> s.getInternalPoolIndex() == spotId ).findFirst().orElse( null );
-					if ( spot == null )
+					closeGaps( jsonSpots, timepoint, searchDepth, tagsToProcess, resolver, spotIds, spotPos, state, stagedSpots, gapParents, spotRef, cov );
+					gapsClosed = true;
+					// the spots left unlinked may still link to the interpolated spots
+					for ( int i = 0; 0 < stagedSpots.numSpots() && i < nSpots; i++ )
 					{
-						getClientLogger().info( "spot " + spot + " was not found" );
+						if ( !state.isLinked( spotIds[ i ] ) )
+						{
+							attempts[ i ] = 0;
+							worklist[ ( worklistHead + worklistSize++ ) % nSpots ] = i;
+						}
 					}
-					else
+					continue;
+				}
+				final int s = worklist[ worklistHead ];
+				worklistHead = ( worklistHead + 1 ) % nSpots;
+				worklistSize--;
+				if ( MAX_LINKING_ATTEMPTS < ++attempts[ s ] )
+					continue;
+				final JsonObject jsonSpot = jsonSpots.get( s ).asObject();
+				final int spotId = jsonSpot.get( "id" ).asInt();
+				if ( state.isLinked( spotId ) )
+					continue;
+				final Spot spot = resolver.resolve( spotId, timepoint, spotRef );
+				if ( spot == null )
+				{
+					getClientLogger().info( "spot " + spotId + " was not found" );
+				}
+				else
+				{
+					double sqDisp = spotSqDisps == null ? 0 : spotSqDisps[ s ];
+					for ( int t = 0; t < candidates.depth(); t++ )
 					{
-						final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
-						double sqDisp = getMainSettings().getUseOpticalflow() ? jsonSpot.get( "sqdisp" ).asDouble() : 0;
-						for ( int t = 0; t < searchDepth && 0 <= ( timepoint - 1 - t ); t++ )
+						final int timepointToSearch = timepoint - 1 - t;
+						System.arraycopy( spotPos, s * 3, pos, 0, 3 );
+						final int nCandidates = candidates.size( s, t );
+						// the spots interpolated in this frame are candidates at the previous timepoint
+						final int nStagedCandidates = t == 0 ? stagedSpots.nearest( pos[ 0 ], pos[ 1 ], pos[ 2 ], searchNeighbors, stagedCandidates, stagedSquaredDistances ) : 0;
+						int kCandidate = 0;
+						int kStaged = 0;
+						for ( int k = 0; k < searchNeighbors && ( kCandidate < nCandidates || kStaged < nStagedCandidates ); k++ )
 						{
-							final int timepointToSearch = timepoint - 1 - t;
-							final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( timepointToSearch );
-							final IncrementalNearestNeighborSearch< Spot > inns = spatialIndex.getIncrementalNearestNeighborSearch();
-							for ( int j = 0; j < 3; j++ )
-								pos[ j ] = jsonPositions.get( j ).asDouble();
-							point.setPosition( pos );
-							inns.search( point );
-							for ( int i = 0; inns.hasNext() && i < searchNeighbors; i++ )
+							if ( kStaged < nStagedCandidates && ( nCandidates <= kCandidate || stagedSquaredDistances[ kStaged ] < candidates.getSquaredDistance( s, t, kCandidate ) ) )
 							{
-								final Spot nearestSpot = inns.next();
-								if ( !tagsToProcess.contains( tagMapDetection.get( nearestSpot ) ) )
-									continue;
-								final double squaredDistance = inns.getSquareDistance();
-								if ( squaredDistanceThreshold < squaredDistance )
-									break;
-								// TODO: Division detector
+								final int stagedSpot = stagedCandidates[ kStaged ];
+								final double squaredDistance = stagedSquaredDistances[ kStaged ];
+								kStaged++;
 								if ( !getMainSettings().getUseOpticalflow() )
 									sqDisp = squaredDistance;
 								int acceptableEdges = 1.0 < sqDisp ? maxEdges : 1;
-								for ( final Link edge : nearestSpot.outgoingEdges() )
+								int nEdges = 0;
+								int longestLink = -1;
+								for ( int l = stagedSpots.firstLink( stagedSpot ); 0 <= l; l = stagedSpots.nextLink( l ) )
 								{
-									if ( 1.0 < sqDispMap.getOrDefault( edge.getInternalPoolIndex(), 0.0 ) )
+									if ( stagedSpots.isEvicted( l ) )
+										continue;
+									if ( 1.0 < stagedSpots.getLinkSqDisp( l ) )
 										acceptableEdges = maxEdges;
-									if ( ( squaredDistance < 1.0 ) && ( distMap.getOrDefault( edge.getInternalPoolIndex(), 0.0 ) < 1.0 ) )
+									if ( ( squaredDistance < 1.0 ) && ( stagedSpots.getLinkSquaredDistance( l ) < 1.0 ) )
 										acceptableEdges = maxEdges;
+									if ( longestLink < 0 || stagedSpots.getLinkSquaredDistance( longestLink ) < stagedSpots.getLinkSquaredDistance( l ) )
+										longestLink = l;
+									nEdges++;
 								}
-								final Supplier< Stream< Link > > edgeSupplier = () -> StreamSupport.stream( nearestSpot.outgoingEdges().spliterator(), false );
-								final long nApprovedEdges = edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) == trackingApprovedTag ).count();
-								if ( nApprovedEdges < acceptableEdges )
+								// staged links are unlabeled, so none of them is approved
+								if ( acceptableEdges <= nEdges )
 								{
-									if ( acceptableEdges <= edgeSupplier.get().count() )
+									if ( stagedSpots.getLinkSquaredDistance( longestLink ) < squaredDistance )
+										continue;
+									stagedSpots.evictLink( longestLink );
+									final int displaced = stagedSpots.getLinkChild( longestLink );
+									state.setLinked( spotIds[ displaced ], false );
+									if ( worklistSize < nSpots )
+										worklist[ ( worklistHead + worklistSize++ ) % nSpots ] = displaced;
+								}
+								stagedSpots.addLink( stagedSpot, s, squaredDistance, sqDisp );
+								state.setLinked( spotId, true );
+								break;
+							}
+							final int nearestId = candidates.getId( s, t, kCandidate );
+							final double squaredDistance = candidates.getSquaredDistance( s, t, kCandidate );
+							kCandidate++;
+							// the mothers of the scored divisions are reserved for their daughters
+							if ( !divisions.accepts( s, nearestId ) )
+								continue;
+							final Spot nearestSpot = resolver.resolve( nearestId, timepointToSearch, nearestRef );
+							if ( nearestSpot == null )
+								continue;
+							if ( !getMainSettings().getUseOpticalflow() )
+								sqDisp = squaredDistance;
+							// the displacement rule covers the divisions that were not scored
+							int acceptableEdges = 0 <= divisions.getMother( s ) || 1.0 < sqDisp ? maxEdges : 1;
+							final Supplier< Stream< Link > > edgeSupplier = () -> StreamSupport.stream( nearestSpot.outgoingEdges().spliterator(), false )
+									.filter( edge -> !state.isEvicted( edge.getInternalPoolIndex() ) );
+							// the links in the graph were not added in this run, so they have no recorded displacement
+							if ( squaredDistance < 1.0 && edgeSupplier.get().findAny().isPresent() )
+								acceptableEdges = maxEdges;
+							int nStagedEdges = 0;
+							int longestStaged = -1;
+							for ( int c = stagedLinks.firstChild( nearestId ); 0 <= c; c = stagedLinks.nextChild( c ) )
+							{
+								if ( 1.0 < stagedLinks.getSqDisp( c ) )
+									acceptableEdges = maxEdges;
+								if ( ( squaredDistance < 1.0 ) && ( stagedLinks.getSquaredDistance( c ) < 1.0 ) )
+									acceptableEdges = maxEdges;
+								if ( longestStaged < 0 || stagedLinks.getSquaredDistance( longestStaged ) < stagedLinks.getSquaredDistance( c ) )
+									longestStaged = c;
+								nStagedEdges++;
+							}
+							final long nApprovedEdges = edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) == trackingApprovedTag ).count();
+							if ( nApprovedEdges < acceptableEdges )
+							{
+								if ( acceptableEdges <= edgeSupplier.get().count() + nStagedEdges )
+								{
+									final Link longestEdge = edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) != trackingApprovedTag ).max( comparatorLink ).orElse( null );
+									// staged links are unlabeled, so none of them is approved
+									if ( 0 <= longestStaged && ( longestEdge == null || squaredLengthOf( longestEdge ) < stagedLinks.getSquaredDistance( longestStaged ) ) )
 									{
-										final Link longestEdge = edgeSupplier.get().filter( edge -> tagMapTrackingLink.get( edge ) != trackingApprovedTag ).max( comparatorLink ).orElse( null );
-										if ( longestEdge != null )
-										{
-											if ( distMap.getOrDefault( longestEdge.getInternalPoolIndex(), squaredDistanceOf( longestEdge ) ) < squaredDistance )
-												continue;
-											else
-											{
-												edgeRef.refTo( longestEdge );
-												edgeRef.getSource( sourceRef );
-												edgeRef.getTarget( targetRef );
-												if ( 0 < sourceRef.getInternalPoolIndex() && 0 < targetRef.getInternalPoolIndex() )
-												{
-													linksToRemove.add( edgeRef );
-													linkedSpotIds.remove( ( Integer ) targetRef.getInternalPoolIndex() );
-												}
-											}
-										}
+										if ( stagedLinks.getSquaredDistance( longestStaged ) < squaredDistance )
+											continue;
+										stagedLinks.removeLink( longestStaged );
+										state.setLinked( spotIds[ longestStaged ], false );
+										if ( worklistSize < nSpots )
+											worklist[ ( worklistHead + worklistSize++ ) % nSpots ] = longestStaged;
 									}
-									if ( useInterpolation && ( 0 < t ) && !interpolatedIdSet.contains( spotId ) )
+									else if ( longestEdge != null )
 									{
-										spot.getCovariance( cov );
-										getGraph().getLock().readLock().unlock();
-										getGraph().getLock().writeLock().lock();
-										getActionStateManager().setWriting( true );
-										try
-										{
-											final Spot newSpot = getGraph().addVertex( newSpotRef ).init( timepoint - 1, pos, cov );
-											tagMapDetection.set( newSpot, detectionUnlabeledTag );
-											tagMapTrackingSpot.set( newSpot, trackingUnlabeledTag );
-											nearestSpot.refTo( newSpotRef );
-											interpolatedIdSet.add( spot.getInternalPoolIndex() );
-											getGraph().getLock().readLock().lock();
-										}
-										finally
+										if ( squaredLengthOf( longestEdge ) < squaredDistance )
+											continue;
+										else
 										{
-											getActionStateManager().setWriting( false );
-											getGraph().getLock().writeLock().unlock();
+											edgeRef.refTo( longestEdge );
+											edgeRef.getSource( sourceRef );
+											edgeRef.getTarget( targetRef );
+											if ( 0 < sourceRef.getInternalPoolIndex() && 0 < targetRef.getInternalPoolIndex() )
+											{
+												linksToRemove.add( edgeRef );
+												state.evict( edgeRef.getInternalPoolIndex() );
+												state.setLinked( targetRef.getInternalPoolIndex(), false );
+												final int targetId = targetRef.getInternalPoolIndex();
+												final int displaced = targetId < indexOfSpot.length ? indexOfSpot[ targetId ] : -1;
+												if ( 0 <= displaced && worklistSize < nSpots )
+													worklist[ ( worklistHead + worklistSize++ ) % nSpots ] = displaced;
+											}
 										}
 									}
-									getGraph().getLock().readLock().unlock();
-									getGraph().getLock().writeLock().lock();
-									getActionStateManager().setWriting( true );
-									try
-									{
-										final Link edge = getGraph().addEdge( nearestSpot, spot ).init();
-										tagMapTrackingLink.set( edge, trackingUnlabeledTag );
-										linkedSpotIds.add( spot.getInternalPoolIndex() );
-										distMap.put( edge.getInternalPoolIndex(), squaredDistance );
-										sqDispMap.put( edge.getInternalPoolIndex(), sqDisp );
-										getGraph().getLock().readLock().lock();
-									}
-									finally
-									{
-										getActionStateManager().setWriting( false );
-										getGraph().getLock().writeLock().unlock();
-									}
-									break;
 								}
-							}
-							if ( linkedSpotIds.contains( spotId ) )
+								stagedLinks.addLink( nearestId, s, squaredDistance, sqDisp );
+								state.setLinked( spotId, true );
 								break;
+							}
 						}
+						if ( state.isLinked( spotId ) )
+							break;
 					}
 				}
 			}
@@ -535,6 +972,50 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 					if ( 0 < sourceRef.getInternalPoolIndex() && 0 < targetRef.getInternalPoolIndex() )
 						getGraph().remove( edge );
 				}
+				// commit the links, the links across gaps, the interpolated spots and their links at once
+				for ( int i = 0; i < nSpots; i++ )
+				{
+					if ( stagedLinks.getParent( i ) < 0 )
+						continue;
+					final Spot parent = resolver.resolve( stagedLinks.getParent( i ), timepoint - 1, sourceRef );
+					final Spot child = resolver.resolve( spotIds[ i ], timepoint, spotRef );
+					if ( parent == null || child == null )
+						continue;
+					final Link edge = getGraph().addEdge( parent, child, edgeRef ).init();
+					tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+				}
+				for ( int i = 0; i < nSpots; i++ )
+				{
+					if ( gapParents[ i ] < 0 )
+						continue;
+					final Spot parent = resolver.resolve( gapParents[ i ], sourceRef );
+					final Spot child = resolver.resolve( spotIds[ i ], timepoint, spotRef );
+					if ( parent == null || child == null )
+						continue;
+					final Link edge = getGraph().addEdge( parent, child, edgeRef ).init();
+					tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+				}
+				for ( int i = 0; i < stagedSpots.numSpots(); i++ )
+				{
+					stagedSpots.getPosition( i, pos );
+					stagedSpots.getCovariance( i, cov );
+					final Spot newSpot = getGraph().addVertex( newSpotRef ).init( timepoint - 1, pos, cov );
+					tagMapDetection.set( newSpot, detectionUnlabeledTag );
+					tagMapTrackingSpot.set( newSpot, trackingUnlabeledTag );
+					final Spot parent = stagedSpots.getParent( i ) < 0 ? null : resolver.resolve( stagedSpots.getParent( i ), sourceRef );
+					if ( parent != null )
+						tagMapTrackingLink.set( getGraph().addEdge( parent, newSpot, edgeRef ).init(), trackingUnlabeledTag );
+					for ( int l = stagedSpots.firstLink( i ); 0 <= l; l = stagedSpots.nextLink( l ) )
+					{
+						if ( stagedSpots.isEvicted( l ) )
+							continue;
+						final Spot child = resolver.resolve( spotIds[ stagedSpots.getLinkChild( l ) ], timepoint, spotRef );
+						if ( child == null )
+							continue;
+						final Link edge = getGraph().addEdge( newSpot, child, edgeRef ).init();
+						tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+					}
+				}
 				getGraph().getLock().readLock().lock();
 			}
 			finally
@@ -542,9 +1023,12 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 				getActionStateManager().setWriting( false );
 				getGraph().getLock().writeLock().unlock();
 			}
+			getGraph().releaseRef( spotRef );
 			getGraph().releaseRef( sourceRef );
 			getGraph().releaseRef( targetRef );
 			getGraph().releaseRef( newSpotRef );
+			getGraph().releaseRef( nearestRef );
+			getGraph().releaseRef( edgeRef );
 		}
 		catch ( final Exception e )
 		{
@@ -558,7 +1042,263 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 		}
 	}
 
-	private void addSpotsToJsonFlow( final Collection< Spot > spots, final JsonArray jsonSpots, Predicate< Spot > filter )
+	/**
+	 * Close the gaps between the track ends in the frames before
+	 * {@code timepoint - 1} within the search depth and the spots left
+	 * unlinked at {@code timepoint}, solving them as one sparse assignment
+	 * with {@link MinCostLinker}. Longer gaps cost more. A gap is bridged by a
+	 * spot interpolated at {@code timepoint - 1} if the interpolation is
+	 * enabled. The links are staged to be committed with the frame. The graph
+	 * lock should be held.
+	 */
+	private void closeGaps( final JsonArray jsonSpots, final int timepoint, final int searchDepth, final List< Tag > tagsToProcess, final SpotIdResolver resolver,
+			final int[] spotIds, final double[] spotPos, final LinkingState state, final StagedSpots stagedSpots, final int[] gapParents, final Spot spotRef, final double[][] cov )
+	{
+		final int nSpots = spotIds.length;
+		final int[] starts = new int[ nSpots ];
+		final double[] startPos = new double[ nSpots * 3 ];
+		int nStarts = 0;
+		for ( int s = 0; s < nSpots; s++ )
+		{
+			if ( state.isLinked( spotIds[ s ] ) )
+				continue;
+			System.arraycopy( spotPos, s * 3, startPos, nStarts * 3, 3 );
+			starts[ nStarts++ ] = s;
+		}
+		if ( nStarts == 0 )
+			return;
+
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final int firstTimepoint = Math.max( 0, timepoint - searchDepth );
+		int capacity = 0;
+		for ( int t = firstTimepoint; t < timepoint - 1; t++ )
+			capacity += getSpatioTemporalIndex().getSpatialIndex( t ).size();
+		final int[] ends = new int[ capacity ];
+		final double[] endPos = new double[ capacity * 3 ];
+		final double[] endCosts = new double[ capacity ];
+		int nEnds = 0;
+		final double[] position = new double[ 3 ];
+		for ( int t = firstTimepoint; t < timepoint - 1; t++ )
+		{
+			final double gapCost = squaredDistanceThreshold * ( timepoint - 2 - t ) / searchDepth;
+			for ( final Spot spot : getSpatioTemporalIndex().getSpatialIndex( t ) )
+			{
+				if ( !spot.outgoingEdges().isEmpty() || !tagsToProcess.contains( tagMapDetection.get( spot ) ) )
+					continue;
+				spot.localize( position );
+				System.arraycopy( position, 0, endPos, nEnds * 3, 3 );
+				ends[ nEnds ] = resolver.getId( spot );
+				endCosts[ nEnds ] = gapCost;
+				nEnds++;
+			}
+		}
+		final int[] endOf = new MinCostLinker( squaredDistanceThreshold, 1 )
+				.link( endPos, null, endCosts, nEnds, startPos, nStarts );
+
+		final boolean useInterpolation = getMainSettings().getUseInterpolation();
+		for ( int i = 0; i < nStarts; i++ )
+		{
+			if ( endOf[ i ] < 0 )
+				continue;
+			final int s = starts[ i ];
+			if ( useInterpolation )
+			{
+				final Spot spot = resolver.resolve( spotIds[ s ], timepoint, spotRef );
+				if ( spot == null )
+					continue;
+				double squaredDistance = 0;
+				for ( int j = 0; j < 3; j++ )
+				{
+					final double d = startPos[ i * 3 + j ] - endPos[ endOf[ i ] * 3 + j ];
+					squaredDistance += d * d;
+				}
+				final double sqDisp = getMainSettings().getUseOpticalflow() ? jsonSpots.get( s ).asObject().get( "sqdisp" ).asDouble() : squaredDistance;
+				spot.getCovariance( cov );
+				System.arraycopy( spotPos, s * 3, position, 0, 3 );
+				final int stagedSpot = stagedSpots.addSpot( position, cov, ends[ endOf[ i ] ] );
+				stagedSpots.addLink( stagedSpot, s, squaredDistance, sqDisp );
+				state.setInterpolated( spotIds[ s ] );
+			}
+			else
+			{
+				gapParents[ s ] = ends[ endOf[ i ] ];
+			}
+			state.setLinked( spotIds[ s ], true );
+		}
+	}
+
+	/**
+	 * Take a snapshot of the spots at the timepoint for the candidate search.
+	 * The graph lock should be held.
+	 */
+	private LinkCandidates.Frame takeFrame( final int timepoint, final List< Tag > tagsToProcess, final SpotIdResolver resolver )
+	{
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( timepoint );
+		final int n = spatialIndex.size();
+		final int[] ids = new int[ n ];
+		final double[] pos = new double[ n * 3 ];
+		final double[] cov = new double[ n * 9 ];
+		final BitSet accepted = new BitSet( n );
+		final double[] spotPos = new double[ 3 ];
+		final double[][] spotCov = new double[ 3 ][ 3 ];
+		int i = 0;
+		for ( final Spot spot : spatialIndex )
+		{
+			spot.localize( spotPos );
+			System.arraycopy( spotPos, 0, pos, i * 3, 3 );
+			spot.getCovariance( spotCov );
+			for ( int j = 0; j < 3; j++ )
+				System.arraycopy( spotCov[ j ], 0, cov, i * 9 + j * 3, 3 );
+			ids[ i ] = resolver.getId( spot );
+			if ( tagsToProcess.contains( tagMapDetection.get( spot ) ) )
+				accepted.set( i );
+			i++;
+		}
+		return new LinkCandidates.Frame( timepoint, i, ids, pos, cov, accepted );
+	}
+
+	/**
+	 * Link the spots at {@code timepoint} to the spots at
+	 * {@code timepoint - 1} at once by solving a min-cost assignment with
+	 * {@link MinCostLinker}, instead of linking them one by one. Only the
+	 * mothers of the divisions scored with division scoring take a second
+	 * child, at a cost that grows with their score; a parent takes no other
+	 * second child, so that a new spot next to a cell is left unlinked rather
+	 * than linked as a spurious division.
+	 */
+	private void linkSpotsGlobal( final JsonArray jsonSpots, final int timepoint, final List< Tag > tagsToProcess, final SpotIdResolver resolver )
+	{
+		final int nChildren = jsonSpots.size();
+		final int[] childIds = new int[ nChildren ];
+		final double[] childPos = new double[ nChildren * 3 ];
+		final double[] childSqDisps = getMainSettings().getUseOpticalflow() ? new double[ nChildren ] : null;
+		for ( int i = 0; i < nChildren; i++ )
+		{
+			final JsonObject jsonSpot = jsonSpots.get( i ).asObject();
+			childIds[ i ] = jsonSpot.get( "id" ).asInt();
+			final JsonArray jsonPositions = jsonSpot.get( "pos" ).asArray();
+			for ( int j = 0; j < 3; j++ )
+				childPos[ i * 3 + j ] = jsonPositions.get( j ).asDouble();
+			if ( childSqDisps != null )
+				childSqDisps[ i ] = jsonSpot.get( "sqdisp" ).asDouble();
+		}
+
+		final boolean scoreDivisions = getMainSettings().getUseDivisionScoring() && 2 <= maxEdges && 0 < timepoint;
+		final double[] childCov = scoreDivisions ? new double[ nChildren * 9 ] : null;
+		LinkCandidates.Frame frame = null;
+		final int[] parentIds;
+		final double[] parentPos;
+		final int[] parentChildren;
+		int nParents = 0;
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			if ( scoreDivisions )
+			{
+				frame = takeFrame( timepoint - 1, tagsToProcess, resolver );
+				final Spot childRef = getGraph().vertexRef();
+				final double[][] cov = new double[ 3 ][ 3 ];
+				try
+				{
+					for ( int i = 0; i < nChildren; i++ )
+					{
+						final Spot child = resolver.resolve( childIds[ i ], timepoint, childRef );
+						if ( child == null )
+							continue;
+						child.getCovariance( cov );
+						for ( int j = 0; j < 3; j++ )
+							System.arraycopy( cov[ j ], 0, childCov, i * 9 + j * 3, 3 );
+					}
+				}
+				finally
+				{
+					getGraph().releaseRef( childRef );
+				}
+			}
+			final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+			final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( timepoint - 1 );
+			parentIds = new int[ spatialIndex.size() ];
+			parentPos = new double[ spatialIndex.size() * 3 ];
+			parentChildren = new int[ spatialIndex.size() ];
+			final double[] pos = new double[ 3 ];
+			for ( final Spot spot : spatialIndex )
+			{
+				if ( !tagsToProcess.contains( tagMapDetection.get( spot ) ) )
+					continue;
+				spot.localize( pos );
+				System.arraycopy( pos, 0, parentPos, nParents * 3, 3 );
+				parentIds[ nParents ] = resolver.getId( spot );
+				parentChildren[ nParents ] = spot.outgoingEdges().size();
+				nParents++;
+			}
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+
+		// only the mothers of the scored divisions take a second child, at a cost scaled by their score
+		double[] divisionCosts = null;
+		if ( frame != null )
+		{
+			final double maxCost = getMainSettings().getDivisionMaxCost();
+			final LinkCandidates candidates = LinkCandidates.search( new LinkCandidates.Frame[] { frame }, childPos, nChildren,
+					getMainSettings().getNNSearchNeighbors(), squaredDistanceThreshold );
+			final DivisionCandidates divisions = DivisionCandidates.score( candidates, frame, childPos, childCov, childSqDisps, nChildren, squaredDistanceThreshold, maxCost );
+			divisionCosts = new double[ nParents ];
+			for ( int p = 0; p < nParents; p++ )
+				divisionCosts[ p ] = divisions.isMother( parentIds[ p ] ) ? squaredDistanceThreshold * divisions.getCost( parentIds[ p ] ) / maxCost : Double.POSITIVE_INFINITY;
+		}
+		final int[] parentOf = new MinCostLinker( squaredDistanceThreshold, maxEdges )
+				.link( parentPos, parentChildren, null, divisionCosts, nParents, childPos, nChildren );
+
+		final ObjTagMap< Link, Tag > tagMapTrackingLink = getEdgeTagMap( getTrackingTagSet() );
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+		final Spot childRef = getGraph().vertexRef();
+		final Spot parentRef = getGraph().vertexRef();
+		final Link edgeRef = getGraph().edgeRef();
+		try
+		{
+			applyInWriteLockedChunks( nChildren, i -> {
+				if ( parentOf[ i ] < 0 )
+					return;
+				final Spot child = resolver.resolve( childIds[ i ], timepoint, childRef );
+				final Spot parent = resolver.resolve( parentIds[ parentOf[ i ] ], timepoint - 1, parentRef );
+				if ( child == null || parent == null )
+				{
+					getClientLogger().info( "spot " + ( child == null ? childIds[ i ] : parentIds[ parentOf[ i ] ] ) + " was not found" );
+					return;
+				}
+				if ( child.incomingEdges().size() != 0 )
+					return;
+				final Link edge = getGraph().addEdge( parent, child, edgeRef ).init();
+				tagMapTrackingLink.set( edge, trackingUnlabeledTag );
+			}, WRITE_LOCK_BUDGET_NANOS );
+		}
+		catch ( final Exception e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+		}
+		finally
+		{
+			getGraph().releaseRef( childRef );
+			getGraph().releaseRef( parentRef );
+			getGraph().releaseRef( edgeRef );
+			getGraph().getLock().writeLock().lock();
+			try
+			{
+				getModel().setUndoPoint();
+			}
+			finally
+			{
+				getGraph().getLock().writeLock().unlock();
+			}
+			notifyGraphChanged();
+		}
+	}
+
+	private void addSpotsToJsonFlow( final Collection< Spot > spots, final JsonArray jsonSpots, Predicate< Spot > filter, final SpotIdResolver resolver )
 	{
 		final double[] pos = new double[ 3 ];
 		final double[][] cov = new double[ 3 ][ 3 ];
@@ -575,7 +1315,7 @@ public class NearestNeighborLinkingAction extends AbstractElephantDatasetAction
 					for ( int i = 0; i < 3; i++ )
 						for ( int j = 0; j < 3; j++ )
 							cov1d[ i * 3 + j ] = cov[ i ][ j ];
-					final int id = spot.getInternalPoolIndex();
+					final int id = resolver.getId( spot );
 
 					final JsonObject jsonSpot = Json.object()
 							.add( "pos", Json.array( pos ) )
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A static 3D KD-tree over a set of points stored in a flat
+ * {@code double[]} ({@code x0, y0, z0, x1, y1, z1, ...}).
+ * <p>
+ * The tree is built once and is read-only afterwards, so queries can be run
+ * concurrently from multiple threads.
+ * 
+ * @author Ko Sugawara
+ */
+final class PointKDTree
+{
+
+	private final double[] coords;
+
+	/** Point indices arranged as an implicit balanced tree. */
+	private final int[] tree;
+
+	/**
+	 * Build a tree over the first {@code n} points in {@code coords}.
+	 * 
+	 * @param coords
+	 *            point coordinates, 3 values per point. The array is not
+	 *            copied and must not be modified while the tree is in use.
+	 * @param n
+	 *            the number of points.
+	 */
+	PointKDTree( final double[] coords, final int n )
+	{
+		this( coords, identity( n ), n );
+	}
+
+	/**
+	 * Build a tree over a subset of points in {@code coords}.
+	 * 
+	 * @param coords
+	 *            point coordinates, 3 values per point. The array is not
+	 *            copied and must not be modified while the tree is in use.
+	 * @param indices
+	 *            indices of the points to include.
+	 * @param n
+	 *            the number of valid entries in {@code indices}.
+	 */
+	PointKDTree( final double[] coords, final int[] indices, final int n )
+	{
+		this.coords = coords;
+		this.tree = new int[ n ];
+		System.arraycopy( indices, 0, tree, 0, n );
+		build( 0, n, 0 );
+	}
+
+	int size()
+	{
+		return tree.length;
+	}
+
+	double squaredDistance( final int index, final double x, final double y, final double z )
+	{
+		final double dx = coords[ index * 3 ] - x;
+		final double dy = coords[ index * 3 + 1 ] - y;
+		final double dz = coords[ index * 3 + 2 ] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Find the nearest point whose squared distance is smaller than
+	 * {@code maxSquaredDistance}.
+	 * 
+	 * @return the index of the nearest point, or -1 if there is none.
+	 */
+	int nearest( final double x, final double y, final double z, final double maxSquaredDistance )
+	{
+		return nearest( x, y, z, maxSquaredDistance, null );
+	}
+
+	/**
+	 * Find the nearest point that is accepted by {@code filter} and whose
+	 * squared distance is smaller than {@code maxSquaredDistance}.
+	 * 
+	 * @return the index of the nearest point, or -1 if there is none.
+	 */
+	int nearest( final double x, final double y, final double z, final double maxSquaredDistance, final IntPredicate filter )
+	{
+		final double[] best = new double[] { maxSquaredDistance, -1 };
+		nearest( 0, tree.length, 0, x, y, z, filter, best );
+		return ( int ) best[ 1 ];
+	}
+
+	/**
+	 * Find the {@code k} nearest points whose squared distances are not
+	 * greater than {@code maxSquaredDistance}, nearest first.
+	 * 
+	 * @param indices
+	 *            receives the indices of the points found; its length must be
+	 *            at least {@code k}.
+	 * @param squaredDistances
+	 *            receives the squared distances of the points found; its
+	 *            length must be at least {@code k}.
+	 * @return the number of points found.
+	 */
+	int nearest( final double x, final double y, final double z, final int k, final double maxSquaredDistance, final int[] indices, final double[] squaredDistances )
+	{
+		if ( k <= 0 )
+			return 0;
+		final int[] count = new int[ 1 ];
+		nearest( 0, tree.length, 0, x, y, z, k, maxSquaredDistance, indices, squaredDistances, count );
+		// the results form a max-heap; sort them in place, nearest first
+		for ( int n = count[ 0 ] - 1; 0 < n; n-- )
+		{
+			final int index = indices[ n ];
+			final double sqDist = squaredDistances[ n ];
+			indices[ n ] = indices[ 0 ];
+			squaredDistances[ n ] = squaredDistances[ 0 ];
+			siftDown( indices, squaredDistances, n, index, sqDist );
+		}
+		return count[ 0 ];
+	}
+
+	/**
+	 * Call {@code consumer} with every point whose squared distance is not
+	 * greater than {@code squaredRadius}. Points are reported in no particular
+	 * order.
+	 */
+	void radius( final double x, final double y, final double z, final double squaredRadius, final IntConsumer consumer )
+	{
+		radius( 0, tree.length, 0, x, y, z, squaredRadius, consumer );
+	}
+
+	private void nearest( final int lo, final int hi, final int axis, final double x, final double y, final double z, final IntPredicate filter, final double[] best )
+	{
+		if ( hi <= lo )
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		final int index = tree[ mid ];
+		final double sqDist = squaredDistance( index, x, y, z );
+		if ( sqDist < best[ 0 ] && ( filter == null || filter.test( index ) ) )
+		{
+			best[ 0 ] = sqDist;
+			best[ 1 ] = index;
+		}
+		final double diff = ( axis == 0 ? x : axis == 1 ? y : z ) - coords[ index * 3 + axis ];
+		final int nextAxis = axis == 2 ? 0 : axis + 1;
+		if ( diff < 0 )
+		{
+			nearest( lo, mid, nextAxis, x, y, z, filter, best );
+			if ( diff * diff < best[ 0 ] )
+				nearest( mid + 1, hi, nextAxis, x, y, z, filter, best );
+		}
+		else
+		{
+			nearest( mid + 1, hi, nextAxis, x, y, z, filter, best );
+			if ( diff * diff < best[ 0 ] )
+				nearest( lo, mid, nextAxis, x, y, z, filter, best );
+		}
+	}
+
+	private void nearest( final int lo, final int hi, final int axis, final double x, final double y, final double z, final int k, final double maxSquaredDistance,
+			final int[] indices, final double[] squaredDistances, final int[] count )
+	{
+		if ( hi <= lo )
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		final int index = tree[ mid ];
+		final double sqDist = squaredDistance( index, x, y, z );
+		if ( sqDist <= maxSquaredDistance )
+		{
+			if ( count[ 0 ] < k )
+			{
+				// sift up
+				int i = count[ 0 ]++;
+				while ( 0 < i )
+				{
+					final int parent = ( i - 1 ) >>> 1;
+					if ( sqDist <= squaredDistances[ parent ] )
+						break;
+					indices[ i ] = indices[ parent ];
+					squaredDistances[ i ] = squaredDistances[ parent ];
+					i = parent;
+				}
+				indices[ i ] = index;
+				squaredDistances[ i ] = sqDist;
+			}
+			else if ( sqDist < squaredDistances[ 0 ] )
+			{
+				siftDown( indices, squaredDistances, k, index, sqDist );
+			}
+		}
+		final double diff = ( axis == 0 ? x : axis == 1 ? y : z ) - coords[ index * 3 + axis ];
+		final int nextAxis = axis == 2 ? 0 : axis + 1;
+		final int nearLo = diff < 0 ? lo : mid + 1;
+		final int nearHi = diff < 0 ? mid : hi;
+		nearest( nearLo, nearHi, nextAxis, x, y, z, k, maxSquaredDistance, indices, squaredDistances, count );
+		final double bound = count[ 0 ] < k ? maxSquaredDistance : squaredDistances[ 0 ];
+		if ( diff * diff <= bound )
+		{
+			if ( diff < 0 )
+				nearest( mid + 1, hi, nextAxis, x, y, z, k, maxSquaredDistance, indices, squaredDistances, count );
+			else
+				nearest( lo, mid, nextAxis, x, y, z, k, maxSquaredDistance, indices, squaredDistances, count );
+		}
+	}
+
+	/**
+	 * Replace the root of the max-heap {@code indices[0..n)} keyed by
+	 * {@code squaredDistances} and restore the heap order.
+	 */
+	private static void siftDown( final int[] indices, final double[] squaredDistances, final int n, final int index, final double sqDist )
+	{
+		int i = 0;
+		while ( true )
+		{
+			int child = 2 * i + 1;
+			if ( n <= child )
+				break;
+			if ( child + 1 < n && squaredDistances[ child ] < squaredDistances[ child + 1 ] )
+				child++;
+			if ( squaredDistances[ child ] <= sqDist )
+				break;
+			indices[ i ] = indices[ child ];
+			squaredDistances[ i ] = squaredDistances[ child ];
+			i = child;
+		}
+		indices[ i ] = index;
+		squaredDistances[ i ] = sqDist;
+	}
+
+	private void radius( final int lo, final int hi, final int axis, final double x, final double y, final double z, final double squaredRadius, final IntConsumer consumer )
+	{
+		if ( hi <= lo )
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		final int index = tree[ mid ];
+		if ( squaredDistance( index, x, y, z ) <= squaredRadius )
+			consumer.accept( index );
+		final double diff = ( axis == 0 ? x : axis == 1 ? y : z ) - coords[ index * 3 + axis ];
+		final int nextAxis = axis == 2 ? 0 : axis + 1;
+		if ( diff < 0 || diff * diff <= squaredRadius )
+			radius( lo, mid, nextAxis, x, y, z, squaredRadius, consumer );
+		if ( 0 <= diff || diff * diff <= squaredRadius )
+			radius( mid + 1, hi, nextAxis, x, y, z, squaredRadius, consumer );
+	}
+
+	private void build( final int lo, final int hi, final int axis )
+	{
+		if ( hi - lo < 2 )
+			return;
+		final int mid = ( lo + hi ) >>> 1;
+		select( lo, hi - 1, mid, axis );
+		final int nextAxis = axis == 2 ? 0 : axis + 1;
+		build( lo, mid, nextAxis );
+		build( mid + 1, hi, nextAxis );
+	}
+
+	/**
+	 * Partially sort {@code tree[left..right]} so that the element at
+	 * {@code k} is in its sorted position along {@code axis}.
+	 */
+	private void select( int left, int right, final int k, final int axis )
+	{
+		while ( left < right )
+		{
+			final double pivot = coords[ tree[ ( left + right ) >>> 1 ] * 3 + axis ];
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( coords[ tree[ i ] * 3 + axis ] < pivot )
+					i++;
+				while ( pivot < coords[ tree[ j ] * 3 + axis ] )
+					j--;
+				if ( i <= j )
+				{
+					final int tmp = tree[ i ];
+					tree[ i ] = tree[ j ];
+					tree[ j ] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if ( k <= j )
+				right = j;
+			else if ( i <= k )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private static int[] identity( final int n )
+	{
+		final int[] indices = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+			indices[ i ] = i;
+		return indices;
+	}
+
+}
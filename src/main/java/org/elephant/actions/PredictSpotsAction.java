@@ -27,10 +27,23 @@
 package org.elephant.actions;
 
 import java.net.HttpURLConnection;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.elephant.actions.mixins.BdvDataMixin;
@@ -41,13 +54,12 @@ import org.elephant.actions.mixins.ElephantGraphTagActionMixin;
 import org.elephant.actions.mixins.ElephantSettingsMixin;
 import org.elephant.actions.mixins.ElephantStateManagerMixin;
 import org.elephant.actions.mixins.ElephantUtils;
-import org.elephant.actions.mixins.EllipsoidActionMixin;
 import org.elephant.actions.mixins.SpatioTemporalIndexActionMinxin;
+import org.elephant.actions.mixins.TagCountIndexMixin;
 import org.elephant.actions.mixins.TimepointMixin;
 import org.elephant.actions.mixins.UIActionMixin;
 import org.elephant.actions.mixins.URLMixin;
 import org.elephant.actions.mixins.WindowManagerMixin;
-import org.mastodon.collection.RefCollection;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.TagSetStructure.Tag;
@@ -63,11 +75,9 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
-import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import kong.unirest.HttpResponse;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
-import net.imglib2.RealPoint;
-import net.imglib2.neighborsearch.NearestNeighborSearch;
 
 /**
  * A detection workflow based on a voxel classification.
@@ -75,8 +85,8 @@ import net.imglib2.neighborsearch.NearestNeighborSearch;
  * @author Ko Sugawara
  */
 public class PredictSpotsAction extends AbstractElephantDatasetAction
-		implements BdvDataMixin, EllipsoidActionMixin, ElephantConstantsMixin, ElephantGraphActionMixin, ElephantSettingsMixin, ElephantStateManagerMixin, ElephantGraphTagActionMixin,
-		SpatioTemporalIndexActionMinxin, TimepointMixin, UIActionMixin, URLMixin, WindowManagerMixin
+		implements BdvDataMixin, ElephantConstantsMixin, ElephantGraphActionMixin, ElephantSettingsMixin, ElephantStateManagerMixin, ElephantGraphTagActionMixin,
+		SpatioTemporalIndexActionMinxin, TagCountIndexMixin, TimepointMixin, UIActionMixin, URLMixin, WindowManagerMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -87,22 +97,42 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 	private static final String NAME_AROUND_MOUSE = String.format( NAME_BASE, " (around mouse)" );
 
+	private static final String NAME_AROUND_SELECTED_SPOTS = String.format( NAME_BASE, " (around selected spots)" );
+
+	private static final String NAME_AROUND_FN_OR_UNLABELED_SPOTS = String.format( NAME_BASE, " (around FN or unlabeled spots)" );
+
 	private static final String MENU_TEXT = "Predict Spots";
 
 	private static final String[] MENU_KEYS_ENTIRE = new String[] { "alt S" };
 
 	private static final String[] MENU_KEYS_AROUND_MOUSE = new String[] { "alt shift S" };
 
+	private static final String[] MENU_KEYS_AROUND_SELECTED_SPOTS = new String[] { "alt ctrl S" };
+
+	private static final String[] MENU_KEYS_AROUND_FN_OR_UNLABELED_SPOTS = new String[] { "not mapped" };
+
 	private static final String DESCRIPTION_BASE = "Predict spots. %s";
 
 	private static final String DESCRIPTION_ENTIRE = String.format( DESCRIPTION_BASE, "(entire view)" );
 
 	private static final String DESCRIPTION_AROUND_MOUSE = String.format( DESCRIPTION_BASE, "(around mouse)" );
 
+	private static final String DESCRIPTION_AROUND_SELECTED_SPOTS = String.format( DESCRIPTION_BASE, "(around selected spots, in one request)" );
+
+	private static final String DESCRIPTION_AROUND_FN_OR_UNLABELED_SPOTS = String.format( DESCRIPTION_BASE, "(around FN or unlabeled spots in the time range, in one request)" );
+
+	/**
+	 * Maximum time to hold the graph write lock at once while merging
+	 * predicted spots.
+	 */
+	private static final long WRITE_LOCK_BUDGET_NANOS = 20_000_000L;
+
 	public enum PredictSpotsActionMode
 	{
 		ENTIRE( NAME_ENTIRE, MENU_KEYS_ENTIRE ),
-		AROUND_MOUSE( NAME_AROUND_MOUSE, MENU_KEYS_AROUND_MOUSE );
+		AROUND_MOUSE( NAME_AROUND_MOUSE, MENU_KEYS_AROUND_MOUSE ),
+		AROUND_SELECTED_SPOTS( NAME_AROUND_SELECTED_SPOTS, MENU_KEYS_AROUND_SELECTED_SPOTS ),
+		AROUND_FN_OR_UNLABELED_SPOTS( NAME_AROUND_FN_OR_UNLABELED_SPOTS, MENU_KEYS_AROUND_FN_OR_UNLABELED_SPOTS );
 
 		private String name;
 
@@ -129,9 +159,12 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 	private final BdvViewMouseMotionService mouseMotionService;
 
-	private VoxelDimensions cropBoxOrigin;
-
-	private VoxelDimensions cropBoxSize;
+	/**
+	 * The crop boxes {@code (x, y, z, width, height, depth)} in physical
+	 * units, or {@code null} for the entire image. Removal of spots is scoped
+	 * to the boxes.
+	 */
+	private List< double[] > cropBoxes;
 
 	private JsonObject jsonRootObject;
 
@@ -139,6 +172,41 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 
 	private int timepointEnd;
 
+	/**
+	 * The request parameters other than the timepoint and the crop box, used
+	 * as a key of {@link PredictionCache}, or {@code null} if the cache is not
+	 * used.
+	 */
+	private String cacheParams;
+
+	private double[] cacheBox;
+
+	private CancellationToken cancellationToken;
+
+	/**
+	 * The timepoints whose predictions have been merged into the graph in the
+	 * current run.
+	 */
+	private BitSet committedTimepoints;
+
+	/**
+	 * Set when the server has answered a multi-timepoint request for its
+	 * first timepoint only, after which one request is sent per timepoint.
+	 */
+	private volatile boolean isBatchUnsupported;
+
+	/**
+	 * The crop boxes sent with {@code crop_boxes}, or {@code null} if the
+	 * request has no such key.
+	 */
+	private JsonArray jsonCropBoxes;
+
+	/**
+	 * Set when the server has answered a multi-box request for its first box
+	 * only, after which the boxes are sent one by one with {@code crop_box}.
+	 */
+	private volatile boolean isCropBoxesUnsupported;
+
 	/*
 	 * Command description.
 	 */
@@ -161,6 +229,14 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 					NAME_AROUND_MOUSE,
 					MENU_KEYS_AROUND_MOUSE,
 					DESCRIPTION_AROUND_MOUSE );
+			descriptions.add(
+					NAME_AROUND_SELECTED_SPOTS,
+					MENU_KEYS_AROUND_SELECTED_SPOTS,
+					DESCRIPTION_AROUND_SELECTED_SPOTS );
+			descriptions.add(
+					NAME_AROUND_FN_OR_UNLABELED_SPOTS,
+					MENU_KEYS_AROUND_FN_OR_UNLABELED_SPOTS,
+					DESCRIPTION_AROUND_FN_OR_UNLABELED_SPOTS );
 		}
 	}
 
@@ -190,6 +266,11 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 		final int timeRange = getActionStateManager().isLivemode() ? 1 : getMainSettings().getTimeRange();
 		timepointStart = Math.max( 0, timepointEnd - ( timeRange - 1 ) );
 		ElephantActionStateManager.INSTANCE.setAborted( false );
+		cancellationToken = getActionStateManager().getCancellationToken();
+		committedTimepoints = new BitSet();
+		isBatchUnsupported = false;
+		isCropBoxesUnsupported = false;
+		jsonCropBoxes = null;
 		final VoxelDimensions voxelSize = getVoxelDimensions();
 		final JsonArray scales = new JsonArray()
 				.add( voxelSize.dimension( 0 ) )
@@ -226,290 +307,746 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 					.add( getMainSettings().getPatchSizeY() )
 					.add( getMainSettings().getPatchSizeZ() ) );
 		}
+		// the prediction outputs are written by the server only on a request
+		cacheParams = getMainSettings().getOutputPrediction() ? null : jsonRootObject.toString();
+		cacheBox = null;
+		PredictionCache.INSTANCE.setCapacity( getMainSettings().getPredictionCacheSize() );
 
+		cropBoxes = null;
 		if ( mode == PredictSpotsActionMode.AROUND_MOUSE )
 		{
 			final double[] pos = new double[ 3 ];
 			mouseMotionService.getMousePositionGlobal( pos );
-			final long[] cropOrigin = new long[ 3 ];
-			final long[] cropSize = new long[ 3 ];
-			calculateCropBoxAround( pos, cropOrigin, cropSize );
-			jsonRootObject.add( JSON_KEY_PREDICT_CROP_BOX, Json.array()
-					.add( cropOrigin[ 0 ] ).add( cropOrigin[ 1 ] ).add( cropOrigin[ 2 ] )
-					.add( cropSize[ 0 ] ).add( cropSize[ 1 ] ).add( cropSize[ 2 ] ) );
-			cropBoxOrigin = new FinalVoxelDimensions(
-					getVoxelDimensions().unit(),
-					cropOrigin[ 0 ] * voxelSize.dimension( 0 ),
-					cropOrigin[ 1 ] * voxelSize.dimension( 1 ),
-					cropOrigin[ 2 ] * voxelSize.dimension( 2 ) );
-			cropBoxSize = new FinalVoxelDimensions(
-					getVoxelDimensions().unit(),
-					cropSize[ 0 ] * voxelSize.dimension( 0 ),
-					cropSize[ 1 ] * voxelSize.dimension( 1 ),
-					cropSize[ 2 ] * voxelSize.dimension( 2 ) );
+			final JsonArray jsonCropBox = Json.array();
+			cacheBox = calculateCropBox( pos, voxelSize, jsonCropBox );
+			jsonRootObject.add( JSON_KEY_PREDICT_CROP_BOX, jsonCropBox );
+			cropBoxes = Collections.singletonList( cacheBox );
+		}
+		else if ( mode != PredictSpotsActionMode.ENTIRE )
+		{
+			jsonCropBoxes = Json.array();
+			final Set< JsonArray > jsonCropBoxSet = new HashSet<>();
+			cropBoxes = new ArrayList<>();
+			for ( final double[] pos : getRoiPositions() )
+			{
+				final JsonArray jsonCropBox = Json.array();
+				final double[] cropBox = calculateCropBox( pos, voxelSize, jsonCropBox );
+				if ( jsonCropBoxSet.add( jsonCropBox ) )
+				{
+					jsonCropBoxes.add( jsonCropBox );
+					cropBoxes.add( cropBox );
+				}
+			}
+			if ( cropBoxes.isEmpty() )
+			{
+				showTextOverlayAnimator( "No spots to predict around", 3000, TextPosition.CENTER );
+				return false;
+			}
+			// an older server ignores crop_boxes and predicts in crop_box only
+			jsonRootObject.add( JSON_KEY_PREDICT_CROP_BOXES, jsonCropBoxes );
+			jsonRootObject.add( JSON_KEY_PREDICT_CROP_BOX, jsonCropBoxes.get( 0 ) );
+			// results for a set of boxes are neither cached nor stored
+			cacheParams = null;
+			predictionStore = null;
 		}
 		return true;
 	}
 
-	@Override
-	public void processDataset()
+	/**
+	 * Calculate the crop box around the position.
+	 * 
+	 * @param pos
+	 *            the position in physical units.
+	 * @param voxelSize
+	 *            the voxel size.
+	 * @param jsonCropBox
+	 *            the crop box in voxels to be sent to the server, to which
+	 *            {@code (x, y, z, width, height, depth)} are added.
+	 * @return the crop box {@code (x, y, z, width, height, depth)} in
+	 *         physical units.
+	 */
+	private double[] calculateCropBox( final double[] pos, final VoxelDimensions voxelSize, final JsonArray jsonCropBox )
 	{
-		predictSpotsAt( timepointStart, timepointEnd );
+		final long[] cropOrigin = new long[ 3 ];
+		final long[] cropSize = new long[ 3 ];
+		calculateCropBoxAround( pos.clone(), cropOrigin, cropSize );
+		jsonCropBox
+				.add( cropOrigin[ 0 ] ).add( cropOrigin[ 1 ] ).add( cropOrigin[ 2 ] )
+				.add( cropSize[ 0 ] ).add( cropSize[ 1 ] ).add( cropSize[ 2 ] );
+		final double[] cropBox = new double[ 6 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			cropBox[ d ] = cropOrigin[ d ] * voxelSize.dimension( d );
+			cropBox[ d + 3 ] = cropSize[ d ] * voxelSize.dimension( d );
+		}
+		return cropBox;
 	}
 
-	private void predictSpotsAt( final int timepoint, final int timepointEnd )
+	/**
+	 * Get the positions to predict around: the selected spots, or the FN or
+	 * unlabeled spots in the time range.
+	 */
+	private List< double[] > getRoiPositions()
 	{
-		if ( timepointEnd < timepoint )
-			return;
-		jsonRootObject.set( JSON_KEY_TIMEPOINT, timepoint );
+		final List< double[] > positions = new ArrayList<>();
+		getGraph().getLock().readLock().lock();
 		try
 		{
-			postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), jsonRootObject.toString(),
-					response -> {
-						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
-						{
-							final String body = response.getBody();
-							final JsonObject jsonRootObject = Json.parse( body ).asObject();
-							if ( Json.parse( body ).asObject().get( "completed" ).asBoolean() )
-							{
-								final RefCollection< Spot > spots = getGraph().vertices();
-								Predicate< Spot > predicate = spot -> spot.getTimepoint() == timepoint;
-								if ( mode == PredictSpotsActionMode.AROUND_MOUSE )
-									predicate = predicate.and( spot -> ElephantUtils.spotIsInside( spot, cropBoxOrigin, cropBoxSize ) );
-								refreshLabels( spots, predicate );
-								predicate = predicate.and( spot -> getVertexTagMap( getDetectionTagSet() ).get( spot ) == getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME ) );
-								predicate = predicate.and( spot -> getVertexTagMap( getTrackingTagSet() ).get( spot ) != getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME ) );
-								removeSpots( spots, predicate );
-								final JsonArray jsonSpots = jsonRootObject.get( "spots" ).asArray();
-								addSpotsFromJson( jsonSpots );
-								summary( timepoint );
-								showTextOverlayAnimator( String.format( "Detected at frame %d", timepoint ), 1000, TextPosition.BOTTOM_RIGHT );
-							}
-
-							if ( getActionStateManager().isAborted() )
-								showTextOverlayAnimator( "Aborted", 3000, TextPosition.BOTTOM_RIGHT );
-							else
-								predictSpotsAt( timepoint + 1, timepointEnd );
-						}
-						else
+			if ( mode == PredictSpotsActionMode.AROUND_SELECTED_SPOTS )
+			{
+				for ( final Spot spot : getAppModel().getSelectionModel().getSelectedVertices() )
+				{
+					final double[] pos = new double[ 3 ];
+					spot.localize( pos );
+					positions.add( pos );
+				}
+			}
+			else
+			{
+				final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+				final Tag fnTag = getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME );
+				final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+				for ( int timepoint = timepointStart; timepoint <= timepointEnd; timepoint++ )
+				{
+					for ( final Spot spot : getSpatioTemporalIndex().getSpatialIndex( timepoint ) )
+					{
+						final Tag tag = tagMapDetection.get( spot );
+						if ( tag == fnTag || tag == unlabeledTag )
 						{
-							final StringBuilder sb = new StringBuilder( response.getStatusText() );
-							if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
-							{
-								sb.append( ": " );
-								sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
-							}
-							showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
-							getClientLogger().severe( sb.toString() );
+							final double[] pos = new double[ 3 ];
+							spot.localize( pos );
+							positions.add( pos );
 						}
-					} );
+					}
+				}
+			}
 		}
-		catch ( final ElephantConnectException e )
+		finally
 		{
-			// already handled by UnirestMixin
+			getGraph().getLock().readLock().unlock();
 		}
+		return positions;
 	}
 
-	private static enum SpotEditMode
+	private boolean isInCropBoxes( final double[] pos, final int offset )
 	{
-		SKIP,
-		CREATE,
-		REFIT
+		if ( cropBoxes == null )
+			return true;
+		for ( final double[] cropBox : cropBoxes )
+		{
+			boolean isInside = true;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double p = pos[ offset + d ];
+				if ( p < cropBox[ d ] || cropBox[ d ] + cropBox[ d + 3 ] <= p )
+				{
+					isInside = false;
+					break;
+				}
+			}
+			if ( isInside )
+				return true;
+		}
+		return false;
 	}
 
-	private static class SpotStruct
+	@Override
+	public void processDataset()
 	{
-		int t;
+		if ( 1 < getMainSettings().getPipelineWindowSize() )
+			predictSpotsPipelined( timepointStart, timepointEnd );
+		else
+			predictSpotsAt( timepointStart, timepointEnd );
+	}
 
-		final double[] pos;
+	/**
+	 * Get the last timepoint of the request that starts at
+	 * {@code timepoint}.
+	 */
+	private int getBatchEnd( final int timepoint, final int timepointEnd )
+	{
+		if ( isBatchUnsupported )
+			return timepoint;
+		return Math.min( timepointEnd, timepoint + getMainSettings().getTimepointsPerRequest() - 1 );
+	}
 
-		final double[][] covariance;
+	/**
+	 * Create a request body for the given timepoints. A single timepoint is
+	 * sent with {@code timepoint}. A range of timepoints is additionally sent
+	 * with {@code t_start} and {@code t_end}, which requires a server that
+	 * supports multi-timepoint requests. Such a server returns the spots at
+	 * all the timepoints in the range and echoes {@code t_end} in the
+	 * response, while an older server ignores the range and answers for
+	 * {@code timepoint} only.
+	 */
+	private String createRequestBody( final int batchStart, final int batchEnd )
+	{
+		return createRequestObject( batchStart, batchEnd ).toString();
+	}
 
-		private SpotStruct( final double[] pos, final double[][] covariance )
-		{
-			this.pos = pos;
-			this.covariance = covariance;
-		}
+	private JsonObject createRequestObject( final int batchStart, final int batchEnd )
+	{
+		final JsonObject jsonRequestObject = new JsonObject( jsonRootObject );
+		jsonRequestObject.set( JSON_KEY_TIMEPOINT, batchStart );
+		if ( batchStart != batchEnd )
+			jsonRequestObject.set( JSON_KEY_T_START, batchStart ).set( JSON_KEY_T_END, batchEnd );
+		if ( isCropBoxesUnsupported )
+			jsonRequestObject.remove( JSON_KEY_PREDICT_CROP_BOXES );
+		return jsonRequestObject;
 	}
 
-	private void getNextFromJson( final SpotStruct jsonRef, final JsonObject jsonObject )
+	/**
+	 * Request the spots in the crop boxes other than the first one, one box
+	 * at a time with {@code crop_box}, for a server that does not support
+	 * {@code crop_boxes}.
+	 * 
+	 * @return the spots in the other boxes, or {@code null} if a request has
+	 *         failed or the run has been cancelled.
+	 */
+	private JsonArray predictInOtherCropBoxes( final int batchStart, final int batchEnd )
 	{
-		final JsonArray posArray = jsonObject.get( "pos" ).asArray();
-		final JsonArray covArray = jsonObject.get( "covariance" ).asArray();
-		for ( int i = 0; i < 3; i++ )
+		final JsonArray jsonSpots = Json.array();
+		try
 		{
-			jsonRef.pos[ i ] = posArray.get( i ).asDouble();
-			for ( int j = 0; j < 3; j++ )
+			for ( int i = 1; i < jsonCropBoxes.size(); i++ )
 			{
-				jsonRef.covariance[ i ][ j ] = covArray.get( i * 3 + j ).asDouble();
+				if ( cancellationToken.isCancelled() )
+					return null;
+				final String body = createRequestObject( batchStart, batchEnd ).set( JSON_KEY_PREDICT_CROP_BOX, jsonCropBoxes.get( i ) ).toString();
+				final HttpResponse< String > response = inForeground( () -> postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), body, cancellationToken, r -> {} ) ).join();
+				if ( response.getStatus() != HttpURLConnection.HTTP_OK )
+				{
+					reportFailure( response );
+					return null;
+				}
+				final JsonObject jsonResponseObject = Json.parse( response.getBody() ).asObject();
+				if ( !jsonResponseObject.get( "completed" ).asBoolean() )
+					return null;
+				for ( final JsonValue jsonSpot : jsonResponseObject.get( "spots" ).asArray() )
+					jsonSpots.add( jsonSpot );
 			}
 		}
-		jsonRef.t = jsonObject.get( "t" ).asInt();
+		catch ( final ElephantConnectException | CompletionException | CancellationException e )
+		{
+			// already handled by UnirestMixin
+			return null;
+		}
+		return jsonSpots;
 	}
 
-	private void refreshLabels( final Collection< Spot > spots, final Predicate< Spot > filter )
+	/**
+	 * Get the spots at the timepoint from {@link PredictionCache}, taking a
+	 * speculative result first in live mode.
+	 * 
+	 * @return the cached spots, or {@code null} if not available.
+	 */
+	private PredictedSpots getCachedSpots( final int timepoint )
 	{
-		final Map< Tag, Tag > map = new HashMap<>();
-		map.put( getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME ), getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME ) );
-		map.put( getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME ), getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME ) );
-		map.put( getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ), getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) );
+		if ( cacheParams == null )
+			return null;
+		if ( isSpeculative() )
+		{
+			final PredictedSpots speculative = PredictionCache.INSTANCE.takeSpeculative( cacheParams, timepoint );
+			if ( speculative != null )
+				return speculative;
+		}
+		return PredictionCache.INSTANCE.get( cacheParams, timepoint, cacheBox );
+	}
 
-		getGraph().getLock().writeLock().lock();
-		getActionStateManager().setWriting( true );
+	private boolean isSpeculative()
+	{
+		return mode == PredictSpotsActionMode.ENTIRE && cacheParams != null
+				&& getActionStateManager().isLivemode() && getMainSettings().getSpeculativePrediction();
+	}
+
+	/**
+	 * Start predicting the next timepoint (and optionally the previous one)
+	 * in the background, one request at a time and only while no request of
+	 * a run is in flight. The speculation is restarted by
+	 * {@link PredictionCache} whenever the labels are updated, and whenever the
+	 * model is updated during training.
+	 * 
+	 * @param timepoint
+	 *            the current timepoint.
+	 */
+	private void startSpeculation( final int timepoint )
+	{
+		final String params = cacheParams;
+		final int previousTimepoint = getMainSettings().getSpeculatePreviousTimepoint() ? timepoint - 1 : -1;
+		final Runnable speculation = () -> speculate( params, timepoint + 1, previousTimepoint, PredictionCache.INSTANCE.getSpeculativeGeneration() );
+		PredictionCache.INSTANCE.setSpeculation( speculation );
+		speculation.run();
+	}
+
+	private void speculate( final String params, final int timepoint, final int nextTimepoint, final long generation )
+	{
+		// the speculative requests only go while no request of a run is in flight
+		if ( PredictionCache.INSTANCE.deferSpeculative( () -> speculate( params, timepoint, nextTimepoint, generation ) ) )
+			return;
+		if ( timepoint < getMinTimepoint() || getMaxTimepoint() < timepoint || !PredictionCache.INSTANCE.beginSpeculative( params, timepoint, generation ) )
+		{
+			if ( 0 <= nextTimepoint )
+				speculate( params, nextTimepoint, -1, generation );
+			return;
+		}
+		final Runnable next = () -> {
+			if ( 0 <= nextTimepoint && getActionStateManager().isLivemode() )
+				speculate( params, nextTimepoint, -1, generation );
+		};
+		final String body = Json.parse( params ).asObject().set( JSON_KEY_TIMEPOINT, timepoint ).toString();
 		try
 		{
-			for ( final Spot spot : spots )
-			{
-				if ( filter == null || filter.test( spot ) )
-				{
-					final Tag currentTag = getVertexTagMap( getDetectionTagSet() ).get( spot );
-					if ( map.containsKey( currentTag ) )
-						getVertexTagMap( getDetectionTagSet() ).set( spot, map.get( currentTag ) );
-				}
-			}
+			postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), body, cancellationToken,
+					response -> {
+						PredictedSpots predicted = null;
+						try
+						{
+							if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+							{
+								final JsonObject jsonResponseObject = Json.parse( response.getBody() ).asObject();
+								if ( jsonResponseObject.get( "completed" ).asBoolean() )
+									predicted = parsePredictedSpots( jsonResponseObject.get( "spots" ).asArray() ).getOrDefault( timepoint, new PredictedSpots() );
+							}
+							else
+								getClientLogger().info( String.format( "Speculative prediction at frame %d failed: %s", timepoint, response.getStatusText() ) );
+						}
+						catch ( final RuntimeException e )
+						{
+							getClientLogger().info( String.format( "Speculative prediction at frame %d failed: %s", timepoint, e.getLocalizedMessage() ) );
+						}
+						finally
+						{
+							PredictionCache.INSTANCE.endSpeculative( params, timepoint, generation, predicted );
+						}
+						next.run();
+					},
+					e -> {
+						getClientLogger().info( String.format( "Speculative prediction at frame %d failed: %s", timepoint, e.getLocalizedMessage() ) );
+						PredictionCache.INSTANCE.endSpeculative( params, timepoint, generation, null );
+					},
+					() -> PredictionCache.INSTANCE.endSpeculative( params, timepoint, generation, null ) );
 		}
-		finally
+		catch ( final ElephantConnectException e )
 		{
-			getActionStateManager().setWriting( false );
-			getGraph().getLock().writeLock().unlock();
+			PredictionCache.INSTANCE.endSpeculative( params, timepoint, generation, null );
 		}
 	}
 
-	private void addSpotsFromJson( final JsonArray jsonSpots )
+	/**
+	 * Send a {@code seg/predict} request of the run, holding back the
+	 * speculative requests until it has completed.
+	 */
+	private static CompletableFuture< HttpResponse< String > > inForeground( final PredictRequest request ) throws ElephantConnectException
 	{
-		getGraph().getLock().readLock().lock();
+		PredictionCache.INSTANCE.beginForeground();
+		final CompletableFuture< HttpResponse< String > > future;
 		try
 		{
-			final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
-			final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+			future = request.send();
+		}
+		catch ( final ElephantConnectException | RuntimeException e )
+		{
+			PredictionCache.INSTANCE.endForeground();
+			throw e;
+		}
+		future.whenComplete( ( response, e ) -> PredictionCache.INSTANCE.endForeground() );
+		return future;
+	}
 
-			final Spot ref = getGraph().vertexRef();
+	@FunctionalInterface
+	private static interface PredictRequest
+	{
+		CompletableFuture< HttpResponse< String > > send() throws ElephantConnectException;
+	}
 
-			final double[] pos = new double[ 3 ];
-			final double[][] covariance = new double[ 3 ][ 3 ];
-			final SpotStruct jsonRef = new SpotStruct( pos, covariance );
-
-			final Tag tpTag = getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME );
-			final Tag fpTag = getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME );
-			final Tag fbTag = getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME );
-			final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
-			final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
-			for ( final JsonValue jsonValue : jsonSpots )
+	private void predictSpotsAt( final int timepoint, final int timepointEnd )
+	{
+		if ( timepointEnd < timepoint )
+			return;
+		final PredictedSpots cached = getCachedSpots( timepoint );
+		if ( cached != null )
+		{
+			applyPredictedSpots( timepoint, cached );
+			if ( cancellationToken.isCancelled() )
+				reportAborted();
+			else
+				predictSpotsAt( timepoint + 1, timepointEnd );
+			return;
+		}
+		final int batchEnd = getBatchEnd( timepoint, timepointEnd );
+		final long generation = PredictionCache.INSTANCE.getGeneration();
+		try
+		{
+			inForeground( () -> postAsStringAsync( getEndpointURL( ENDPOINT_DETECTION_PREDICT ), createRequestBody( timepoint, batchEnd ), cancellationToken,
+					response -> {
+						final int appliedEnd = applyPrediction( response, timepoint, batchEnd, generation );
+						if ( 0 <= appliedEnd )
+						{
+							if ( cancellationToken.isCancelled() )
+								reportAborted();
+							else
+								predictSpotsAt( appliedEnd + 1, timepointEnd );
+						}
+					},
+					e -> {
+						handleError( e );
+						getClientLogger().severe( "The request has failed" );
+						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+					},
+					this::reportAborted ) );
+		}
+		catch ( final ElephantConnectException e )
+		{
+			// already handled by UnirestMixin
+		}
+	}
+
+	/**
+	 * Keeps up to {@code pipelineWindowSize} requests in flight while the
+	 * responses are applied to the graph one by one in timepoint order on a
+	 * dedicated thread. Timepoints available in {@link PredictionCache} are
+	 * applied in order without a request.
+	 * 
+	 * @param timepointStart
+	 *            the first timepoint to predict.
+	 * @param timepointEnd
+	 *            the last timepoint to predict.
+	 */
+	private void predictSpotsPipelined( final int timepointStart, final int timepointEnd )
+	{
+		final Semaphore window = new Semaphore( getMainSettings().getPipelineWindowSize() );
+		final AtomicBoolean isStopped = new AtomicBoolean();
+		final ExecutorService applyExecutor = Executors.newSingleThreadExecutor();
+		try
+		{
+			final String url = getEndpointURL( ENDPOINT_DETECTION_PREDICT );
+			for ( int t = timepointStart; t <= timepointEnd; )
 			{
-				getNextFromJson( jsonRef, jsonValue.asObject() );
-				final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( jsonRef.t );
-				final NearestNeighborSearch< Spot > nns = spatialIndex.getNearestNeighborSearch();
-				nns.search( new RealPoint( jsonRef.pos ) );
-				final Spot nearestSpot = nns.getSampler().get();
-				SpotEditMode editMode = SpotEditMode.CREATE;
-				if ( nns.getDistance() < getMainSettings().getSuppressionDistance() )
+				window.acquire();
+				if ( isStopped.get() || cancellationToken.isCancelled() )
 				{
-					final Tag tag = tagMapDetection.get( nearestSpot );
-					if ( tag != null )
+					window.release();
+					break;
+				}
+				final int batchStart = t;
+				final PredictedSpots cached = getCachedSpots( batchStart );
+				final int batchEnd = cached == null ? getBatchEnd( t, timepointEnd ) : batchStart;
+				final long generation = PredictionCache.INSTANCE.getGeneration();
+				final CompletableFuture< HttpResponse< String > > future = cached == null
+						? inForeground( () -> postAsStringAsync( url, createRequestBody( batchStart, batchEnd ), cancellationToken, response -> {} ) )
+						: null;
+				applyExecutor.execute( () -> {
+					try
 					{
-						editMode = SpotEditMode.SKIP;
-						switch ( tag.label() )
+						final HttpResponse< String > response = future == null ? null : future.join();
+						if ( isStopped.get() )
+							return;
+						if ( cancellationToken.isCancelled() )
+						{
+							isStopped.set( true );
+							reportAborted();
+						}
+						else if ( response == null )
+							applyPredictedSpots( batchStart, cached );
+						else
 						{
-						case DETECTION_FN_TAG_NAME:
-							tagMapDetection.set( nearestSpot, tpTag );
-							break;
-						case DETECTION_TN_TAG_NAME:
-							tagMapDetection.set( nearestSpot, fpTag );
-							break;
-						case DETECTION_TB_TAG_NAME:
-							tagMapDetection.set( nearestSpot, fbTag );
-							break;
-						case DETECTION_UNLABELED_TAG_NAME:
-							final Tag tagTracking = tagMapTracking.get( nearestSpot );
-							if ( tagTracking == null || !tagTracking.label().equals( TRACKING_APPROVED_TAG_NAME ) )
+							int appliedEnd = applyPrediction( response, batchStart, batchEnd, generation );
+							// the server has answered for the first timepoint only
+							while ( 0 <= appliedEnd && appliedEnd < batchEnd && !cancellationToken.isCancelled() )
 							{
-								nearestSpot.getCovariance( covariance );
-								// if the new spot has the greater volume than the nearest spot
-								if ( 0 < compareVolume( jsonRef.covariance, covariance ) )
-									editMode = SpotEditMode.REFIT;
+								final int timepoint = appliedEnd + 1;
+								final HttpResponse< String > singleResponse = inForeground( () -> postAsStringAsync( url, createRequestBody( timepoint, timepoint ), cancellationToken, r -> {} ) ).join();
+								appliedEnd = applyPrediction( singleResponse, timepoint, timepoint, generation );
 							}
-							break;
-						default:
-							break;
+							if ( appliedEnd < 0 )
+								isStopped.set( true );
 						}
 					}
-					else
+					catch ( final CompletionException | CancellationException e )
 					{
-						getClientLogger().info( nearestSpot + " does not have a valid tag" );
-						editMode = SpotEditMode.SKIP;
+						// already handled by UnirestMixin
+						if ( !isStopped.getAndSet( true ) && cancellationToken.isCancelled() )
+							reportAborted();
 					}
-				}
-				switch ( editMode )
-				{
-				case CREATE:
-					getGraph().getLock().readLock().unlock();
-					getGraph().getLock().writeLock().lock();
-					getActionStateManager().setWriting( true );
-					try
+					catch ( final ElephantConnectException e )
 					{
-						final Spot spot = getGraph().addVertex( ref ).init( jsonRef.t, jsonRef.pos, jsonRef.covariance );
-						tagMapDetection.set( spot, unlabeledTag );
-						tagMapTracking.set( spot, trackingUnlabeledTag );
-						getGraph().getLock().readLock().lock();
+						// already handled by UnirestMixin
+						isStopped.set( true );
 					}
 					finally
 					{
-						getActionStateManager().setWriting( false );
-						getGraph().getLock().writeLock().unlock();
+						window.release();
 					}
-					break;
-				case REFIT:
-					getGraph().getLock().readLock().unlock();
-					getGraph().getLock().writeLock().lock();
-					getActionStateManager().setWriting( true );
-					try
-					{
-						ref.refTo( nearestSpot );
-						ref.setPosition( jsonRef.pos );
-						ref.setCovariance( jsonRef.covariance );
-						getGraph().getLock().readLock().lock();
-					}
-					finally
+				} );
+				t = batchEnd + 1;
+			}
+		}
+		catch ( final ElephantConnectException e )
+		{
+			// already handled by UnirestMixin
+		}
+		catch ( final InterruptedException e )
+		{
+			isStopped.set( true );
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			applyExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Apply a response from {@code seg/predict} to the graph. The spots are
+	 * merged timepoint by timepoint, so that the results of a multi-timepoint
+	 * request show up incrementally.
+	 * 
+	 * @param response
+	 *            the response from the server.
+	 * @param batchStart
+	 *            the first timepoint of the request.
+	 * @param batchEnd
+	 *            the last timepoint of the request.
+	 * @param generation
+	 *            the model generation of {@link PredictionCache} when the
+	 *            request was sent.
+	 * @return the last timepoint that the response covered, which is
+	 *         {@code batchStart} if the server does not support
+	 *         multi-timepoint requests, or {@code -1} if the response status
+	 *         was not OK or the spots in the other crop boxes could not be
+	 *         obtained.
+	 */
+	private int applyPrediction( final HttpResponse< String > response, final int batchStart, final int batchEnd, final long generation )
+	{
+		if ( response.getStatus() == HttpURLConnection.HTTP_OK )
+		{
+			final JsonObject jsonResponseObject = Json.parse( response.getBody() ).asObject();
+			int appliedEnd = batchEnd;
+			if ( batchStart < batchEnd && jsonResponseObject.getInt( JSON_KEY_T_END, -1 ) != batchEnd )
+			{
+				if ( !isBatchUnsupported )
+				{
+					isBatchUnsupported = true;
+					getClientLogger().info( "The server does not support multi-timepoint requests, falling back to one request per timepoint" );
+				}
+				appliedEnd = batchStart;
+			}
+			if ( jsonResponseObject.get( "completed" ).asBoolean() )
+			{
+				final JsonArray jsonSpots = jsonResponseObject.get( "spots" ).asArray();
+				// a server that supports crop_boxes echoes them
+				if ( jsonCropBoxes != null && 1 < jsonCropBoxes.size() && !jsonCropBoxes.equals( jsonResponseObject.get( JSON_KEY_PREDICT_CROP_BOXES ) ) )
+				{
+					if ( !isCropBoxesUnsupported )
 					{
-						getActionStateManager().setWriting( false );
-						getGraph().getLock().writeLock().unlock();
+						isCropBoxesUnsupported = true;
+						getClientLogger().info( "The server does not support multi-box requests, falling back to one request per box" );
 					}
-					break;
-				case SKIP:
-					break;
-				default:
-					throw new RuntimeException( "editMode is invalid: " + editMode );
+					final JsonArray jsonOtherSpots = predictInOtherCropBoxes( batchStart, appliedEnd );
+					if ( jsonOtherSpots == null )
+						return -1;
+					for ( final JsonValue jsonSpot : jsonOtherSpots )
+						jsonSpots.add( jsonSpot );
+				}
+				final Map< Integer, PredictedSpots > predictedSpotsMap = parsePredictedSpots( jsonSpots );
+				for ( int timepoint = batchStart; timepoint <= appliedEnd && !cancellationToken.isCancelled(); timepoint++ )
+				{
+					final PredictedSpots predicted = predictedSpotsMap.getOrDefault( timepoint, new PredictedSpots() );
+					if ( cacheParams != null )
+						PredictionCache.INSTANCE.put( cacheParams, timepoint, cacheBox, generation, predicted );
+					applyPredictedSpots( timepoint, predicted );
 				}
 			}
+			return appliedEnd;
+		}
+		reportFailure( response );
+		return -1;
+	}
 
-			getGraph().releaseRef( ref );
+	private void reportFailure( final HttpResponse< String > response )
+	{
+		final StringBuilder sb = new StringBuilder( response.getStatusText() );
+		if ( response.getStatus() == HttpURLConnection.HTTP_INTERNAL_ERROR )
+		{
+			sb.append( ": " );
+			sb.append( Json.parse( response.getBody() ).asObject().get( "error" ).asString() );
 		}
-		catch ( final Exception e )
+		showTextOverlayAnimator( sb.toString(), 3000, TextPosition.CENTER );
+		getClientLogger().severe( sb.toString() );
+	}
+
+	private void applyPredictedSpots( final int timepoint, final PredictedSpots predicted )
+	{
+		if ( !mergePredictedSpots( timepoint, predicted ) )
+			return;
+		synchronized ( committedTimepoints )
 		{
-			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			committedTimepoints.set( timepoint );
 		}
-		finally
+		summary( timepoint );
+		showTextOverlayAnimator( String.format( "Detected at frame %d", timepoint ), 1000, TextPosition.BOTTOM_RIGHT );
+		if ( isSpeculative() )
+			startSpeculation( timepoint );
+	}
+
+	/**
+	 * Report the timepoints that were committed before the run was aborted.
+	 */
+	private void reportAborted()
+	{
+		final String committed;
+		synchronized ( committedTimepoints )
 		{
-			getModel().setUndoPoint();
-			getGraph().getLock().readLock().unlock();
-			notifyGraphChanged();
+			committed = ElephantUtils.formatTimepoints( committedTimepoints );
 		}
+		final String message = String.format( "Aborted (committed frames: %s)", committed );
+		showTextOverlayAnimator( message, 3000, TextPosition.BOTTOM_RIGHT );
+		getClientLogger().info( message );
 	}
 
-	private void summary( final int timepoint )
+	private static enum SpotEditMode
+	{
+		CREATE,
+		REFIT,
+		RETAG,
+		REMOVE
+	}
+
+	/**
+	 * Spots at a timepoint copied out of the graph, so that the edit set can
+	 * be worked out without holding the graph lock.
+	 */
+	private static class SpotSnapshot
+	{
+		private final int timepoint;
+
+		private final int n;
+
+		private final int[] ids;
+
+		private final double[] pos;
+
+		private final double[] cov;
+
+		private final Tag[] detectionTags;
+
+		private final boolean[] isApproved;
+
+		private final boolean[] isInScope;
+
+		private SpotSnapshot( final int timepoint, final int n )
+		{
+			this.timepoint = timepoint;
+			this.n = n;
+			ids = new int[ n ];
+			pos = new double[ n * 3 ];
+			cov = new double[ n * 9 ];
+			detectionTags = new Tag[ n ];
+			isApproved = new boolean[ n ];
+			isInScope = new boolean[ n ];
+		}
+	}
+
+	/**
+	 * An ordered edit set: removals first, then retags and refits of existing
+	 * spots, then creations. Removals and updates refer to indices in the
+	 * {@link SpotSnapshot}, creations to indices in the {@link PredictedSpots}.
+	 */
+	private static class SpotEdits
+	{
+		private int size;
+
+		private final SpotEditMode[] modes;
+
+		private final int[] indices;
+
+		private Tag[] tags;
+
+		private int[] refitSources;
+
+		private SpotEdits( final int capacity )
+		{
+			modes = new SpotEditMode[ capacity ];
+			indices = new int[ capacity ];
+		}
+
+		private void add( final SpotEditMode mode, final int index )
+		{
+			modes[ size ] = mode;
+			indices[ size ] = index;
+			size++;
+		}
+	}
+
+	private static Map< Integer, PredictedSpots > parsePredictedSpots( final JsonArray jsonSpots )
+	{
+		final Map< Integer, PredictedSpots > predictedSpotsMap = new TreeMap<>();
+		for ( final JsonValue jsonValue : jsonSpots )
+		{
+			final JsonObject jsonSpot = jsonValue.asObject();
+			predictedSpotsMap.computeIfAbsent( jsonSpot.get( "t" ).asInt(), t -> new PredictedSpots() ).add( jsonSpot );
+		}
+		return predictedSpotsMap;
+	}
+
+	/**
+	 * Merge predicted spots into the graph at the given timepoint. The edit
+	 * set is computed against a snapshot of the timepoint without holding the
+	 * graph lock, then applied in write-locked chunks.
+	 * 
+	 * @param timepoint
+	 *            the timepoint to merge.
+	 * @param predicted
+	 *            the predicted spots at the timepoint.
+	 * @return {@code true} if the edits were applied, or {@code false} if the
+	 *         run was cancelled before applying them or the merge failed.
+	 */
+	private boolean mergePredictedSpots( final int timepoint, final PredictedSpots predicted )
+	{
+		try (final SpotIdResolver resolver = new SpotIdResolver( getGraph() ))
+		{
+			final SpotSnapshot snapshot = takeSnapshot( timepoint, resolver );
+			final SpotEdits edits = reconcile( snapshot, predicted );
+			// the edits at a timepoint are applied all or nothing
+			if ( cancellationToken.isCancelled() )
+				return false;
+			applyEdits( snapshot, predicted, edits, resolver );
+			return true;
+		}
+		catch ( final Exception e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			return false;
+		}
+	}
+
+	private SpotSnapshot takeSnapshot( final int timepoint, final SpotIdResolver resolver )
 	{
 		getGraph().getLock().readLock().lock();
 		try
 		{
-			getClientLogger().info( String.format( "FRAME: %d, TP: %d, FP: %d, TN: %d, FN: %d, TB: %d, FB: %d, unlabeled: %d",
-					timepoint,
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count(),
-					getVerticesTaggedWith( getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME ) ).stream().filter( s -> s.getTimepoint() == timepoint ).count() ) );
+			final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+			final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+			final Tag approvedTag = getTag( getTrackingTagSet(), TRACKING_APPROVED_TAG_NAME );
+			final SpatialIndex< Spot > spatialIndex = getSpatioTemporalIndex().getSpatialIndex( timepoint );
+			final SpotSnapshot snapshot = new SpotSnapshot( timepoint, spatialIndex.size() );
+			final double[][] covariance = new double[ 3 ][ 3 ];
+			int i = 0;
+			for ( final Spot spot : spatialIndex )
+			{
+				snapshot.ids[ i ] = resolver.getId( spot );
+				for ( int d = 0; d < 3; d++ )
+					snapshot.pos[ i * 3 + d ] = spot.getDoublePosition( d );
+				spot.getCovariance( covariance );
+				for ( int r = 0; r < 3; r++ )
+					for ( int c = 0; c < 3; c++ )
+						snapshot.cov[ i * 9 + r * 3 + c ] = covariance[ r ][ c ];
+				snapshot.detectionTags[ i ] = tagMapDetection.get( spot );
+				snapshot.isApproved[ i ] = tagMapTracking.get( spot ) == approvedTag;
+				snapshot.isInScope[ i ] = isInCropBoxes( snapshot.pos, i * 3 );
+				i++;
+			}
+			return snapshot;
 		}
 		finally
 		{
@@ -518,29 +1055,218 @@ public class PredictSpotsAction extends AbstractElephantDatasetAction
 	}
 
 	/**
-	 * Compare volumes of two ellipsoids represented with covariances
-	 * 
-	 * @param cov1
-	 * @param cov2
-	 * @return a negative integer, zero, or a positive integer as the first element
-	 *         is less than, equal to, or greater than the second.
+	 * Work out the edit set without touching the graph.
+	 * <p>
+	 * Labels of spots in scope are refreshed (TP to FN, FP to TN, FB to TB),
+	 * unlabeled and unapproved spots in scope are removed, predicted spots
+	 * closer than the suppression distance to an earlier predicted spot are
+	 * dropped, and each remaining predicted spot is matched against the
+	 * nearest remaining spot within the suppression distance: a match either
+	 * restores the label (FN to TP, TN to FP, TB to FB) or refits an unlabeled
+	 * spot to a larger prediction; an unmatched prediction creates a new spot.
+	 */
+	private SpotEdits reconcile( final SpotSnapshot snapshot, final PredictedSpots predicted )
+	{
+		final Tag tpTag = getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME );
+		final Tag fpTag = getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME );
+		final Tag tnTag = getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME );
+		final Tag fnTag = getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME );
+		final Tag tbTag = getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME );
+		final Tag fbTag = getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME );
+		final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+
+		final int n = snapshot.n;
+		final Tag[] tags = Arrays.copyOf( snapshot.detectionTags, n );
+		final boolean[] isRemoved = new boolean[ n ];
+		final int[] keptIndices = new int[ n ];
+		int nKept = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( snapshot.isInScope[ i ] )
+			{
+				if ( tags[ i ] == tpTag )
+					tags[ i ] = fnTag;
+				else if ( tags[ i ] == fpTag )
+					tags[ i ] = tnTag;
+				else if ( tags[ i ] == fbTag )
+					tags[ i ] = tbTag;
+				else if ( tags[ i ] == unlabeledTag && !snapshot.isApproved[ i ] )
+					isRemoved[ i ] = true;
+			}
+			if ( !isRemoved[ i ] )
+				keptIndices[ nKept++ ] = i;
+		}
+
+		final double suppressionDistance = getMainSettings().getSuppressionDistance();
+		final double maxSquaredDistance = suppressionDistance * suppressionDistance;
+
+		// suppress duplicates within the prediction, keeping the first one
+		final PointKDTree predictedTree = new PointKDTree( predicted.pos, predicted.n );
+		final boolean[] isSurvivor = new boolean[ predicted.n ];
+		final int[] survivors = new int[ predicted.n ];
+		int nSurvivors = 0;
+		for ( int j = 0; j < predicted.n; j++ )
+		{
+			if ( predictedTree.nearest( predicted.pos[ j * 3 ], predicted.pos[ j * 3 + 1 ], predicted.pos[ j * 3 + 2 ],
+					maxSquaredDistance, k -> isSurvivor[ k ] ) < 0 )
+			{
+				isSurvivor[ j ] = true;
+				survivors[ nSurvivors++ ] = j;
+			}
+		}
+		if ( nSurvivors < predicted.n )
+			getClientLogger().info( String.format( "FRAME: %d, %d duplicated spots suppressed", snapshot.timepoint, predicted.n - nSurvivors ) );
+
+		// match the survivors against the existing spots in parallel
+		final PointKDTree tree = new PointKDTree( snapshot.pos, keptIndices, nKept );
+		final int[] nearestIndices = new int[ nSurvivors ];
+		IntStream.range( 0, nSurvivors ).parallel().forEach( s -> {
+			final int j = survivors[ s ];
+			nearestIndices[ s ] = tree.nearest( predicted.pos[ j * 3 ], predicted.pos[ j * 3 + 1 ], predicted.pos[ j * 3 + 2 ], maxSquaredDistance );
+		} );
+
+		final int[] refitSources = new int[ n ];
+		Arrays.fill( refitSources, -1 );
+		final boolean[] isCreated = new boolean[ predicted.n ];
+		for ( int s = 0; s < nSurvivors; s++ )
+		{
+			final int j = survivors[ s ];
+			final int k = nearestIndices[ s ];
+			if ( k < 0 )
+			{
+				isCreated[ j ] = true;
+				continue;
+			}
+			final Tag tag = tags[ k ];
+			if ( tag == null )
+				getClientLogger().info( String.format( "Spot %d does not have a valid tag", snapshot.ids[ k ] ) );
+			else if ( tag == fnTag )
+				tags[ k ] = tpTag;
+			else if ( tag == tnTag )
+				tags[ k ] = fpTag;
+			else if ( tag == tbTag )
+				tags[ k ] = fbTag;
+			else if ( tag == unlabeledTag && !snapshot.isApproved[ k ] )
+				refitSources[ k ] = selectRefitSource( predicted.cov, j, refitSources[ k ], snapshot.cov, k );
+		}
+
+		final SpotEdits edits = new SpotEdits( 2 * n + predicted.n );
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( isRemoved[ i ] )
+				edits.add( SpotEditMode.REMOVE, i );
+		}
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( !isRemoved[ i ] && tags[ i ] != snapshot.detectionTags[ i ] )
+				edits.add( SpotEditMode.RETAG, i );
+			if ( 0 <= refitSources[ i ] )
+				edits.add( SpotEditMode.REFIT, i );
+		}
+		for ( int j = 0; j < predicted.n; j++ )
+		{
+			if ( isCreated[ j ] )
+				edits.add( SpotEditMode.CREATE, j );
+		}
+		edits.tags = tags;
+		edits.refitSources = refitSources;
+		return edits;
+	}
+
+	/**
+	 * Select the predicted spot to refit an existing spot with: the predicted
+	 * spot {@code j} replaces the current refit source if it has the greater
+	 * volume than it, or than the existing spot if there is none yet.
 	 * 
+	 * @param predictedCov
+	 *            the covariances of the predicted spots, 9 values per spot.
+	 * @param j
+	 *            the index of the predicted spot.
+	 * @param refitSource
+	 *            the index of the current refit source, or -1.
+	 * @param cov
+	 *            the covariances of the existing spots, 9 values per spot.
+	 * @param k
+	 *            the index of the existing spot.
+	 * @return the index of the refit source, or -1.
 	 */
-	private int compareVolume( final double[][] cov1, final double[][] cov2 )
+	static int selectRefitSource( final double[] predictedCov, final int j, final int refitSource, final double[] cov, final int k )
 	{
-		getEig().decomposeSymmetric( cov1 );
-		final double[] eigVals1 = eig.getRealEigenvalues();
-		getEig().decomposeSymmetric( cov2 );
-		final double[] eigVals2 = eig.getRealEigenvalues();
-		return Double.compare( arrayProduct( eigVals1 ), arrayProduct( eigVals2 ) );
+		final int compared = 0 <= refitSource
+				? EllipsoidGeometry.compareVolume( predictedCov, j * 9, predictedCov, refitSource * 9 )
+				: EllipsoidGeometry.compareVolume( predictedCov, j * 9, cov, k * 9 );
+		return 0 < compared ? j : refitSource;
 	}
 
-	private static double arrayProduct( double[] array )
+	private void applyEdits( final SpotSnapshot snapshot, final PredictedSpots predicted, final SpotEdits edits, final SpotIdResolver resolver )
+	{
+		final ObjTagMap< Spot, Tag > tagMapDetection = getVertexTagMap( getDetectionTagSet() );
+		final ObjTagMap< Spot, Tag > tagMapTracking = getVertexTagMap( getTrackingTagSet() );
+		final Tag unlabeledTag = getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME );
+		final Tag trackingUnlabeledTag = getTag( getTrackingTagSet(), TRACKING_UNLABELED_TAG_NAME );
+		final Spot ref = getGraph().vertexRef();
+		final double[] pos = new double[ 3 ];
+		final double[][] covariance = new double[ 3 ][ 3 ];
+		try
+		{
+			applyInWriteLockedChunks( edits.size, e -> {
+				final int index = edits.indices[ e ];
+				switch ( edits.modes[ e ] )
+				{
+				case CREATE:
+					predicted.get( index, pos, covariance );
+					final Spot spot = getGraph().addVertex( ref ).init( snapshot.timepoint, pos, covariance );
+					tagMapDetection.set( spot, unlabeledTag );
+					tagMapTracking.set( spot, trackingUnlabeledTag );
+					break;
+				case REFIT:
+					if ( resolver.resolve( snapshot.ids[ index ], snapshot.timepoint, ref ) != null )
+					{
+						predicted.get( edits.refitSources[ index ], pos, covariance );
+						ref.setPosition( pos );
+						ref.setCovariance( covariance );
+					}
+					break;
+				case RETAG:
+					if ( resolver.resolve( snapshot.ids[ index ], snapshot.timepoint, ref ) != null )
+						tagMapDetection.set( ref, edits.tags[ index ] );
+					break;
+				case REMOVE:
+					if ( resolver.resolve( snapshot.ids[ index ], snapshot.timepoint, ref ) != null )
+						getGraph().remove( ref );
+					break;
+				default:
+					throw new RuntimeException( "editMode is invalid: " + edits.modes[ e ] );
+				}
+			}, WRITE_LOCK_BUDGET_NANOS );
+		}
+		finally
+		{
+			getGraph().releaseRef( ref );
+			getGraph().getLock().writeLock().lock();
+			try
+			{
+				getModel().setUndoPoint();
+			}
+			finally
+			{
+				getGraph().getLock().writeLock().unlock();
+			}
+			notifyGraphChanged();
+		}
+	}
+
+	private void summary( final int timepoint )
 	{
-		double result = 0;
-		for ( final double i : array )
-			result *= i;
-		return result;
+		getClientLogger().info( String.format( "FRAME: %d, TP: %d, FP: %d, TN: %d, FN: %d, TB: %d, FB: %d, unlabeled: %d",
+				timepoint,
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_TP_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_FP_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_TN_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_FN_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_TB_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_FB_TAG_NAME ) ),
+				getSpotCount( timepoint, getTag( getDetectionTagSet(), DETECTION_UNLABELED_TAG_NAME ) ) ) );
 	}
 
 }
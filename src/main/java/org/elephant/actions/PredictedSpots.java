@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Spots predicted at a timepoint, stored in flat primitive arrays: 3 values
+ * per spot in {@code pos} and 9 values (row-major covariance) per spot in
+ * {@code cov}.
+ * 
+ * <p>
+ * Instances are not modified once they have been handed over to the merge or
+ * to a cache, so that they can be shared between threads.
+ * 
+ * @author Ko Sugawara
+ */
+final class PredictedSpots
+{
+
+	int n;
+
+	double[] pos;
+
+	double[] cov;
+
+	PredictedSpots()
+	{
+		this( 64 );
+	}
+
+	PredictedSpots( final int capacity )
+	{
+		pos = new double[ 3 * Math.max( 1, capacity ) ];
+		cov = new double[ 9 * Math.max( 1, capacity ) ];
+	}
+
+	int size()
+	{
+		return n;
+	}
+
+	void add( final JsonObject jsonSpot )
+	{
+		ensureCapacity( n + 1 );
+		final JsonArray posArray = jsonSpot.get( "pos" ).asArray();
+		final JsonArray covArray = jsonSpot.get( "covariance" ).asArray();
+		for ( int i = 0; i < 3; i++ )
+			pos[ n * 3 + i ] = posArray.get( i ).asDouble();
+		for ( int i = 0; i < 9; i++ )
+			cov[ n * 9 + i ] = covArray.get( i ).asDouble();
+		n++;
+	}
+
+	void add( final PredictedSpots other, final int index )
+	{
+		ensureCapacity( n + 1 );
+		System.arraycopy( other.pos, index * 3, pos, n * 3, 3 );
+		System.arraycopy( other.cov, index * 9, cov, n * 9, 9 );
+		n++;
+	}
+
+	void get( final int index, final double[] position, final double[][] covariance )
+	{
+		for ( int i = 0; i < 3; i++ )
+		{
+			position[ i ] = pos[ index * 3 + i ];
+			for ( int j = 0; j < 3; j++ )
+				covariance[ i ][ j ] = cov[ index * 9 + i * 3 + j ];
+		}
+	}
+
+	/**
+	 * Get the spots whose centers are inside the box, in physical units.
+	 * 
+	 * @param origin
+	 *            the origin of the box.
+	 * @param size
+	 *            the size of the box.
+	 * @return a new instance with the spots inside the box.
+	 */
+	PredictedSpots crop( final double[] origin, final double[] size )
+	{
+		final PredictedSpots cropped = new PredictedSpots( n );
+		for ( int i = 0; i < n; i++ )
+		{
+			boolean isInside = true;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double p = pos[ i * 3 + d ];
+				if ( p < origin[ d ] || origin[ d ] + size[ d ] <= p )
+				{
+					isInside = false;
+					break;
+				}
+			}
+			if ( isInside )
+				cropped.add( this, i );
+		}
+		return cropped;
+	}
+
+	private void ensureCapacity( final int capacity )
+	{
+		if ( pos.length < capacity * 3 )
+		{
+			final int newCapacity = Math.max( capacity, pos.length / 3 * 2 );
+			pos = Arrays.copyOf( pos, newCapacity * 3 );
+			cov = Arrays.copyOf( cov, newCapacity * 9 );
+		}
+	}
+
+}
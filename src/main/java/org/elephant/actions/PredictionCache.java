@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elephant.setting.main.ElephantMainSettings;
+
+/**
+ * A singleton LRU cache of the spots returned by {@code seg/predict}.
+ * 
+ * <p>
+ * Entries are keyed by the request parameters (which include the dataset and
+ * the model name), the timepoint and the crop box in physical units. A
+ * request is answered from an entry with the same parameters and timepoint
+ * whose crop box contains the requested one, cropping the cached spots to the
+ * requested box. The model generation is bumped and all the entries are
+ * dropped whenever the model changes, i.e. when training starts or ends and
+ * when the model is reset. Updating the detection labels does not change the
+ * model by itself, so the entries are kept; in live mode the labels are used
+ * by the live training, which is in progress all along. No entry is served or
+ * stored while training is in progress.
+ * 
+ * <p>
+ * Speculative results, which are predicted in live mode for the timepoints
+ * next to the current one before they are requested, are held separately
+ * since the model keeps changing during live training. They are taken out
+ * once they are used and are dropped whenever the labels or the model change,
+ * including each time the model is updated during live training. They are
+ * requested only while no other {@code seg/predict} request is in flight.
+ * 
+ * @author Ko Sugawara
+ */
+public enum PredictionCache
+{
+	INSTANCE;
+
+	private long generation = 0;
+
+	private boolean isModelUpdating = false;
+
+	private int capacity = ElephantMainSettings.DEFAULT_PREDICTION_CACHE_SIZE;
+
+	private long speculativeGeneration = 0;
+
+	private final Map< Key, PredictedSpots > speculativeEntries = new HashMap<>();
+
+	private final Map< Key, Long > pendingSpeculations = new HashMap<>();
+
+	private Runnable speculation;
+
+	/** The number of {@code seg/predict} requests of runs in flight. */
+	private int foregroundRequests = 0;
+
+	/** The speculative request held back until no request is in flight. */
+	private Runnable deferredSpeculation;
+
+	private final LinkedHashMap< Key, PredictedSpots > entries = new LinkedHashMap< Key, PredictedSpots >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< Key, PredictedSpots > eldest )
+		{
+			return capacity < size();
+		}
+	};
+
+	private static class Key
+	{
+		private final String params;
+
+		private final int timepoint;
+
+		/**
+		 * The crop box {@code (x, y, z, width, height, depth)} in physical
+		 * units, or {@code null} for the entire image.
+		 */
+		private final double[] box;
+
+		private Key( final String params, final int timepoint, final double[] box )
+		{
+			this.params = params;
+			this.timepoint = timepoint;
+			this.box = box;
+		}
+
+		private boolean contains( final double[] other )
+		{
+			if ( box == null )
+				return true;
+			if ( other == null )
+				return false;
+			for ( int d = 0; d < 3; d++ )
+			{
+				if ( other[ d ] < box[ d ] || box[ d ] + box[ d + 3 ] < other[ d ] + other[ d + 3 ] )
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Key ) )
+				return false;
+			final Key other = ( Key ) obj;
+			return timepoint == other.timepoint && params.equals( other.params ) && Arrays.equals( box, other.box );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash( params, timepoint, Arrays.hashCode( box ) );
+		}
+	}
+
+	/**
+	 * Get the current model generation. A result should be stored with the
+	 * generation obtained before its request was sent.
+	 * 
+	 * @return the current model generation.
+	 */
+	public synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Drop all the entries because the model has changed.
+	 */
+	public synchronized void invalidate()
+	{
+		generation++;
+		entries.clear();
+		clearSpeculative();
+	}
+
+	private void clearSpeculative()
+	{
+		speculativeGeneration++;
+		speculativeEntries.clear();
+		pendingSpeculations.clear();
+		deferredSpeculation = null;
+	}
+
+	/**
+	 * Set if the model is being updated (e.g. during training). The cache is
+	 * invalidated on both edges.
+	 * 
+	 * @param isModelUpdating
+	 *            {@code true} if the model is being updated.
+	 */
+	public synchronized void setModelUpdating( final boolean isModelUpdating )
+	{
+		this.isModelUpdating = isModelUpdating;
+		speculation = null;
+		invalidate();
+	}
+
+	/**
+	 * Get the current generation of the speculative results, which is bumped
+	 * whenever the labels or the model change.
+	 * 
+	 * @return the current speculative generation.
+	 */
+	public synchronized long getSpeculativeGeneration()
+	{
+		return speculativeGeneration;
+	}
+
+	/**
+	 * Drop the speculative results because the labels have changed, and
+	 * restart the current speculation, if any, for the new labels.
+	 */
+	public void invalidateSpeculative()
+	{
+		final Runnable restart;
+		synchronized ( this )
+		{
+			clearSpeculative();
+			restart = speculation;
+		}
+		if ( restart != null )
+			restart.run();
+	}
+
+	/**
+	 * Bump the model generation and drop the speculative results because the
+	 * model has been updated during training, and restart the current
+	 * speculation, if any, for the new model. Nothing happens if no training
+	 * is in progress.
+	 */
+	public void modelUpdated()
+	{
+		final Runnable restart;
+		synchronized ( this )
+		{
+			if ( !isModelUpdating )
+				return;
+			generation++;
+			clearSpeculative();
+			restart = speculation;
+		}
+		if ( restart != null )
+			restart.run();
+	}
+
+	/**
+	 * Mark a {@code seg/predict} request of a run as in flight. It must be
+	 * followed by {@link #endForeground()} once the request has completed.
+	 */
+	synchronized void beginForeground()
+	{
+		foregroundRequests++;
+	}
+
+	/**
+	 * Clear the in-flight mark of a {@code seg/predict} request of a run, and
+	 * send the speculative request held back, if any, once none is left.
+	 */
+	void endForeground()
+	{
+		final Runnable deferred;
+		synchronized ( this )
+		{
+			if ( 0 < --foregroundRequests || deferredSpeculation == null )
+				return;
+			deferred = deferredSpeculation;
+			deferredSpeculation = null;
+		}
+		deferred.run();
+	}
+
+	/**
+	 * Hold back a speculative request while a request of a run is in flight.
+	 * 
+	 * @param request
+	 *            the speculative request, which replaces the one held back
+	 *            before, if any.
+	 * @return {@code true} if the request has been held back, or
+	 *         {@code false} if it can be sent now.
+	 */
+	synchronized boolean deferSpeculative( final Runnable request )
+	{
+		if ( foregroundRequests == 0 )
+			return false;
+		deferredSpeculation = request;
+		return true;
+	}
+
+	/**
+	 * Set the speculation to restart after the labels have changed.
+	 * 
+	 * @param speculation
+	 *            the speculation, or {@code null} to clear.
+	 */
+	synchronized void setSpeculation( final Runnable speculation )
+	{
+		this.speculation = speculation;
+	}
+
+	/**
+	 * Mark a speculative request as in flight.
+	 * 
+	 * @return {@code true} if the request should be sent, or {@code false} if
+	 *         the result is already held or requested, or if the labels or the
+	 *         model have changed since {@code generation} was obtained.
+	 */
+	synchronized boolean beginSpeculative( final String params, final int timepoint, final long generation )
+	{
+		final Key key = new Key( params, timepoint, null );
+		if ( generation != speculativeGeneration || speculativeEntries.containsKey( key ) || pendingSpeculations.containsKey( key ) )
+			return false;
+		pendingSpeculations.put( key, generation );
+		return true;
+	}
+
+	/**
+	 * Store a speculative result, or only clear the in-flight mark if
+	 * {@code spots} is {@code null}. The result is thrown away if the labels
+	 * or the model have changed since {@code generation} was obtained.
+	 */
+	synchronized void endSpeculative( final String params, final int timepoint, final long generation, final PredictedSpots spots )
+	{
+		final Key key = new Key( params, timepoint, null );
+		if ( generation != speculativeGeneration )
+			return;
+		pendingSpeculations.remove( key );
+		if ( spots != null )
+			speculativeEntries.put( key, spots );
+	}
+
+	/**
+	 * Take the speculative result for the timepoint out of the cache.
+	 * 
+	 * @return the spots, or {@code null} if not available.
+	 */
+	synchronized PredictedSpots takeSpeculative( final String params, final int timepoint )
+	{
+		return speculativeEntries.remove( new Key( params, timepoint, null ) );
+	}
+
+	public synchronized void setCapacity( final int capacity )
+	{
+		this.capacity = Math.max( 0, capacity );
+		final Iterator< Key > it = entries.keySet().iterator();
+		while ( this.capacity < entries.size() && it.hasNext() )
+		{
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Get the cached spots for the request.
+	 * 
+	 * @param params
+	 *            the request parameters other than the timepoint and the crop
+	 *            box.
+	 * @param timepoint
+	 *            the timepoint.
+	 * @param box
+	 *            the crop box {@code (x, y, z, width, height, depth)} in
+	 *            physical units, or {@code null} for the entire image.
+	 * @return the spots, or {@code null} if not cached.
+	 */
+	synchronized PredictedSpots get( final String params, final int timepoint, final double[] box )
+	{
+		if ( isModelUpdating || capacity == 0 )
+			return null;
+		final Key key = new Key( params, timepoint, box );
+		final PredictedSpots spots = entries.get( key );
+		if ( spots != null )
+			return spots;
+		Key containingKey = null;
+		for ( final Key cachedKey : entries.keySet() )
+		{
+			if ( cachedKey.timepoint == timepoint && cachedKey.params.equals( params ) && cachedKey.contains( box ) )
+			{
+				containingKey = cachedKey;
+				break;
+			}
+		}
+		if ( containingKey == null )
+			return null;
+		// get() also moves the containing entry to the most recently used
+		return entries.get( containingKey ).crop( Arrays.copyOfRange( box, 0, 3 ), Arrays.copyOfRange( box, 3, 6 ) );
+	}
+
+	/**
+	 * Store the spots for the request. The spots are ignored if the model
+	 * has changed since {@code generation} was obtained.
+	 * 
+	 * @param params
+	 *            the request parameters other than the timepoint and the crop
+	 *            box.
+	 * @param timepoint
+	 *            the timepoint.
+	 * @param box
+	 *            the crop box {@code (x, y, z, width, height, depth)} in
+	 *            physical units, or {@code null} for the entire image.
+	 * @param generation
+	 *            the model generation when the request was sent.
+	 * @param spots
+	 *            the spots, which should not be modified afterwards.
+	 */
+	synchronized void put( final String params, final int timepoint, final double[] box, final long generation, final PredictedSpots spots )
+	{
+		if ( isModelUpdating || capacity == 0 || generation != this.generation )
+			return;
+		entries.put( new Key( params, timepoint, box == null ? null : box.clone() ), spots );
+	}
+
+}
@@ -139,6 +139,8 @@ public class RabbitMQService extends AbstractElephantService
 		final DeliverCallback callbackUpdate = ( consumerTag, delivery ) -> {
 			final String message = new String( delivery.getBody(), "UTF-8" );
 			addTextOverlayAnimator( message, 3000, TextPosition.CENTER );
+			// the server publishes an update when it saves the model during training
+			PredictionCache.INSTANCE.modelUpdated();
 		};
 		channel.basicConsume( RABBITMQ_QUEUE_UPDATE, true, callbackUpdate, consumerTag -> {} );
 		// RABBITMQ_QUEUE_DATASET
@@ -95,6 +95,7 @@ public class ResetDetectionLabelsAction extends AbstractElephantDatasetAction
 						response -> {
 							if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 							{
+								PredictionCache.INSTANCE.invalidateSpeculative();
 								showTextOverlayAnimator( "Detection labels are reset", 3000, TextOverlayAnimator.TextPosition.CENTER );
 							}
 							else
@@ -135,6 +135,7 @@ public class ResetDetectionModelAction extends AbstractElephantDatasetAction
 				final Consumer< HttpResponse< String > > completed = response -> {
 					if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 					{
+						PredictionCache.INSTANCE.invalidate();
 						showTextOverlayAnimator( "Detection model is reset", 3000, TextOverlayAnimator.TextPosition.CENTER );
 					}
 					else
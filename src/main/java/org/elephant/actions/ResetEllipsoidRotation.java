@@ -27,7 +27,6 @@
 package org.elephant.actions;
 
 import org.elephant.actions.mixins.ElephantStateManagerMixin;
-import org.elephant.actions.mixins.EllipsoidActionMixin;
 import org.elephant.actions.mixins.GraphChangeActionMixin;
 import org.mastodon.mamut.model.Spot;
 
@@ -37,7 +36,7 @@ import org.mastodon.mamut.model.Spot;
  * @author Ko Sugawara
  */
 public class ResetEllipsoidRotation extends AbstractElephantAction
-		implements EllipsoidActionMixin, GraphChangeActionMixin, ElephantStateManagerMixin
+		implements GraphChangeActionMixin, ElephantStateManagerMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -73,15 +72,19 @@ public class ResetEllipsoidRotation extends AbstractElephantAction
 				return;
 			}
 			final double[][] cov = new double[ 3 ][ 3 ];
+			final double[] m = new double[ 9 ];
+			final double[] V = new double[ 9 ];
+			final double[] d = new double[ 3 ];
 			spot.getCovariance( cov );
-			getEig().decomposeSymmetric( cov );
-			final double[][] V = new double[ 3 ][ 3 ];
-			for ( int i = 0; i < V.length; i++ )
+			EllipsoidGeometry.flatten( cov, m );
+			EllipsoidGeometry.decomposeSymmetric( m, 0, d, V );
+			for ( int i = 0; i < 3; i++ )
 			{
-				V[ i ][ i ] = 1.0;
+				for ( int j = 0; j < 3; j++ )
+					V[ i * 3 + j ] = i == j ? 1.0 : 0.0;
 			}
-			final double[] d = getEig().getRealEigenvalues();
-			LinAlgHelpersExt.compose( V, d, cov );
+			EllipsoidGeometry.compose( V, d, m );
+			EllipsoidGeometry.unflatten( m, cov );
 			spot.setCovariance( cov );
 			getGraph().releaseRef( ref );
 		}
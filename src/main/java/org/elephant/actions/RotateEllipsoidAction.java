@@ -28,7 +28,6 @@ package org.elephant.actions;
 
 import org.elephant.actions.mixins.BdvDataMixin;
 import org.elephant.actions.mixins.ElephantStateManagerMixin;
-import org.elephant.actions.mixins.EllipsoidActionMixin;
 import org.elephant.actions.mixins.GraphChangeActionMixin;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.ui.keymap.CommandDescriptionProvider;
@@ -36,8 +35,6 @@ import org.mastodon.ui.keymap.CommandDescriptions;
 import org.mastodon.ui.keymap.KeyConfigContexts;
 import org.scijava.plugin.Plugin;
 
-import net.imglib2.util.LinAlgHelpers;
-
 /**
  * Rotate the highlighted ellipsoid along the control axis set by
  * {@link SetControlAxisAction}}.
@@ -45,7 +42,7 @@ import net.imglib2.util.LinAlgHelpers;
  * @author Ko Sugawara
  */
 public class RotateEllipsoidAction extends AbstractElephantAction
-		implements BdvDataMixin, EllipsoidActionMixin, GraphChangeActionMixin, ElephantStateManagerMixin
+		implements BdvDataMixin, GraphChangeActionMixin, ElephantStateManagerMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -157,10 +154,12 @@ public class RotateEllipsoidAction extends AbstractElephantAction
 				return;
 			}
 			final double[][] cov = new double[ 3 ][ 3 ];
+			final double[] m = new double[ 9 ];
+			final double[] V = new double[ 9 ];
+			final double[] d = new double[ 3 ];
 			spot.getCovariance( cov );
-			getEig().decomposeSymmetric( cov );
-			final double[][] V = getEig().getV();
-			final double[] d = getEig().getRealEigenvalues();
+			EllipsoidGeometry.flatten( cov, m );
+			EllipsoidGeometry.decomposeSymmetric( m, 0, d, V );
 			final double[][] R = new double[ 3 ][ 3 ];
 			if ( is2D() )
 			{
@@ -215,9 +214,12 @@ public class RotateEllipsoidAction extends AbstractElephantAction
 					break;
 				}
 			}
-			final double[][] VR = new double[ 3 ][ 3 ];
-			LinAlgHelpers.mult( R, V, VR );
-			LinAlgHelpersExt.compose( VR, d, cov );
+			final double[] Rm = new double[ 9 ];
+			final double[] VR = new double[ 9 ];
+			EllipsoidGeometry.flatten( R, Rm );
+			EllipsoidGeometry.mult( Rm, V, VR );
+			EllipsoidGeometry.compose( VR, d, m );
+			EllipsoidGeometry.unflatten( m, cov );
 			spot.setCovariance( cov );
 			getGraph().releaseRef( ref );
 		}
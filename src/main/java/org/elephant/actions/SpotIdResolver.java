@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.BitSet;
+
+import org.mastodon.graph.GraphIdBimap;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Resolve the ids of spots sent to the server back to {@link Spot}s in O(1).
+ * 
+ * <p>
+ * The ids are the vertex ids of the {@link GraphIdBimap}, i.e. pool indices,
+ * which are reused after a spot is removed. The resolver therefore listens to
+ * the graph from its creation until {@link #close()}, and resolves only the
+ * ids obtained with {@link #getId(Spot)} whose spots have not been removed in
+ * the meantime. The graph lock should be held while resolving.
+ * 
+ * <p>
+ * The listener is added and removed while holding the write lock of the
+ * graph, as the listeners are iterated by the writers without a copy. The
+ * resolver must therefore not be created or closed while holding the read
+ * lock.
+ * 
+ * @author Ko Sugawara
+ */
+final class SpotIdResolver implements GraphListener< Spot, Link >, AutoCloseable
+{
+
+	private final ModelGraph graph;
+
+	private final BitSet registeredIds = new BitSet();
+
+	private final BitSet removedIds = new BitSet();
+
+	private boolean isRebuilt = false;
+
+	SpotIdResolver( final ModelGraph graph )
+	{
+		this.graph = graph;
+		graph.getLock().writeLock().lock();
+		try
+		{
+			graph.addGraphListener( this );
+		}
+		finally
+		{
+			graph.getLock().writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the id of the spot to be sent to the server.
+	 * 
+	 * @param spot
+	 *            the spot.
+	 * @return the id of the spot.
+	 */
+	synchronized int getId( final Spot spot )
+	{
+		final int id = graph.getGraphIdBimap().getVertexId( spot );
+		registeredIds.set( id );
+		removedIds.clear( id );
+		return id;
+	}
+
+	/**
+	 * Check if the id can no longer be resolved.
+	 * 
+	 * @param id
+	 *            the id.
+	 * @return {@code true} if the id was not obtained from this resolver or
+	 *         its spot has been removed since.
+	 */
+	synchronized boolean isStale( final int id )
+	{
+		return id < 0 || isRebuilt || !registeredIds.get( id ) || removedIds.get( id );
+	}
+
+	/**
+	 * Resolve the id to a spot.
+	 * 
+	 * @param id
+	 *            the id.
+	 * @param ref
+	 *            a spot ref.
+	 * @return the spot, or {@code null} if the id is stale.
+	 */
+	Spot resolve( final int id, final Spot ref )
+	{
+		return isStale( id ) ? null : graph.getGraphIdBimap().getVertex( id, ref );
+	}
+
+	/**
+	 * Resolve the id to a spot at the timepoint.
+	 * 
+	 * @param id
+	 *            the id.
+	 * @param timepoint
+	 *            the expected timepoint of the spot.
+	 * @param ref
+	 *            a spot ref.
+	 * @return the spot, or {@code null} if the id is stale or the spot is not
+	 *         at the timepoint.
+	 */
+	Spot resolve( final int id, final int timepoint, final Spot ref )
+	{
+		final Spot spot = resolve( id, ref );
+		return spot != null && spot.getTimepoint() == timepoint ? spot : null;
+	}
+
+	/**
+	 * Stop listening to the graph.
+	 */
+	@Override
+	public void close()
+	{
+		graph.getLock().writeLock().lock();
+		try
+		{
+			graph.removeGraphListener( this );
+		}
+		finally
+		{
+			graph.getLock().writeLock().unlock();
+		}
+	}
+
+	@Override
+	public synchronized void graphRebuilt()
+	{
+		isRebuilt = true;
+	}
+
+	@Override
+	public void vertexAdded( final Spot vertex )
+	{}
+
+	@Override
+	public synchronized void vertexRemoved( final Spot vertex )
+	{
+		removedIds.set( vertex.getInternalPoolIndex() );
+	}
+
+	@Override
+	public void edgeAdded( final Link edge )
+	{}
+
+	@Override
+	public void edgeRemoved( final Link edge )
+	{}
+
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+
+/**
+ * Links from the spots of the previous frame to the spots being linked, kept
+ * aside from the graph until the frame is committed.
+ * <p>
+ * A spot being linked has at most one staged parent. The staged children of
+ * each parent are chained so that they can be counted and compared with the
+ * links the parent already has.
+ * 
+ * @author Ko Sugawara
+ */
+final class StagedLinks
+{
+
+	/** The id of the staged parent of each spot, or -1. */
+	private final int[] parents;
+
+	/** The next spot staged to the same parent, or -1. */
+	private final int[] nextChild;
+
+	/** The squared distance from the search position of each staged link. */
+	private final double[] squaredDistances;
+
+	/** The squared displacement of each staged link. */
+	private final double[] sqDisps;
+
+	/** The first spot staged to each parent. */
+	private final IntIntMap firstChild = new IntIntMap();
+
+	/**
+	 * @param nSpots
+	 *            the number of spots being linked.
+	 */
+	StagedLinks( final int nSpots )
+	{
+		parents = new int[ nSpots ];
+		nextChild = new int[ nSpots ];
+		squaredDistances = new double[ nSpots ];
+		sqDisps = new double[ nSpots ];
+		Arrays.fill( parents, -1 );
+		Arrays.fill( nextChild, -1 );
+	}
+
+	/**
+	 * Stage a link to a spot being linked, replacing the link staged to it
+	 * before.
+	 * 
+	 * @param parent
+	 *            the id of the spot to link from.
+	 * @param child
+	 *            the index of the spot being linked.
+	 * @param squaredDistance
+	 *            the squared distance from the search position.
+	 * @param sqDisp
+	 *            the squared displacement.
+	 */
+	void addLink( final int parent, final int child, final double squaredDistance, final double sqDisp )
+	{
+		removeLink( child );
+		parents[ child ] = parent;
+		squaredDistances[ child ] = squaredDistance;
+		sqDisps[ child ] = sqDisp;
+		nextChild[ child ] = firstChild.get( parent, -1 );
+		firstChild.put( parent, child );
+	}
+
+	/**
+	 * Remove the link staged to a spot being linked, if any.
+	 * 
+	 * @param child
+	 *            the index of the spot being linked.
+	 */
+	void removeLink( final int child )
+	{
+		final int parent = parents[ child ];
+		if ( parent < 0 )
+			return;
+		int previous = firstChild.get( parent, -1 );
+		if ( previous == child )
+			firstChild.put( parent, nextChild[ child ] );
+		else
+		{
+			while ( nextChild[ previous ] != child )
+				previous = nextChild[ previous ];
+			nextChild[ previous ] = nextChild[ child ];
+		}
+		parents[ child ] = -1;
+		nextChild[ child ] = -1;
+	}
+
+	/**
+	 * @return the id of the staged parent of the spot, or -1.
+	 */
+	int getParent( final int child )
+	{
+		return parents[ child ];
+	}
+
+	/**
+	 * @return the first spot staged to the parent, or -1.
+	 */
+	int firstChild( final int parent )
+	{
+		return firstChild.get( parent, -1 );
+	}
+
+	/**
+	 * @return the next spot staged to the same parent, or -1.
+	 */
+	int nextChild( final int child )
+	{
+		return nextChild[ child ];
+	}
+
+	double getSquaredDistance( final int child )
+	{
+		return squaredDistances[ child ];
+	}
+
+	double getSqDisp( final int child )
+	{
+		return sqDisps[ child ];
+	}
+
+	/**
+	 * An open-addressing hash map from non-negative {@code int} keys to
+	 * {@code int} values with linear probing.
+	 */
+	private static final class IntIntMap
+	{
+
+		private static final int EMPTY = -1;
+
+		private int[] keys = newKeys( 64 );
+
+		private int[] values = new int[ 64 ];
+
+		private int size;
+
+		int get( final int key, final int defaultValue )
+		{
+			final int mask = keys.length - 1;
+			for ( int i = hash( key ) & mask; keys[ i ] != EMPTY; i = ( i + 1 ) & mask )
+			{
+				if ( keys[ i ] == key )
+					return values[ i ];
+			}
+			return defaultValue;
+		}
+
+		void put( final int key, final int value )
+		{
+			if ( keys.length <= 2 * ( size + 1 ) )
+				rehash( keys.length * 2 );
+			final int mask = keys.length - 1;
+			int i = hash( key ) & mask;
+			while ( keys[ i ] != EMPTY && keys[ i ] != key )
+				i = ( i + 1 ) & mask;
+			if ( keys[ i ] == EMPTY )
+			{
+				keys[ i ] = key;
+				size++;
+			}
+			values[ i ] = value;
+		}
+
+		private void rehash( final int capacity )
+		{
+			final int[] oldKeys = keys;
+			final int[] oldValues = values;
+			keys = newKeys( capacity );
+			values = new int[ capacity ];
+			final int mask = capacity - 1;
+			for ( int j = 0; j < oldKeys.length; j++ )
+			{
+				if ( oldKeys[ j ] == EMPTY )
+					continue;
+				int i = hash( oldKeys[ j ] ) & mask;
+				while ( keys[ i ] != EMPTY )
+					i = ( i + 1 ) & mask;
+				keys[ i ] = oldKeys[ j ];
+				values[ i ] = oldValues[ j ];
+			}
+		}
+
+		private static int hash( final int key )
+		{
+			final int h = key * 0x9E3779B9;
+			return h ^ ( h >>> 16 );
+		}
+
+		private static int[] newKeys( final int capacity )
+		{
+			final int[] keys = new int[ capacity ];
+			Arrays.fill( keys, EMPTY );
+			return keys;
+		}
+
+	}
+
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Spots interpolated during nearest-neighbor linking of a frame, together
+ * with the links from and to them, kept aside from the graph until the frame
+ * is committed.
+ * <p>
+ * The staged spots are indexed in a uniform grid whose cells are as large as
+ * the linking radius, so that they can be merged into the candidate search.
+ * 
+ * @author Ko Sugawara
+ */
+final class StagedSpots
+{
+
+	private final double cellSize;
+
+	private final double squaredRadius;
+
+	private int nSpots;
+
+	private double[] pos = new double[ 3 * 16 ];
+
+	private double[] cov = new double[ 9 * 16 ];
+
+	/** The id of the parent of each spot, or -1. */
+	private int[] parents = new int[ 16 ];
+
+	/** The first link of each spot, or -1. */
+	private int[] firstLink = new int[ 16 ];
+
+	/** The next spot in the same grid cell, or -1. */
+	private int[] nextInCell = new int[ 16 ];
+
+	/** The first spot in each grid cell. */
+	private final LongIntMap cells = new LongIntMap();
+
+	private int nLinks;
+
+	private int[] linkSpot = new int[ 16 ];
+
+	private int[] linkChild = new int[ 16 ];
+
+	private double[] linkSquaredDistance = new double[ 16 ];
+
+	private double[] linkSqDisp = new double[ 16 ];
+
+	/** The next link of the same spot, or -1. */
+	private int[] nextLink = new int[ 16 ];
+
+	private final BitSet evictedLinks = new BitSet();
+
+	StagedSpots( final double radius )
+	{
+		this.cellSize = 0 < radius ? radius : 1;
+		this.squaredRadius = radius * radius;
+	}
+
+	/**
+	 * Stage a spot.
+	 * 
+	 * @param position
+	 *            the position.
+	 * @param covariance
+	 *            the covariance.
+	 * @param parent
+	 *            the id of the spot to link from, or -1.
+	 * @return the index of the staged spot.
+	 */
+	int addSpot( final double[] position, final double[][] covariance, final int parent )
+	{
+		if ( nSpots == firstLink.length )
+		{
+			final int capacity = nSpots * 2;
+			pos = Arrays.copyOf( pos, capacity * 3 );
+			cov = Arrays.copyOf( cov, capacity * 9 );
+			parents = Arrays.copyOf( parents, capacity );
+			firstLink = Arrays.copyOf( firstLink, capacity );
+			nextInCell = Arrays.copyOf( nextInCell, capacity );
+		}
+		final int index = nSpots++;
+		System.arraycopy( position, 0, pos, index * 3, 3 );
+		for ( int i = 0; i < 3; i++ )
+			System.arraycopy( covariance[ i ], 0, cov, index * 9 + i * 3, 3 );
+		parents[ index ] = parent;
+		firstLink[ index ] = -1;
+		final long cell = cellOf( cell( position[ 0 ] ), cell( position[ 1 ] ), cell( position[ 2 ] ) );
+		nextInCell[ index ] = cells.get( cell, -1 );
+		cells.put( cell, index );
+		return index;
+	}
+
+	/**
+	 * Stage a link from a staged spot to a spot to be linked.
+	 * 
+	 * @param spot
+	 *            the index of the staged spot.
+	 * @param child
+	 *            the index of the spot to be linked.
+	 * @param squaredDistance
+	 *            the squared distance from the search position.
+	 * @param sqDisp
+	 *            the squared displacement.
+	 */
+	void addLink( final int spot, final int child, final double squaredDistance, final double sqDisp )
+	{
+		if ( nLinks == linkSpot.length )
+		{
+			final int capacity = nLinks * 2;
+			linkSpot = Arrays.copyOf( linkSpot, capacity );
+			linkChild = Arrays.copyOf( linkChild, capacity );
+			linkSquaredDistance = Arrays.copyOf( linkSquaredDistance, capacity );
+			linkSqDisp = Arrays.copyOf( linkSqDisp, capacity );
+			nextLink = Arrays.copyOf( nextLink, capacity );
+		}
+		final int link = nLinks++;
+		linkSpot[ link ] = spot;
+		linkChild[ link ] = child;
+		linkSquaredDistance[ link ] = squaredDistance;
+		linkSqDisp[ link ] = sqDisp;
+		nextLink[ link ] = firstLink[ spot ];
+		firstLink[ spot ] = link;
+	}
+
+	void evictLink( final int link )
+	{
+		evictedLinks.set( link );
+	}
+
+	boolean isEvicted( final int link )
+	{
+		return evictedLinks.get( link );
+	}
+
+	int numSpots()
+	{
+		return nSpots;
+	}
+
+	int numLinks()
+	{
+		return nLinks;
+	}
+
+	/**
+	 * @return the first link of the staged spot, or -1.
+	 */
+	int firstLink( final int spot )
+	{
+		return firstLink[ spot ];
+	}
+
+	/**
+	 * @return the next link of the same staged spot, or -1.
+	 */
+	int nextLink( final int link )
+	{
+		return nextLink[ link ];
+	}
+
+	int getLinkSpot( final int link )
+	{
+		return linkSpot[ link ];
+	}
+
+	int getLinkChild( final int link )
+	{
+		return linkChild[ link ];
+	}
+
+	double getLinkSquaredDistance( final int link )
+	{
+		return linkSquaredDistance[ link ];
+	}
+
+	double getLinkSqDisp( final int link )
+	{
+		return linkSqDisp[ link ];
+	}
+
+	/**
+	 * @return the id of the parent of the staged spot, or -1.
+	 */
+	int getParent( final int spot )
+	{
+		return parents[ spot ];
+	}
+
+	void getPosition( final int spot, final double[] position )
+	{
+		System.arraycopy( pos, spot * 3, position, 0, 3 );
+	}
+
+	void getCovariance( final int spot, final double[][] covariance )
+	{
+		for ( int i = 0; i < 3; i++ )
+			System.arraycopy( cov, spot * 9 + i * 3, covariance[ i ], 0, 3 );
+	}
+
+	/**
+	 * Find the {@code k} nearest staged spots within the linking radius,
+	 * nearest first.
+	 * 
+	 * @return the number of spots found.
+	 */
+	int nearest( final double x, final double y, final double z, final int k, final int[] indices, final double[] squaredDistances )
+	{
+		if ( nSpots == 0 || k <= 0 )
+			return 0;
+		int n = 0;
+		final long cx = cell( x );
+		final long cy = cell( y );
+		final long cz = cell( z );
+		for ( long ix = cx - 1; ix <= cx + 1; ix++ )
+		{
+			for ( long iy = cy - 1; iy <= cy + 1; iy++ )
+			{
+				for ( long iz = cz - 1; iz <= cz + 1; iz++ )
+				{
+					for ( int i = cells.get( cellOf( ix, iy, iz ), -1 ); 0 <= i; i = nextInCell[ i ] )
+					{
+						final double dx = pos[ i * 3 ] - x;
+						final double dy = pos[ i * 3 + 1 ] - y;
+						final double dz = pos[ i * 3 + 2 ] - z;
+						final double sqDist = dx * dx + dy * dy + dz * dz;
+						if ( squaredRadius < sqDist || ( n == k && squaredDistances[ n - 1 ] <= sqDist ) )
+							continue;
+						// insertion into the sorted results
+						int j = n < k ? n++ : n - 1;
+						while ( 0 < j && sqDist < squaredDistances[ j - 1 ] )
+						{
+							indices[ j ] = indices[ j - 1 ];
+							squaredDistances[ j ] = squaredDistances[ j - 1 ];
+							j--;
+						}
+						indices[ j ] = i;
+						squaredDistances[ j ] = sqDist;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	private long cell( final double coordinate )
+	{
+		return ( long ) Math.floor( coordinate / cellSize );
+	}
+
+	private static long cellOf( final long ix, final long iy, final long iz )
+	{
+		return ( ( ix & 0x1FFFFF ) << 42 ) | ( ( iy & 0x1FFFFF ) << 21 ) | ( iz & 0x1FFFFF );
+	}
+
+	/**
+	 * An open-addressing hash map from {@code long} keys to {@code int}
+	 * values with linear probing.
+	 */
+	private static final class LongIntMap
+	{
+
+		private long[] keys = new long[ 64 ];
+
+		private int[] values = new int[ 64 ];
+
+		private boolean[] used = new boolean[ 64 ];
+
+		private int size;
+
+		int get( final long key, final int defaultValue )
+		{
+			final int mask = keys.length - 1;
+			for ( int i = hash( key ) & mask; used[ i ]; i = ( i + 1 ) & mask )
+			{
+				if ( keys[ i ] == key )
+					return values[ i ];
+			}
+			return defaultValue;
+		}
+
+		void put( final long key, final int value )
+		{
+			if ( keys.length <= 2 * ( size + 1 ) )
+				rehash( keys.length * 2 );
+			final int mask = keys.length - 1;
+			int i = hash( key ) & mask;
+			while ( used[ i ] && keys[ i ] != key )
+				i = ( i + 1 ) & mask;
+			if ( !used[ i ] )
+			{
+				used[ i ] = true;
+				keys[ i ] = key;
+				size++;
+			}
+			values[ i ] = value;
+		}
+
+		private void rehash( final int capacity )
+		{
+			final long[] oldKeys = keys;
+			final int[] oldValues = values;
+			final boolean[] oldUsed = used;
+			keys = new long[ capacity ];
+			values = new int[ capacity ];
+			used = new boolean[ capacity ];
+			final int mask = capacity - 1;
+			for ( int j = 0; j < oldKeys.length; j++ )
+			{
+				if ( !oldUsed[ j ] )
+					continue;
+				int i = hash( oldKeys[ j ] ) & mask;
+				while ( used[ i ] )
+					i = ( i + 1 ) & mask;
+				used[ i ] = true;
+				keys[ i ] = oldKeys[ j ];
+				values[ i ] = oldValues[ j ];
+			}
+		}
+
+		private static int hash( final long key )
+		{
+			final long h = key * 0x9E3779B97F4A7C15L;
+			return ( int ) ( h ^ ( h >>> 32 ) );
+		}
+
+	}
+
+}
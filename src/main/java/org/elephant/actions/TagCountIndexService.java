@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.elephant.actions.mixins.ElephantTagActionMixin;
+import org.elephant.actions.mixins.GraphActionMixin;
+import org.mastodon.collection.RefMaps;
+import org.mastodon.collection.RefObjectMap;
+import org.mastodon.graph.GraphListener;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.mamut.plugin.MamutPluginAppModel;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetModel.TagSetModelListener;
+import org.mastodon.model.tag.TagSetStructure.Tag;
+import org.mastodon.model.tag.TagSetStructure.TagSet;
+import org.mastodon.properties.PropertyChangeListener;
+
+/**
+ * Keep the number of spots per timepoint and per tag.
+ * 
+ * <p>
+ * The counts are kept up to date from the graph and tag events: a spot is
+ * counted when it is added, its tags are counted again whenever they change,
+ * and it is uncounted when it is removed. The tag each spot is counted with
+ * is remembered per tag set, so that every event moves one spot from one
+ * count to another regardless of the order in which the events arrive. The
+ * totals over all timepoints are kept alongside. The counts are only built
+ * from scratch when the graph is rebuilt or the tag set structure changes.
+ * 
+ * <p>
+ * One instance is shared by all the plugins of a project, see
+ * {@link #get(MamutPluginAppModel)}.
+ * 
+ * <p>
+ * Lock order is always graph lock first, then this service.
+ * 
+ * @author Ko Sugawara
+ */
+public class TagCountIndexService extends AbstractElephantService
+		implements GraphActionMixin, ElephantTagActionMixin, GraphListener< Spot, Link >, PropertyChangeListener< Spot >, TagSetModelListener
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The index of each open project. The values are weakly referenced, as
+	 * an index is kept alive by the graph listeners as long as its graph.
+	 */
+	private static final Map< MamutPluginAppModel, WeakReference< TagCountIndexService > > INDICES = new WeakHashMap<>();
+
+	private final Map< Integer, Map< Tag, Integer > > countsMap = new HashMap<>();
+
+	private final Map< Tag, Integer > totalCounts = new HashMap<>();
+
+	/** The tag each spot is counted with, per tag set. */
+	private final Map< TagSet, RefObjectMap< Spot, Tag > > countedTags = new HashMap<>();
+
+	private TagCountIndexService()
+	{
+		super();
+	}
+
+	/**
+	 * Get the index of the project, which is created and initialized on first
+	 * use.
+	 */
+	public static synchronized TagCountIndexService get( final MamutPluginAppModel pluginAppModel )
+	{
+		final WeakReference< TagCountIndexService > reference = INDICES.get( pluginAppModel );
+		TagCountIndexService index = reference == null ? null : reference.get();
+		if ( index == null )
+		{
+			index = new TagCountIndexService();
+			index.init( pluginAppModel );
+			INDICES.put( pluginAppModel, new WeakReference<>( index ) );
+		}
+		return index;
+	}
+
+	@Override
+	public void init( final MamutPluginAppModel pluginAppModel )
+	{
+		super.init( pluginAppModel, null );
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			rebuild();
+			getGraph().addGraphListener( this );
+			getTagSetModel().getVertexTags().propertyChangeListeners().add( this );
+			getTagSetModel().listeners().add( this );
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of spots at the timepoint that have the tag.
+	 */
+	public synchronized int getCount( final int timepoint, final Tag tag )
+	{
+		final Map< Tag, Integer > counts = countsMap.get( timepoint );
+		final Integer count = counts == null ? null : counts.get( tag );
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Get the number of spots per tag at the timepoint, for the tags in the
+	 * tag set that are used at least once.
+	 */
+	public synchronized Map< Tag, Integer > getCounts( final int timepoint, final TagSet tagSet )
+	{
+		return usedTags( countsMap.getOrDefault( timepoint, new HashMap<>() ), tagSet );
+	}
+
+	/**
+	 * Get the number of spots per tag over all timepoints, for the tags in the
+	 * tag set that are used at least once.
+	 */
+	public synchronized Map< Tag, Integer > getTotalCounts( final TagSet tagSet )
+	{
+		return usedTags( totalCounts, tagSet );
+	}
+
+	private static Map< Tag, Integer > usedTags( final Map< Tag, Integer > counts, final TagSet tagSet )
+	{
+		final Map< Tag, Integer > used = new HashMap<>();
+		counts.forEach( ( tag, count ) -> {
+			if ( tagSet.getTags().contains( tag ) && 0 < count )
+				used.put( tag, count );
+		} );
+		return used;
+	}
+
+	/**
+	 * Count the spot again with its current tags. Must be called with the
+	 * graph lock held.
+	 */
+	private synchronized void recount( final Spot spot )
+	{
+		for ( final TagSet tagSet : getTagSetModel().getTagSetStructure().getTagSets() )
+		{
+			final RefObjectMap< Spot, Tag > counted = countedTags.get( tagSet );
+			if ( counted == null )
+				continue;
+			final Tag from = counted.get( spot );
+			final Tag to = getVertexTagMap( tagSet ).get( spot );
+			if ( from == to )
+				continue;
+			if ( to == null )
+				counted.remove( spot );
+			else
+				counted.put( spot, to );
+			move( spot.getTimepoint(), from, to );
+		}
+	}
+
+	/**
+	 * Uncount the spot from all its counted tags. Must be called with the
+	 * graph lock held.
+	 */
+	private synchronized void uncount( final Spot spot )
+	{
+		for ( final RefObjectMap< Spot, Tag > counted : countedTags.values() )
+			move( spot.getTimepoint(), counted.remove( spot ), null );
+	}
+
+	/**
+	 * Move one spot at the timepoint from the count of {@code from} to that of
+	 * {@code to}. {@code null} stands for no tag.
+	 */
+	private void move( final int timepoint, final Tag from, final Tag to )
+	{
+		final Map< Tag, Integer > counts = countsMap.computeIfAbsent( timepoint, t -> new HashMap<>() );
+		if ( from != null )
+		{
+			counts.merge( from, -1, Integer::sum );
+			totalCounts.merge( from, -1, Integer::sum );
+		}
+		if ( to != null )
+		{
+			counts.merge( to, 1, Integer::sum );
+			totalCounts.merge( to, 1, Integer::sum );
+		}
+	}
+
+	/**
+	 * Count all the spots from scratch. Must be called with the graph lock
+	 * held.
+	 */
+	private synchronized void rebuild()
+	{
+		countsMap.clear();
+		totalCounts.clear();
+		countedTags.clear();
+		for ( final TagSet tagSet : getTagSetModel().getTagSetStructure().getTagSets() )
+		{
+			final RefObjectMap< Spot, Tag > counted = RefMaps.createRefObjectMap( getGraph().vertices() );
+			final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( tagSet );
+			for ( final Spot spot : getGraph().vertices() )
+			{
+				final Tag tag = tagMap.get( spot );
+				if ( tag == null )
+					continue;
+				counted.put( spot, tag );
+				move( spot.getTimepoint(), null, tag );
+			}
+			countedTags.put( tagSet, counted );
+		}
+	}
+
+	/**
+	 * GraphListener< Spot, Link >
+	 */
+
+	@Override
+	public void graphRebuilt()
+	{
+		rebuild();
+	}
+
+	@Override
+	public void vertexAdded( final Spot vertex )
+	{
+		recount( vertex );
+	}
+
+	@Override
+	public void vertexRemoved( final Spot vertex )
+	{
+		uncount( vertex );
+	}
+
+	@Override
+	public void edgeAdded( final Link edge )
+	{}
+
+	@Override
+	public void edgeRemoved( final Link edge )
+	{}
+
+	/**
+	 * PropertyChangeListener< Spot >
+	 */
+
+	@Override
+	public void propertyChanged( final Spot spot )
+	{
+		recount( spot );
+	}
+
+	/**
+	 * TagSetModelListener
+	 */
+
+	@Override
+	public void tagSetStructureChanged()
+	{
+		getGraph().getLock().readLock().lock();
+		try
+		{
+			rebuild();
+		}
+		finally
+		{
+			getGraph().getLock().readLock().unlock();
+		}
+	}
+
+}
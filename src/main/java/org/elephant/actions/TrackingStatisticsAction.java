@@ -26,18 +26,14 @@
  ******************************************************************************/
 package org.elephant.actions;
 
-import java.util.stream.Collectors;
-
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 
 import org.elephant.actions.mixins.ElephantTagActionMixin;
 import org.elephant.actions.mixins.GraphActionMixin;
+import org.elephant.actions.mixins.TagCountIndexMixin;
 import org.elephant.actions.mixins.TimepointMixin;
-import org.mastodon.mamut.model.Spot;
-import org.mastodon.model.tag.ObjTagMap;
-import org.mastodon.model.tag.TagSetStructure.Tag;
 
 /**
  * Display the summary of the tracking in the following format.
@@ -52,7 +48,7 @@ import org.mastodon.model.tag.TagSetStructure.Tag;
  * @author Ko Sugawara
  */
 public class TrackingStatisticsAction extends AbstractElephantAction
-		implements GraphActionMixin, ElephantTagActionMixin, TimepointMixin
+		implements GraphActionMixin, ElephantTagActionMixin, TagCountIndexMixin, TimepointMixin
 {
 
 	private static final long serialVersionUID = 1L;
@@ -83,27 +79,15 @@ public class TrackingStatisticsAction extends AbstractElephantAction
 	@Override
 	public void process()
 	{
-		getGraph().getLock().readLock().lock();
-		try
-		{
-			final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( getTrackingTagSet() );
-			final StringBuilder stringBuilder = new StringBuilder();
-			stringBuilder.append( "All timepoints:" );
-			getGraph().vertices().stream()
-					.collect( Collectors.groupingBy( spot -> tagMap.get( spot ).label(), Collectors.counting() ) )
-					.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k, v ) ) );
-			final int currentTimepoint = getCurrentTimepoint( 0 );
-			stringBuilder.append( String.format( "\nTimepoint (%d): ", currentTimepoint ) );
-			getGraph().vertices().stream()
-					.filter( spot -> spot.getTimepoint() == currentTimepoint )
-					.collect( Collectors.groupingBy( spot -> tagMap.get( spot ).label(), Collectors.counting() ) )
-					.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k, v ) ) );
-			SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null, new JTextArea( stringBuilder.toString() ) ) );
-		}
-		finally
-		{
-			getGraph().getLock().readLock().unlock();
-		}
+		final StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append( "All timepoints:" );
+		getTagCountIndexService().getTotalCounts( getTrackingTagSet() )
+				.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k.label(), v ) ) );
+		final int currentTimepoint = getCurrentTimepoint( 0 );
+		stringBuilder.append( String.format( "\nTimepoint (%d): ", currentTimepoint ) );
+		getTagCountIndexService().getCounts( currentTimepoint, getTrackingTagSet() )
+				.forEach( ( k, v ) -> stringBuilder.append( String.format( "\n\t%s: %d", k.label(), v ) ) );
+		SwingUtilities.invokeLater( () -> JOptionPane.showMessageDialog( null, new JTextArea( stringBuilder.toString() ) ) );
 	}
 
 }
@@ -235,6 +235,7 @@ public class TrainDetectionAction extends AbstractElephantDatasetAction
 		{
 			getActionStateManager().setLivemode( true );
 		}
+		PredictionCache.INSTANCE.setModelUpdating( true );
 
 		try
 		{
@@ -264,22 +265,26 @@ public class TrainDetectionAction extends AbstractElephantDatasetAction
 						finally
 						{
 							getActionStateManager().setLivemode( false );
+							PredictionCache.INSTANCE.setModelUpdating( false );
 						}
 					},
 					e -> {
 						handleError( e );
 						getClientLogger().severe( "The request has failed" );
 						getActionStateManager().setLivemode( false );
+						PredictionCache.INSTANCE.setModelUpdating( false );
 						showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
 					},
 					() -> {
 						getClientLogger().info( "The request has been cancelled" );
 						getActionStateManager().setLivemode( false );
+						PredictionCache.INSTANCE.setModelUpdating( false );
 					} );
 		}
 		catch ( final ElephantConnectException e )
 		{
 			getActionStateManager().setLivemode( false );
+			PredictionCache.INSTANCE.setModelUpdating( false );
 		}
 	}
 
@@ -40,6 +40,9 @@ public class UnirestService extends AbstractElephantService
 
 	private static final int UNIREST_TIMEOUT = 24 * 60 * 60 * 1000;
 
+	/** The maximum number of connections to the server. */
+	static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+
 	public UnirestService()
 	{
 		super();
@@ -47,7 +50,7 @@ public class UnirestService extends AbstractElephantService
 				.reset()
 				.socketTimeout( UNIREST_TIMEOUT )
 				.connectTimeout( UNIREST_TIMEOUT )
-				.concurrency( 200, 20 )
+				.concurrency( 200, MAX_CONNECTIONS_PER_ROUTE )
 				.addDefaultHeader( "Cache-Control", "no-cache" )
 				.addDefaultHeader( "Connection", "keep-alive" );
 	}
@@ -194,6 +194,7 @@ public class UpdateDetectionLabelsAction extends AbstractElephantDatasetAction
 						if ( response.getStatus() == HttpURLConnection.HTTP_OK )
 						{
 							final JsonObject rootObject = Json.parse( response.getBody() ).asObject();
+							PredictionCache.INSTANCE.invalidateSpeculative();
 							final String message = rootObject.get( "completed" ).asBoolean() ? "Detection labels are updated" : "Update aborted";
 							showTextOverlayAnimator( message, 3000, TextOverlayAnimator.TextPosition.CENTER );
 						}
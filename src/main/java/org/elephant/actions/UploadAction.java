@@ -27,13 +27,25 @@
 package org.elephant.actions;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
@@ -44,8 +56,16 @@ import org.elephant.actions.mixins.ElephantConstantsMixin;
 import org.elephant.actions.mixins.URLMixin;
 import org.elephant.actions.mixins.UnirestMixin;
 
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
 import bdv.img.hdf5.Hdf5ImageLoader;
 import bdv.img.hdf5.Partition;
+import kong.unirest.ContentType;
+import kong.unirest.Empty;
+import kong.unirest.HttpResponse;
+import kong.unirest.MultipartBody;
 import kong.unirest.Unirest;
 
 /**
@@ -76,64 +96,252 @@ public class UploadAction extends AbstractElephantAction
 		super( NAME );
 	}
 
-	private void uploadFile( final File file, final UploadDialog uploadDialog, final String labelPrefix )
+	/**
+	 * Upload a file in chunks of {@link #CHUNK_SIZE} bytes, each streamed
+	 * from its region of the file as the body of a multipart request.
+	 * <p>
+	 * The first chunk initializes the file on the server. The other chunks
+	 * are addressed by their offsets, so that up to the configured number of
+	 * them are uploaded concurrently on the executor shared by the files and
+	 * the server assembles them in any order. The first chunk carries the
+	 * size of the file.
+	 * <p>
+	 * If the server already holds a part of the file from an interrupted
+	 * upload, the file is not initialized again and only the chunks that are
+	 * missing on the server or whose CRC32 checksums do not match are
+	 * uploaded. Only the chunks held by the server are hashed locally, so that
+	 * a fresh upload reads the file once.
+	 * <p>
+	 * If a chunk fails, the upload of all the files stops and the file is
+	 * left incomplete on the server, so that the next upload resumes it.
+	 */
+	private void uploadFile( final File file, final UploadProgress progress, final ExecutorService chunkExecutor )
 	{
-		final byte[] buff = new byte[ CHUNK_SIZE ];
-		final long fileSize = file.length();
-		long bytesOffset = 0;
-		try (final InputStream fis = new FileInputStream( file ))
+		final UploadDialog uploadDialog = progress.uploadDialog;
+		try (final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
 		{
-			while ( !uploadDialog.isCancelled() )
+			final long fileSize = channel.size();
+			final int nChunks = ( int ) ( ( fileSize + CHUNK_SIZE - 1 ) / CHUNK_SIZE );
+			final long[] checksums = getUploadedChecksums( file, fileSize, nChunks );
+			final int firstChunk = checksums == null ? 1 : 0;
+			if ( checksums == null && 0 < nChunks && !progress.isStopped() )
+				uploadChunk( channel, file, 0, fileSize, "init", -1, progress );
+			if ( firstChunk < nChunks && !progress.isStopped() )
 			{
-				final int readBytes = fis.read( buff );
-				if ( readBytes == -1 )
-				{
-					break;
-				}
-				final long bytesOffsetFinal = bytesOffset;
-				final File tempFile = File.createTempFile( "elephant", ".h5", null );
+				// the chunks of this file in flight
+				final Semaphore chunkPermits = new Semaphore( Math.max( 1, getMainSettings().getUploadConcurrentChunks() ) );
+				final List< Future< Void > > futures = new ArrayList<>();
 				try
 				{
-					try (final FileOutputStream fos = new FileOutputStream( tempFile ))
+					for ( int chunk = firstChunk; chunk < nChunks && !progress.isStopped(); chunk++ )
 					{
-						fos.write( buff );
+						final long bytesOffset = ( long ) chunk * CHUNK_SIZE;
+						final long uploadedChecksum = checksums == null ? -1 : checksums[ chunk ];
+						chunkPermits.acquire();
+						futures.add( chunkExecutor.submit( () -> {
+							try
+							{
+								if ( !progress.isStopped() )
+									uploadChunk( channel, file, bytesOffset, fileSize, "append", uploadedChecksum, progress );
+								return null;
+							}
+							catch ( final IOException | RuntimeException e )
+							{
+								// stop the chunks that have not started yet
+								progress.fail( e );
+								throw e;
+							}
+							finally
+							{
+								chunkPermits.release();
+							}
+						} ) );
 					}
-					Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
-							.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
-							.field( "filename", file.getName() )
-							.field( "action", bytesOffset == 0 ? "init" : "append" )
-							.field( "file", tempFile )
-							.uploadMonitor( ( field, fileName, bytesWritten, totalBytes ) -> {
-								uploadDialog.setLabelText( labelPrefix + String.format( "%.2f MB / %.2f MB", toMB( Math.min( fileSize, bytesOffsetFinal + bytesWritten ) ), toMB( fileSize ) ) );
-								uploadDialog.setProgressBarValue( ( int ) ( 100 * ( bytesOffsetFinal + bytesWritten ) / fileSize ) );
-							} )
-							.asEmpty();
-					bytesOffset += readBytes;
+					for ( final Future< Void > future : futures )
+						future.get();
 				}
 				finally
 				{
-					tempFile.delete();
+					for ( final Future< Void > future : futures )
+						future.cancel( true );
 				}
 			}
+			// keep the chunks on the server to resume the upload after a failure
+			if ( progress.isFailed() )
+				return;
 			Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
 					.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
 					.field( "filename", file.getName() )
 					.field( "action", uploadDialog.isCancelled() ? "cancel" : "complete" )
 					.asEmpty();
+			progress.completeFile();
 		}
 		catch ( final IOException e )
 		{
 			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			progress.fail( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			progress.fail( e.getCause() );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Ask the server for the chunks of the file that it already holds. The
+	 * upload is resumed only if the size stored by the server from the
+	 * {@code init} request matches the local size.
+	 * 
+	 * @return the CRC32 checksums of the chunks held by the server, with
+	 *         {@code -1} for the missing ones, or {@code null} if the upload
+	 *         cannot be resumed and has to start from the beginning.
+	 */
+	private long[] getUploadedChecksums( final File file, final long fileSize, final int nChunks )
+	{
+		final HttpResponse< String > response = Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+				.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+				.field( "filename", file.getName() )
+				.field( "action", "status" )
+				.asString();
+		if ( !response.isSuccess() )
+			return null;
+		final long[] checksums = new long[ nChunks ];
+		Arrays.fill( checksums, -1 );
+		int nUploaded = 0;
+		try
+		{
+			final JsonObject status = Json.parse( response.getBody() ).asObject();
+			if ( status.getLong( "size", -1 ) != fileSize )
+				return null;
+			for ( final JsonValue value : status.get( "chunks" ).asArray() )
+			{
+				final JsonObject chunk = value.asObject();
+				final long offset = chunk.getLong( "offset", -1 );
+				if ( offset < 0 || offset % CHUNK_SIZE != 0 || fileSize <= offset )
+					continue;
+				if ( chunk.getLong( "length", -1 ) != Math.min( CHUNK_SIZE, fileSize - offset ) )
+					continue;
+				checksums[ ( int ) ( offset / CHUNK_SIZE ) ] = chunk.getLong( "checksum", -1 );
+				nUploaded++;
+			}
+		}
+		catch ( final RuntimeException e )
+		{
+			// the server does not support resumable uploads
+			return null;
+		}
+		if ( nUploaded == 0 )
+			return null;
+		getClientLogger().info( String.format( "Resume the upload of %s: %d / %d chunks on the server", file.getName(), nUploaded, nChunks ) );
+		return checksums;
+	}
+
+	/**
+	 * Upload a chunk of the file, unless the server already holds it with
+	 * the same checksum. The checksum is computed and sent only if the server
+	 * holds the chunk.
+	 * 
+	 * @param uploadedChecksum
+	 *            the checksum of the chunk held by the server, or {@code -1}
+	 *            if the server does not hold it.
+	 */
+	private void uploadChunk( final FileChannel channel, final File file, final long bytesOffset, final long fileSize, final String action, final long uploadedChecksum, final UploadProgress progress ) throws IOException
+	{
+		final long chunkSize = Math.min( CHUNK_SIZE, fileSize - bytesOffset );
+		final long checksum = uploadedChecksum < 0 ? -1 : checksum( channel, bytesOffset, chunkSize );
+		if ( 0 <= checksum && checksum == uploadedChecksum )
+		{
+			progress.add( chunkSize );
 			return;
 		}
+		final long[] bytesReported = new long[ 1 ];
+		final MultipartBody request = Unirest.post( getEndpointURL( ENDPOINT_UPLOAD_IMAGE ) )
+				.field( JSON_KEY_DATASET_NAME, getMainSettings().getDatasetName() )
+				.field( "filename", file.getName() )
+				.field( "action", action )
+				.field( "offset", Long.toString( bytesOffset ) );
+		if ( "init".equals( action ) )
+			request.field( "size", Long.toString( fileSize ) );
+		if ( 0 <= checksum )
+			request.field( "checksum", Long.toString( checksum ) );
+		final HttpResponse< Empty > response = request
+				.field( "file", new FileRegionInputStream( channel, bytesOffset, chunkSize ), ContentType.APPLICATION_OCTET_STREAM, file.getName() )
+				.uploadMonitor( ( field, fileName, bytesWritten, totalBytes ) -> {
+					progress.add( bytesWritten - bytesReported[ 0 ] );
+					bytesReported[ 0 ] = bytesWritten;
+				} )
+				.asEmpty();
+		if ( !response.isSuccess() )
+			throw new IOException( String.format( "Failed to upload %s at %d: %s", file.getName(), bytesOffset, response.getStatusText() ) );
 	}
 
-	private void uploadPartition( final Partition partition, final int i, final UploadDialog uploadDialog, final int nPartitions )
+	/**
+	 * Upload the files, up to the configured number of them concurrently.
+	 * <p>
+	 * The chunks of all the files share one executor, whose size is capped to
+	 * the number of connections that Unirest keeps to the server, so that no
+	 * thread waits for a connection.
+	 * 
+	 * @return the failure that stopped the upload, or {@code null} if the
+	 *         files were uploaded or the upload was cancelled.
+	 */
+	private Throwable uploadFiles( final List< File > files, final UploadDialog uploadDialog )
 	{
-		getClientLogger().info( partition.getPath() );
-		final File hdf5File = new File( partition.getPath() );
-		final String labelPrefix = String.format( "%d / %d: ", i + 1, nPartitions );
-		uploadFile( hdf5File, uploadDialog, labelPrefix );
+		long totalBytes = 0;
+		for ( final File file : files )
+			totalBytes += file.length();
+		final UploadProgress progress = new UploadProgress( uploadDialog, files.size(), totalBytes );
+		final int nFileThreads = Math.max( 1, Math.min( files.size(), getMainSettings().getUploadConcurrentPartitions() ) );
+		final int nChunkThreads = nFileThreads * Math.max( 1, getMainSettings().getUploadConcurrentChunks() );
+		if ( UnirestService.MAX_CONNECTIONS_PER_ROUTE < nChunkThreads )
+			getClientLogger().info( String.format( "Upload at most %d chunks concurrently", UnirestService.MAX_CONNECTIONS_PER_ROUTE ) );
+		final ExecutorService fileExecutor = Executors.newFixedThreadPool( nFileThreads );
+		final ExecutorService chunkExecutor = Executors.newFixedThreadPool( Math.min( nChunkThreads, UnirestService.MAX_CONNECTIONS_PER_ROUTE ) );
+		try
+		{
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( final File file : files )
+			{
+				getClientLogger().info( file.getPath() );
+				futures.add( fileExecutor.submit( () -> uploadFile( file, progress, chunkExecutor ) ) );
+			}
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			getClientLogger().severe( ExceptionUtils.getStackTrace( e ) );
+			progress.fail( e.getCause() );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			fileExecutor.shutdownNow();
+			chunkExecutor.shutdownNow();
+		}
+		return progress.getFailure();
+	}
+
+	private void showUploadFailed( final Throwable failure )
+	{
+		try
+		{
+			SwingUtilities.invokeAndWait( () -> JOptionPane.showMessageDialog( null,
+					"Upload failed: " + failure.getMessage() + "\nUpload again to resume it.",
+					"Upload failed", JOptionPane.ERROR_MESSAGE ) );
+		}
+		catch ( InvocationTargetException | InterruptedException e )
+		{
+			handleError( e );
+		}
 	}
 
 	@Override
@@ -157,13 +365,17 @@ public class UploadAction extends AbstractElephantAction
 			SwingUtilities.invokeLater( () -> uploadDialog.setVisible( true ) );
 			try
 			{
-				final ArrayList< Partition > partitions = getPartitions();
-				final int nPartitions = partitions.size();
-				final AtomicInteger count = new AtomicInteger();
-				for ( final Partition partition : partitions )
+				final List< File > files = new ArrayList<>();
+				for ( final Partition partition : getPartitions() )
 				{
 					getClientLogger().info( partition.toString() );
-					uploadPartition( partition, count.getAndIncrement(), uploadDialog, nPartitions );
+					files.add( new File( partition.getPath() ) );
+				}
+				final Throwable failure = uploadFiles( files, uploadDialog );
+				if ( failure != null )
+				{
+					showUploadFailed( failure );
+					return;
 				}
 				if ( uploadDialog.isCancelled() )
 				{
@@ -191,7 +403,9 @@ public class UploadAction extends AbstractElephantAction
 			SwingUtilities.invokeLater( () -> uploadDialog.setVisible( true ) );
 			try
 			{
-				uploadFile( hdf5File, uploadDialog, "" );
+				final Throwable failure = uploadFiles( Collections.singletonList( hdf5File ), uploadDialog );
+				if ( failure != null )
+					showUploadFailed( failure );
 			}
 			finally
 			{
@@ -200,9 +414,110 @@ public class UploadAction extends AbstractElephantAction
 		}
 	}
 
+	private static long checksum( final FileChannel channel, final long position, final long length ) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( 64 * 1024 );
+		long offset = 0;
+		while ( offset < length )
+		{
+			buffer.clear();
+			buffer.limit( ( int ) Math.min( buffer.capacity(), length - offset ) );
+			final int n = channel.read( buffer, position + offset );
+			if ( n < 0 )
+				throw new IOException( "Unexpected end of file" );
+			buffer.flip();
+			crc.update( buffer );
+			offset += n;
+		}
+		return crc.getValue();
+	}
+
 	private static double toMB( final long bytes )
 	{
 		return ( double ) bytes / 1024 / 1024;
 	}
 
+	/**
+	 * The progress of an upload, aggregated over the files and the chunks
+	 * uploaded concurrently.
+	 */
+	private static final class UploadProgress
+	{
+
+		private final UploadDialog uploadDialog;
+
+		private final int nFiles;
+
+		private final long totalBytes;
+
+		private final AtomicInteger nCompletedFiles = new AtomicInteger();
+
+		private final AtomicLong uploadedBytes = new AtomicLong();
+
+		private final AtomicBoolean isUpdatePending = new AtomicBoolean();
+
+		private final AtomicReference< Throwable > failure = new AtomicReference<>();
+
+		private UploadProgress( final UploadDialog uploadDialog, final int nFiles, final long totalBytes )
+		{
+			this.uploadDialog = uploadDialog;
+			this.nFiles = nFiles;
+			this.totalBytes = totalBytes;
+		}
+
+		private void add( final long bytes )
+		{
+			uploadedBytes.addAndGet( bytes );
+			update();
+		}
+
+		/**
+		 * Record the first failure, which stops the upload of all the files.
+		 */
+		private void fail( final Throwable t )
+		{
+			failure.compareAndSet( null, t );
+		}
+
+		private Throwable getFailure()
+		{
+			return failure.get();
+		}
+
+		private boolean isFailed()
+		{
+			return failure.get() != null;
+		}
+
+		private boolean isStopped()
+		{
+			return uploadDialog.isCancelled() || isFailed();
+		}
+
+		private void completeFile()
+		{
+			nCompletedFiles.incrementAndGet();
+			update();
+		}
+
+		/**
+		 * Update the dialog on the EDT, at most once per pending update, as the
+		 * progress is reported from the upload threads.
+		 */
+		private void update()
+		{
+			if ( !isUpdatePending.compareAndSet( false, true ) )
+				return;
+			SwingUtilities.invokeLater( () -> {
+				isUpdatePending.set( false );
+				final long bytes = Math.min( totalBytes, uploadedBytes.get() );
+				final String prefix = 1 < nFiles ? String.format( "%d / %d: ", nCompletedFiles.get(), nFiles ) : "";
+				uploadDialog.setLabelText( prefix + String.format( "%.2f MB / %.2f MB", toMB( bytes ), toMB( totalBytes ) ) );
+				uploadDialog.setProgressBarValue( totalBytes == 0 ? 100 : ( int ) ( 100 * bytes / totalBytes ) );
+			} );
+		}
+
+	}
+
 }
@@ -44,7 +44,7 @@ public class UploadDialog extends JDialog
 
 	private final JButton btnCancel = new JButton( "Cancel" );
 
-	private boolean isCancelled = false;
+	private volatile boolean isCancelled = false;
 
 	public UploadDialog()
 	{
@@ -168,6 +168,8 @@ public interface ElephantConstantsMixin
 
 	public static final String JSON_KEY_PREDICT_CROP_BOX = "crop_box";
 
+	public static final String JSON_KEY_PREDICT_CROP_BOXES = "crop_boxes";
+
 	public static final String JSON_KEY_C_RATIO = "c_ratio";
 
 	public static final String JSON_KEY_P_THRESH = "p_thresh";
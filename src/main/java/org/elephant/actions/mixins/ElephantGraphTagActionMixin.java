@@ -27,6 +27,7 @@
 package org.elephant.actions.mixins;
 
 import java.util.Collection;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 
 import org.mastodon.collection.RefCollection;
@@ -97,6 +98,45 @@ public interface ElephantGraphTagActionMixin
 		}
 	}
 
+	/**
+	 * Apply {@code nEdits} graph edits holding the write lock in chunks. The
+	 * lock is released and re-acquired each time a chunk has held it for
+	 * {@code budgetNanos}, so that readers such as the UI are not blocked
+	 * while a large edit set is applied.
+	 * 
+	 * @param nEdits
+	 *            the number of edits.
+	 * @param edit
+	 *            applies the edit with the given index; called with the write
+	 *            lock held.
+	 * @param budgetNanos
+	 *            the maximum time in nanoseconds to hold the write lock at
+	 *            once.
+	 */
+	default void applyInWriteLockedChunks( final int nEdits, final IntConsumer edit, final long budgetNanos )
+	{
+		int i = 0;
+		while ( i < nEdits )
+		{
+			getGraph().getLock().writeLock().lock();
+			getActionStateManager().setWriting( true );
+			try
+			{
+				final long deadline = System.nanoTime() + budgetNanos;
+				do
+				{
+					edit.accept( i++ );
+				}
+				while ( i < nEdits && System.nanoTime() < deadline );
+			}
+			finally
+			{
+				getActionStateManager().setWriting( false );
+				getGraph().getLock().writeLock().unlock();
+			}
+		}
+	}
+
 	default void addSpotsToJson( final Iterable< Spot > spots, final JsonArray jsonSpots, final Predicate< Spot > filter )
 	{
 		final ObjTagMap< Spot, Tag > tagMap = getVertexTagMap( getDetectionTagSet() );
@@ -26,6 +26,8 @@
  ******************************************************************************/
 package org.elephant.actions.mixins;
 
+import java.util.BitSet;
+
 import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Spot;
 
@@ -69,4 +71,29 @@ public class ElephantUtils
 		return true;
 	}
 
+	/**
+	 * Format timepoints as comma-separated ranges, e.g. {@code 0-4, 7}.
+	 * 
+	 * @param timepoints
+	 *            the timepoints.
+	 * @return the formatted timepoints, or {@code "none"} if empty.
+	 */
+	public static String formatTimepoints( final BitSet timepoints )
+	{
+		if ( timepoints.isEmpty() )
+			return "none";
+		final StringBuilder sb = new StringBuilder();
+		for ( int start = timepoints.nextSetBit( 0 ); 0 <= start; start = timepoints.nextSetBit( start ) )
+		{
+			final int end = timepoints.nextClearBit( start ) - 1;
+			if ( 0 < sb.length() )
+				sb.append( ", " );
+			sb.append( start );
+			if ( start < end )
+				sb.append( '-' ).append( end );
+			start = end + 1;
+		}
+		return sb.toString();
+	}
+
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (C) 2020, Ko Sugawara
+ * Copyright (C) 2021, Ko Sugawara
  * All rights reserved.
  * 
  * Redistribution and use in source and binary forms, with or without
@@ -26,21 +26,22 @@
  ******************************************************************************/
 package org.elephant.actions.mixins;
 
-import org.mastodon.views.bdv.overlay.util.JamaEigenvalueDecomposition;
+import org.elephant.actions.LinkLengthService;
+import org.mastodon.mamut.model.Link;
 
 /**
- * Provide access to a static instance of {@link JamaEigenvalueDecomposition}.
+ * Provide access to the cached squared lengths of the links.
  * 
  * @author Ko Sugawara
  */
-public interface EllipsoidActionMixin extends ElephantActionMixin
+public interface LinkLengthMixin extends ElephantActionMixin
 {
 
-	static final JamaEigenvalueDecomposition eig = new JamaEigenvalueDecomposition( 3, false );
+	LinkLengthService getLinkLengthService();
 
-	default JamaEigenvalueDecomposition getEig()
+	default double squaredLengthOf( final Link link )
 	{
-		return eig;
+		return getLinkLengthService().getSquaredLength( link );
 	}
 
 }
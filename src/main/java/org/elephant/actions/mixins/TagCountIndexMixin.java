@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (C) 2020, Ko Sugawara
+ * Copyright (C) 2021, Ko Sugawara
  * All rights reserved.
  * 
  * Redistribution and use in source and binary forms, with or without
@@ -24,33 +24,27 @@
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
  * POSSIBILITY OF SUCH DAMAGE.
  ******************************************************************************/
-package org.elephant.actions;
+package org.elephant.actions.mixins;
 
-import net.imglib2.util.LinAlgHelpers;
+import org.elephant.actions.TagCountIndexService;
+import org.mastodon.model.tag.TagSetStructure.Tag;
 
 /**
- * Extra helper functions for complementing {@link LinAlgHelpers}.
+ * Provide access to the per-timepoint spot counts by tag.
  * 
  * @author Ko Sugawara
  */
-public final class LinAlgHelpersExt
+public interface TagCountIndexMixin extends ElephantActionMixin
 {
-	static void compose( final double[][] V, final double[] d, double[][] cov )
+
+	default TagCountIndexService getTagCountIndexService()
 	{
-		final double[][] tmp = new double[ 3 ][ 3 ];
-		for ( int i = 0; i < d.length; i++ )
-		{
-			for ( int j = 0; j < d.length; j++ )
-			{
-				tmp[ i ][ j ] = V[ i ][ j ] * d[ j ];
-			}
-		}
-		LinAlgHelpers.multABT( tmp, V, cov );
+		return TagCountIndexService.get( getPluginAppModel() );
 	}
 
-	private LinAlgHelpersExt()
+	default int getSpotCount( final int timepoint, final Tag tag )
 	{
-		throw new AssertionError();
+		return getTagCountIndexService().getCount( timepoint, tag );
 	}
 
 }
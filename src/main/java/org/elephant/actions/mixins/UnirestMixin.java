@@ -27,11 +27,14 @@
 package org.elephant.actions.mixins;
 
 import java.io.File;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import javax.swing.JOptionPane;
 
+import org.elephant.actions.CancellationToken;
 import org.elephant.actions.ElephantStatusService.ElephantStatus;
 
 import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
@@ -154,6 +157,52 @@ public interface UnirestMixin extends ElephantActionMixin, ElephantStateManagerM
 		} );
 	}
 
+	default CompletableFuture< HttpResponse< String > > postAsStringAsync( final String endpointUrl, final String body, final CancellationToken token,
+			final Consumer< HttpResponse< String > > completed ) throws ElephantConnectException
+	{
+		return postAsStringAsync( endpointUrl, body, token, completed,
+				e -> {
+					handleError( e );
+					getClientLogger().severe( "The request has failed" );
+					showTextOverlayAnimator( e.getLocalizedMessage(), 3000, TextPosition.CENTER );
+				},
+				() -> getClientLogger().info( "The request has been cancelled" ) );
+	}
+
+	/**
+	 * Post a request that is cancelled with the token. Exactly one of the
+	 * callbacks is called. {@code cancelled} is called as soon as the token
+	 * is cancelled, and a response that arrives after that is discarded. The
+	 * request itself is not aborted, so the server has to be stopped
+	 * separately.
+	 */
+	default CompletableFuture< HttpResponse< String > > postAsStringAsync( final String endpointUrl, final String body, final CancellationToken token,
+			final Consumer< HttpResponse< String > > completed, final Consumer< UnirestException > failed, final Runnable cancelled ) throws ElephantConnectException
+	{
+		final AtomicBoolean isHandled = new AtomicBoolean();
+		final Runnable cancelledOnce = () -> {
+			if ( isHandled.compareAndSet( false, true ) )
+				cancelled.run();
+		};
+		final CompletableFuture< HttpResponse< String > > future = postAsStringAsync( endpointUrl, body,
+				response -> {
+					if ( token.isCancelled() )
+						cancelledOnce.run();
+					else if ( isHandled.compareAndSet( false, true ) )
+						completed.accept( response );
+				},
+				e -> {
+					if ( isHandled.compareAndSet( false, true ) )
+						failed.accept( e );
+				},
+				cancelledOnce );
+		future.whenComplete( ( response, e ) -> {
+			if ( e instanceof CancellationException )
+				cancelledOnce.run();
+		} );
+		return token.register( future );
+	}
+
 	default HttpResponse< String > postAsString( final String endpointUrl, final String body ) throws ElephantConnectException
 	{
 		return postBaseJson( endpointUrl, body ).asString();
@@ -70,6 +70,22 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	public static final int DEFAULT_BATCH_SIZE = 1;
 
+	public static final int DEFAULT_PIPELINE_WINDOW_SIZE = 1;
+
+	public static final int DEFAULT_LINKING_PIPELINE_WINDOW_SIZE = 1;
+
+	public static final int DEFAULT_UPLOAD_CONCURRENT_PARTITIONS = 1;
+
+	public static final int DEFAULT_UPLOAD_CONCURRENT_CHUNKS = 1;
+
+	public static final int DEFAULT_TIMEPOINTS_PER_REQUEST = 1;
+
+	public static final int DEFAULT_PREDICTION_CACHE_SIZE = 32;
+
+	public static final boolean DEFAULT_SPECULATIVE_PREDICTION = false;
+
+	public static final boolean DEFAULT_SPECULATE_PREVIOUS_TIMEPOINT = false;
+
 	public static final int DEFAULT_NUM_CROPS = 5;
 
 	public static final int DEFAULT_NUM_EPOCHS = 10;
@@ -128,6 +144,10 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	public static final boolean DEFAULT_USE_INTERPOLATION = false;
 
+	public static final boolean DEFAULT_USE_DIVISION_SCORING = false;
+
+	public static final double DEFAULT_DIVISION_MAX_COST = 1.0;
+
 	public static final boolean DEFAULT_USE_2D_MODEL = false;
 
 	public static final boolean DEFAULT_USE_MEMMAP = true;
@@ -174,6 +194,14 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		rescaleY = settings.rescaleY;
 		rescaleZ = settings.rescaleZ;
 		batchSize = settings.batchSize;
+		pipelineWindowSize = settings.pipelineWindowSize;
+		linkingPipelineWindowSize = settings.linkingPipelineWindowSize;
+		uploadConcurrentPartitions = settings.uploadConcurrentPartitions;
+		uploadConcurrentChunks = settings.uploadConcurrentChunks;
+		timepointsPerRequest = settings.timepointsPerRequest;
+		predictionCacheSize = settings.predictionCacheSize;
+		speculativePrediction = settings.speculativePrediction;
+		speculatePreviousTimepoint = settings.speculatePreviousTimepoint;
 		numCrops = settings.numCrops;
 		numEpochs = settings.numEpochs;
 		timeRange = settings.timeRange;
@@ -203,6 +231,8 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		cacheMaxbytesMebi = settings.cacheMaxbytesMebi;
 		useOpticalflow = settings.useOpticalflow;
 		useInterpolation = settings.useInterpolation;
+		useDivisionScoring = settings.useDivisionScoring;
+		divisionMaxCost = settings.divisionMaxCost;
 		use2dModel = settings.use2dModel;
 		useMemmap = settings.useMemmap;
 		detectionModelName = settings.detectionModelName;
@@ -244,6 +274,22 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	private int batchSize = DEFAULT_BATCH_SIZE;
 
+	private int pipelineWindowSize = DEFAULT_PIPELINE_WINDOW_SIZE;
+
+	private int linkingPipelineWindowSize = DEFAULT_LINKING_PIPELINE_WINDOW_SIZE;
+
+	private int uploadConcurrentPartitions = DEFAULT_UPLOAD_CONCURRENT_PARTITIONS;
+
+	private int uploadConcurrentChunks = DEFAULT_UPLOAD_CONCURRENT_CHUNKS;
+
+	private int timepointsPerRequest = DEFAULT_TIMEPOINTS_PER_REQUEST;
+
+	private int predictionCacheSize = DEFAULT_PREDICTION_CACHE_SIZE;
+
+	private boolean speculativePrediction = DEFAULT_SPECULATIVE_PREDICTION;
+
+	private boolean speculatePreviousTimepoint = DEFAULT_SPECULATE_PREVIOUS_TIMEPOINT;
+
 	private int numCrops = DEFAULT_NUM_CROPS;
 
 	private int numEpochs = DEFAULT_NUM_EPOCHS;
@@ -302,6 +348,10 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 
 	private boolean useInterpolation = DEFAULT_USE_INTERPOLATION;
 
+	private boolean useDivisionScoring = DEFAULT_USE_DIVISION_SCORING;
+
+	private double divisionMaxCost = DEFAULT_DIVISION_MAX_COST;
+
 	private boolean use2dModel = DEFAULT_USE_2D_MODEL;
 
 	private boolean useMemmap = DEFAULT_USE_MEMMAP;
@@ -528,6 +578,118 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		}
 	}
 
+	public int getPipelineWindowSize()
+	{
+		return pipelineWindowSize;
+	}
+
+	public synchronized void setPipelineWindowSize( final int pipelineWindowSize )
+	{
+		if ( this.pipelineWindowSize != pipelineWindowSize )
+		{
+			this.pipelineWindowSize = pipelineWindowSize;
+			notifyListeners();
+		}
+	}
+
+	public int getLinkingPipelineWindowSize()
+	{
+		return linkingPipelineWindowSize;
+	}
+
+	public synchronized void setLinkingPipelineWindowSize( final int linkingPipelineWindowSize )
+	{
+		if ( this.linkingPipelineWindowSize != linkingPipelineWindowSize )
+		{
+			this.linkingPipelineWindowSize = linkingPipelineWindowSize;
+			notifyListeners();
+		}
+	}
+
+	public int getUploadConcurrentPartitions()
+	{
+		return uploadConcurrentPartitions;
+	}
+
+	public synchronized void setUploadConcurrentPartitions( final int uploadConcurrentPartitions )
+	{
+		if ( this.uploadConcurrentPartitions != uploadConcurrentPartitions )
+		{
+			this.uploadConcurrentPartitions = uploadConcurrentPartitions;
+			notifyListeners();
+		}
+	}
+
+	public int getUploadConcurrentChunks()
+	{
+		return uploadConcurrentChunks;
+	}
+
+	public synchronized void setUploadConcurrentChunks( final int uploadConcurrentChunks )
+	{
+		if ( this.uploadConcurrentChunks != uploadConcurrentChunks )
+		{
+			this.uploadConcurrentChunks = uploadConcurrentChunks;
+			notifyListeners();
+		}
+	}
+
+	public int getTimepointsPerRequest()
+	{
+		return timepointsPerRequest;
+	}
+
+	public synchronized void setTimepointsPerRequest( final int timepointsPerRequest )
+	{
+		if ( this.timepointsPerRequest != timepointsPerRequest )
+		{
+			this.timepointsPerRequest = timepointsPerRequest;
+			notifyListeners();
+		}
+	}
+
+	public int getPredictionCacheSize()
+	{
+		return predictionCacheSize;
+	}
+
+	public synchronized void setPredictionCacheSize( final int predictionCacheSize )
+	{
+		if ( this.predictionCacheSize != predictionCacheSize )
+		{
+			this.predictionCacheSize = predictionCacheSize;
+			notifyListeners();
+		}
+	}
+
+	public boolean getSpeculativePrediction()
+	{
+		return speculativePrediction;
+	}
+
+	public synchronized void setSpeculativePrediction( final boolean speculativePrediction )
+	{
+		if ( this.speculativePrediction != speculativePrediction )
+		{
+			this.speculativePrediction = speculativePrediction;
+			notifyListeners();
+		}
+	}
+
+	public boolean getSpeculatePreviousTimepoint()
+	{
+		return speculatePreviousTimepoint;
+	}
+
+	public synchronized void setSpeculatePreviousTimepoint( final boolean speculatePreviousTimepoint )
+	{
+		if ( this.speculatePreviousTimepoint != speculatePreviousTimepoint )
+		{
+			this.speculatePreviousTimepoint = speculatePreviousTimepoint;
+			notifyListeners();
+		}
+	}
+
 	public int getNumCrops()
 	{
 		return numCrops;
@@ -939,6 +1101,34 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		}
 	}
 
+	public boolean getUseDivisionScoring()
+	{
+		return useDivisionScoring;
+	}
+
+	public synchronized void setUseDivisionScoring( final boolean useDivisionScoring )
+	{
+		if ( this.useDivisionScoring != useDivisionScoring )
+		{
+			this.useDivisionScoring = useDivisionScoring;
+			notifyListeners();
+		}
+	}
+
+	public double getDivisionMaxCost()
+	{
+		return divisionMaxCost;
+	}
+
+	public synchronized void setDivisionMaxCost( final double divisionMaxCost )
+	{
+		if ( this.divisionMaxCost != divisionMaxCost )
+		{
+			this.divisionMaxCost = divisionMaxCost;
+			notifyListeners();
+		}
+	}
+
 	public boolean getUse2dModel()
 	{
 		return use2dModel;
@@ -1070,6 +1260,14 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		df.rescaleY = DEFAULT_RESCALE_Y;
 		df.rescaleZ = DEFAULT_RESCALE_Z;
 		df.batchSize = DEFAULT_BATCH_SIZE;
+		df.pipelineWindowSize = DEFAULT_PIPELINE_WINDOW_SIZE;
+		df.linkingPipelineWindowSize = DEFAULT_LINKING_PIPELINE_WINDOW_SIZE;
+		df.uploadConcurrentPartitions = DEFAULT_UPLOAD_CONCURRENT_PARTITIONS;
+		df.uploadConcurrentChunks = DEFAULT_UPLOAD_CONCURRENT_CHUNKS;
+		df.timepointsPerRequest = DEFAULT_TIMEPOINTS_PER_REQUEST;
+		df.predictionCacheSize = DEFAULT_PREDICTION_CACHE_SIZE;
+		df.speculativePrediction = DEFAULT_SPECULATIVE_PREDICTION;
+		df.speculatePreviousTimepoint = DEFAULT_SPECULATE_PREVIOUS_TIMEPOINT;
 		df.numCrops = DEFAULT_NUM_CROPS;
 		df.numEpochs = DEFAULT_NUM_EPOCHS;
 		df.timeRange = DEFAULT_TIME_RANGE;
@@ -1098,6 +1296,8 @@ public class ElephantMainSettings extends AbstractElephantSettings< ElephantMain
 		df.cacheMaxbytesMebi = DEFAULT_CACHE_MAXBYTES_MEBI;
 		df.useOpticalflow = DEFAULT_USE_OPTICALFLOW;
 		df.useInterpolation = DEFAULT_USE_INTERPOLATION;
+		df.useDivisionScoring = DEFAULT_USE_DIVISION_SCORING;
+		df.divisionMaxCost = DEFAULT_DIVISION_MAX_COST;
 		df.use2dModel = DEFAULT_USE_2D_MODEL;
 		df.useMemmap = DEFAULT_USE_MEMMAP;
 		df.detectionModelName = DEFAULT_DETECTION_MODEL_NAME;
@@ -117,7 +117,10 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				doubleElementEx( String.format( "NN linking threshold (%s)", unit ), 0.0, 100.0, 0.01, style::getNNLinkingThreshold, style::setNNLinkingThreshold ),
 				intElement( "NN max edges", 1, 5, style::getNNMaxEdges, style::setNNMaxEdges ),
 				booleanElement( "use optical flow for linking", style::getUseOpticalflow, style::setUseOpticalflow ),
+				intElement( "linking request pipeline window (timepoints)", 1, 64, style::getLinkingPipelineWindowSize, style::setLinkingPipelineWindowSize ),
 				booleanElement( "use interpolation for linking", style::getUseInterpolation, style::setUseInterpolation ),
+				booleanElement( "score divisions for linking", style::getUseDivisionScoring, style::setUseDivisionScoring ),
+				doubleElementEx( "division max cost", 0.0, 10.0, 0.01, style::getDivisionMaxCost, style::setDivisionMaxCost ),
 
 				separator(),
 
@@ -147,6 +150,11 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				intElement( "training crop size z", 1, 9999, style::getTrainingCropSizeZ, style::setTrainingCropSizeZ ),
 
 				intElement( "batch size", 0, 1000, style::getBatchSize, style::setBatchSize ),
+				intElement( "prediction pipeline window (timepoints)", 1, 64, style::getPipelineWindowSize, style::setPipelineWindowSize ),
+				intElement( "prediction timepoints per request", 1, 1000, style::getTimepointsPerRequest, style::setTimepointsPerRequest ),
+				intElement( "prediction cache size (entries)", 0, 1000, style::getPredictionCacheSize, style::setPredictionCacheSize ),
+				booleanElement( "speculative prediction in live mode", style::getSpeculativePrediction, style::setSpeculativePrediction ),
+				booleanElement( "speculative prediction of previous timepoint", style::getSpeculatePreviousTimepoint, style::setSpeculatePreviousTimepoint ),
 
 				doubleElementEx( "class weight background", 0.0, 100, 0.1, style::getClassWeightBG, style::setClassWeightBG ),
 				doubleElementEx( "class weight border", 0.0, 100, 0.1, style::getClassWeightBorder, style::setClassWeightBorder ),
@@ -166,6 +174,8 @@ public class ElephantMainSettingsPanel extends AbstractElephantSettingsPanel< El
 				intElement( "NN search neighbors", 0, Integer.MAX_VALUE, style::getNNSearchNeighbors, style::setNNSearchNeighbors ),
 				intElement( "Training log interval", 0, Integer.MAX_VALUE, style::getLogInterval, style::setLogInterval ),
 				intElement( "Cache maximum bytes (MiB)", 0, Integer.MAX_VALUE, style::getCacheMaxbytesMebi, style::setCacheMaxbytesMebi ),
+				intElement( "Upload concurrent partitions", 1, 64, style::getUploadConcurrentPartitions, style::setUploadConcurrentPartitions ),
+				intElement( "Upload concurrent chunks per partition", 1, 64, style::getUploadConcurrentChunks, style::setUploadConcurrentChunks ),
 				booleanElement( "use memmap", style::getUseMemmap, style::setUseMemmap ),
 				// booleanElement( "use 2d model", style::getUse2dModel, style::setUse2dModel ),
 
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DivisionCandidates}.
+ * 
+ * @author Ko Sugawara
+ */
+public class DivisionCandidatesTest
+{
+
+	private static final double SQUARED_RADIUS = 25;
+
+	/** A mother elongated along x, and a spot far from it. */
+	private static LinkCandidates.Frame createFrame()
+	{
+		final double[] pos = { 0, 0, 0, 20, 0, 0 };
+		final double[] cov = { 4, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+		final BitSet accepted = new BitSet();
+		accepted.set( 0, 2 );
+		return new LinkCandidates.Frame( 0, 2, new int[] { 10, 11 }, pos, cov, accepted );
+	}
+
+	/** Two daughters along the long axis of the mother, and a spot near the other one. */
+	private static double[] createPos()
+	{
+		return new double[] { -1.5, 0, 0, 1.5, 0, 0, 20.5, 0, 0 };
+	}
+
+	private static double[] createCov()
+	{
+		return new double[] { 2, 0, 0, 0, 1, 0, 0, 0, 1, 2, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+	}
+
+	private static DivisionCandidates score( final double maxCost )
+	{
+		final LinkCandidates.Frame frame = createFrame();
+		final double[] pos = createPos();
+		final LinkCandidates candidates = LinkCandidates.search( new LinkCandidates.Frame[] { frame }, pos, 3, 3, SQUARED_RADIUS );
+		return DivisionCandidates.score( candidates, frame, pos, createCov(), null, 3, SQUARED_RADIUS, maxCost );
+	}
+
+	@Test
+	public void testScore()
+	{
+		final DivisionCandidates divisions = score( 1.0 );
+		assertEquals( 10, divisions.getMother( 0 ) );
+		assertEquals( 10, divisions.getMother( 1 ) );
+		assertEquals( -1, divisions.getMother( 2 ) );
+		assertTrue( divisions.isMother( 10 ) );
+		assertFalse( divisions.isMother( 11 ) );
+		// symmetric and aligned daughters of a total volume sqrt( 2 ) times that of the mother
+		final double volumeRatio = 0.5 * Math.log( 2 );
+		assertEquals( volumeRatio * volumeRatio, divisions.getCost( 10 ), 1e-9 );
+		assertEquals( Double.POSITIVE_INFINITY, divisions.getCost( 11 ), 0 );
+	}
+
+	@Test
+	public void testAccepts()
+	{
+		final DivisionCandidates divisions = score( 1.0 );
+		assertTrue( divisions.accepts( 0, 10 ) );
+		assertFalse( divisions.accepts( 0, 11 ) );
+		assertFalse( divisions.accepts( 2, 10 ) );
+		assertTrue( divisions.accepts( 2, 11 ) );
+	}
+
+	@Test
+	public void testScoreAboveMaxCost()
+	{
+		final DivisionCandidates divisions = score( 0.1 );
+		assertEquals( -1, divisions.getMother( 0 ) );
+		assertEquals( -1, divisions.getMother( 1 ) );
+		assertFalse( divisions.isMother( 10 ) );
+		assertTrue( divisions.accepts( 0, 10 ) );
+	}
+
+	@Test
+	public void testScoreMisaligned()
+	{
+		final LinkCandidates.Frame frame = createFrame();
+		// the daughters across the long axis of the mother
+		final double[] pos = { 0, -1.5, 0, 0, 1.5, 0, 20.5, 0, 0 };
+		final LinkCandidates candidates = LinkCandidates.search( new LinkCandidates.Frame[] { frame }, pos, 3, 3, SQUARED_RADIUS );
+		final DivisionCandidates divisions = DivisionCandidates.score( candidates, frame, pos, createCov(), null, 3, SQUARED_RADIUS, 1.0 );
+		final double volumeRatio = 0.5 * Math.log( 2 );
+		// the elongation of the mother is 1 - 1 / 4
+		assertEquals( volumeRatio * volumeRatio + 0.75, divisions.getCost( 10 ), 1e-9 );
+	}
+
+}
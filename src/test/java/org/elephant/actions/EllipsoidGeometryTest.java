@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link EllipsoidGeometry}.
+ * 
+ * @author Ko Sugawara
+ */
+public class EllipsoidGeometryTest
+{
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void testDecomposeDiagonal()
+	{
+		final double[] m = { 3, 0, 0, 0, 1, 0, 0, 0, 2 };
+		final double[] eigenvalues = new double[ 3 ];
+		final double[] eigenvectors = new double[ 9 ];
+		EllipsoidGeometry.decomposeSymmetric( m, 0, eigenvalues, eigenvectors );
+		assertEquals( 1, eigenvalues[ 0 ], EPSILON );
+		assertEquals( 2, eigenvalues[ 1 ], EPSILON );
+		assertEquals( 3, eigenvalues[ 2 ], EPSILON );
+		// the eigenvector of the largest eigenvalue is the x axis
+		assertEquals( 1, Math.abs( eigenvectors[ 0 * 3 + 2 ] ), EPSILON );
+		assertEquals( 0, eigenvectors[ 1 * 3 + 2 ], EPSILON );
+		assertEquals( 0, eigenvectors[ 2 * 3 + 2 ], EPSILON );
+		assertEigenpairs( m, 0, eigenvalues, eigenvectors );
+	}
+
+	@Test
+	public void testDecomposeRotated()
+	{
+		// diag( 1, 4, 9 ) rotated by 30 degrees around z, at an offset
+		final double c = Math.cos( Math.PI / 6 );
+		final double s = Math.sin( Math.PI / 6 );
+		final double[] m = new double[ 11 ];
+		m[ 2 + 0 ] = c * c * 1 + s * s * 4;
+		m[ 2 + 1 ] = c * s * ( 1 - 4 );
+		m[ 2 + 3 ] = m[ 2 + 1 ];
+		m[ 2 + 4 ] = s * s * 1 + c * c * 4;
+		m[ 2 + 8 ] = 9;
+		final double[] eigenvalues = new double[ 3 ];
+		final double[] eigenvectors = new double[ 9 ];
+		EllipsoidGeometry.decomposeSymmetric( m, 2, eigenvalues, eigenvectors );
+		assertEquals( 1, eigenvalues[ 0 ], EPSILON );
+		assertEquals( 4, eigenvalues[ 1 ], EPSILON );
+		assertEquals( 9, eigenvalues[ 2 ], EPSILON );
+		assertEquals( c, Math.abs( eigenvectors[ 0 * 3 + 0 ] ), EPSILON );
+		assertEquals( s, Math.abs( eigenvectors[ 1 * 3 + 0 ] ), EPSILON );
+		assertEigenpairs( m, 2, eigenvalues, eigenvectors );
+	}
+
+	@Test
+	public void testDecomposeDegenerate()
+	{
+		final double[] m = { 2, 0, 0, 0, 2, 0, 0, 0, 2 };
+		final double[] eigenvalues = new double[ 3 ];
+		final double[] eigenvectors = new double[ 9 ];
+		EllipsoidGeometry.decomposeSymmetric( m, 0, eigenvalues, eigenvectors );
+		for ( int i = 0; i < 3; i++ )
+			assertEquals( 2, eigenvalues[ i ], EPSILON );
+		assertEigenpairs( m, 0, eigenvalues, eigenvectors );
+	}
+
+	@Test
+	public void testCompose()
+	{
+		final double[] m = { 5, 1, 0.5, 1, 3, -0.2, 0.5, -0.2, 2 };
+		final double[] eigenvalues = new double[ 3 ];
+		final double[] eigenvectors = new double[ 9 ];
+		EllipsoidGeometry.decomposeSymmetric( m, 0, eigenvalues, eigenvectors );
+		final double[] composed = new double[ 9 ];
+		EllipsoidGeometry.compose( eigenvectors, eigenvalues, composed );
+		for ( int i = 0; i < 9; i++ )
+			assertEquals( m[ i ], composed[ i ], 1e-9 );
+	}
+
+	@Test
+	public void testCompareVolume()
+	{
+		final double[] cov = { 1, 0, 0, 0, 1, 0, 0, 0, 1, 4, 0, 0, 0, 1, 0, 0, 0, 1, 2, 0, 0, 0, 2, 0, 0, 0, 1 };
+		assertTrue( EllipsoidGeometry.compareVolume( cov, 9, cov, 0 ) > 0 );
+		assertTrue( EllipsoidGeometry.compareVolume( cov, 0, cov, 9 ) < 0 );
+		// the same volume with another shape
+		assertEquals( 0, EllipsoidGeometry.compareVolume( cov, 9, cov, 18 ) );
+		assertEquals( 4, EllipsoidGeometry.determinant( cov, 9 ), EPSILON );
+	}
+
+	@Test
+	public void testMayOverlapSpheres()
+	{
+		final double[] pos = { 0, 0, 0, 1.9, 0, 0, 2.1, 0, 0 };
+		final double[] cov = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+		assertTrue( EllipsoidGeometry.mayOverlap( pos, 0, cov, 0, pos, 3, cov, 0 ) );
+		assertFalse( EllipsoidGeometry.mayOverlap( pos, 0, cov, 0, pos, 6, cov, 0 ) );
+		// the same center
+		assertTrue( EllipsoidGeometry.mayOverlap( pos, 0, cov, 0, pos, 0, cov, 0 ) );
+	}
+
+	@Test
+	public void testMayOverlapElongated()
+	{
+		// a semi-axis of 2 along x and of 1 along y and z, and a unit sphere
+		final double[] cov = { 4, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+		final double[] pos = { 0, 0, 0, 2.9, 0, 0, 0, 2.9, 0 };
+		assertTrue( EllipsoidGeometry.mayOverlap( pos, 0, cov, 0, pos, 3, cov, 9 ) );
+		assertFalse( EllipsoidGeometry.mayOverlap( pos, 0, cov, 0, pos, 6, cov, 9 ) );
+	}
+
+	/**
+	 * Check that each column of {@code eigenvectors} is a unit vector {@code v}
+	 * with {@code m v = lambda v}.
+	 */
+	private static void assertEigenpairs( final double[] m, final int offset, final double[] eigenvalues, final double[] eigenvectors )
+	{
+		for ( int k = 0; k < 3; k++ )
+		{
+			double norm = 0;
+			for ( int i = 0; i < 3; i++ )
+			{
+				double mv = 0;
+				for ( int j = 0; j < 3; j++ )
+					mv += m[ offset + i * 3 + j ] * eigenvectors[ j * 3 + k ];
+				assertEquals( eigenvalues[ k ] * eigenvectors[ i * 3 + k ], mv, 1e-6 );
+				norm += eigenvectors[ i * 3 + k ] * eigenvectors[ i * 3 + k ];
+			}
+			assertEquals( 1, norm, 1e-6 );
+		}
+	}
+
+}
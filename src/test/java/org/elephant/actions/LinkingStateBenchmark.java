@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link LinkingState} with the boxed collections it replaced in the
+ * nearest-neighbor linking, on the bookkeeping of a frame: every spot is
+ * checked and linked, a tenth of the spots is interpolated, a tenth of the
+ * links is evicted, the links that remain are counted and the displaced
+ * spots are linked again.
+ * 
+ * @author Ko Sugawara
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+public class LinkingStateBenchmark
+{
+
+	@Param( { "50000", "100000" } )
+	private int nSpots;
+
+	/** The pool indices of the spots, in linking order. */
+	private int[] spotIds;
+
+	/** The pool indices of the links of the spots. */
+	private int[] linkIds;
+
+	/** The spots displaced by an eviction, as indices into {@link #spotIds}. */
+	private int[] displaced;
+
+	@Setup
+	public void setup()
+	{
+		final Random random = new Random( 42 );
+		spotIds = shuffledIds( nSpots, random );
+		linkIds = shuffledIds( nSpots, random );
+		displaced = new int[ nSpots / 10 ];
+		for ( int i = 0; i < displaced.length; i++ )
+			displaced[ i ] = random.nextInt( nSpots );
+	}
+
+	@Benchmark
+	public void linkingState( final Blackhole blackhole )
+	{
+		final LinkingState state = new LinkingState();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			if ( state.isLinked( spotIds[ i ] ) )
+				continue;
+			state.setLinked( spotIds[ i ], true );
+			if ( i % 10 == 0 )
+				state.setInterpolated( spotIds[ i ] );
+		}
+		for ( final int i : displaced )
+		{
+			state.evict( linkIds[ i ] );
+			state.setLinked( spotIds[ i ], false );
+		}
+		int nLinks = 0;
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			if ( !state.isEvicted( linkIds[ i ] ) )
+				nLinks++;
+		}
+		for ( final int i : displaced )
+		{
+			if ( !state.isLinked( spotIds[ i ] ) && !state.isInterpolated( spotIds[ i ] ) )
+			{
+				state.setLinked( spotIds[ i ], true );
+				nLinks++;
+			}
+		}
+		blackhole.consume( nLinks );
+	}
+
+	@Benchmark
+	public void boxedCollections( final Blackhole blackhole )
+	{
+		final List< Integer > linkedSpotIds = new ArrayList<>();
+		final Set< Integer > interpolatedIdSet = new HashSet<>();
+		final Set< Integer > evictedIdSet = new HashSet<>();
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			if ( linkedSpotIds.contains( spotIds[ i ] ) )
+				continue;
+			linkedSpotIds.add( spotIds[ i ] );
+			if ( i % 10 == 0 )
+				interpolatedIdSet.add( spotIds[ i ] );
+		}
+		for ( final int i : displaced )
+		{
+			evictedIdSet.add( linkIds[ i ] );
+			linkedSpotIds.remove( Integer.valueOf( spotIds[ i ] ) );
+		}
+		int nLinks = 0;
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			if ( !evictedIdSet.contains( linkIds[ i ] ) )
+				nLinks++;
+		}
+		for ( final int i : displaced )
+		{
+			if ( !linkedSpotIds.contains( spotIds[ i ] ) && !interpolatedIdSet.contains( spotIds[ i ] ) )
+			{
+				linkedSpotIds.add( spotIds[ i ] );
+				nLinks++;
+			}
+		}
+		blackhole.consume( nLinks );
+	}
+
+	/**
+	 * @return {@code n} distinct pool indices in {@code [0, 2n)}, in random
+	 *         order.
+	 */
+	private static int[] shuffledIds( final int n, final Random random )
+	{
+		final int[] ids = new int[ 2 * n ];
+		for ( int i = 0; i < ids.length; i++ )
+			ids[ i ] = i;
+		for ( int i = ids.length - 1; 0 < i; i-- )
+		{
+			final int j = random.nextInt( i + 1 );
+			final int tmp = ids[ i ];
+			ids[ i ] = ids[ j ];
+			ids[ j ] = tmp;
+		}
+		final int[] result = new int[ n ];
+		System.arraycopy( ids, 0, result, 0, n );
+		return result;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		new Runner( new OptionsBuilder()
+				.include( LinkingStateBenchmark.class.getSimpleName() )
+				.build() ).run();
+	}
+
+}
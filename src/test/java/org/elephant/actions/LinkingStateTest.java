@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LinkingState}.
+ * 
+ * @author Ko Sugawara
+ */
+public class LinkingStateTest
+{
+
+	@Test
+	public void testLinked()
+	{
+		final LinkingState state = new LinkingState();
+		assertFalse( state.isLinked( 3 ) );
+		state.setLinked( 3, true );
+		assertTrue( state.isLinked( 3 ) );
+		assertFalse( state.isLinked( 4 ) );
+		state.setLinked( 3, false );
+		assertFalse( state.isLinked( 3 ) );
+	}
+
+	@Test
+	public void testInterpolatedAndEvicted()
+	{
+		final LinkingState state = new LinkingState();
+		state.setInterpolated( 7 );
+		state.evict( 100000 );
+		assertTrue( state.isInterpolated( 7 ) );
+		assertFalse( state.isInterpolated( 100000 ) );
+		assertTrue( state.isEvicted( 100000 ) );
+		assertFalse( state.isEvicted( 7 ) );
+	}
+
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MinCostLinker}.
+ * 
+ * @author Ko Sugawara
+ */
+public class MinCostLinkerTest
+{
+
+	@Test
+	public void testLinkMinimizesTotalCost()
+	{
+		// the nearest parent of child 0 is the only parent of child 1
+		final double[] parentPos = { 0, 0, 0, 3, 0, 0 };
+		final double[] childPos = { 1.4, 0, 0, -1, 0, 0 };
+		final int[] parentOf = new MinCostLinker( 4, 1 ).link( parentPos, null, 2, childPos, 2 );
+		assertArrayEquals( new int[] { 1, 0 }, parentOf );
+	}
+
+	@Test
+	public void testLinkOutsideRadius()
+	{
+		final double[] parentPos = { 0, 0, 0 };
+		final double[] childPos = { 0, 0, 3, 0, 0, 1 };
+		final int[] parentOf = new MinCostLinker( 4, 1 ).link( parentPos, null, 1, childPos, 2 );
+		assertArrayEquals( new int[] { -1, 0 }, parentOf );
+	}
+
+	@Test
+	public void testLinkMaxChildren()
+	{
+		final double[] parentPos = { 0, 0, 0 };
+		final double[] childPos = { 1, 0, 0, -0.5, 0, 0 };
+		final double[] divisionCosts = { 0.5 };
+		assertArrayEquals( new int[] { -1, 0 }, new MinCostLinker( 4, 1 ).link( parentPos, null, null, divisionCosts, 1, childPos, 2 ) );
+		assertArrayEquals( new int[] { 0, 0 }, new MinCostLinker( 4, 2 ).link( parentPos, null, null, divisionCosts, 1, childPos, 2 ) );
+		// the parent already has a child, so it takes the nearest one only
+		assertArrayEquals( new int[] { -1, 0 }, new MinCostLinker( 4, 2 ).link( parentPos, new int[] { 1 }, null, divisionCosts, 1, childPos, 2 ) );
+		assertArrayEquals( new int[] { -1, -1 }, new MinCostLinker( 4, 2 ).link( parentPos, new int[] { 2 }, null, divisionCosts, 1, childPos, 2 ) );
+	}
+
+	@Test
+	public void testLinkIsolatedExtraChildStaysUnlinked()
+	{
+		// the second child is within the radius of the only parent
+		final double[] parentPos = { 0, 0, 0 };
+		final double[] childPos = { 1, 0, 0, -0.5, 0, 0 };
+		final MinCostLinker linker = new MinCostLinker( 4, 2 );
+		assertArrayEquals( new int[] { -1, 0 }, linker.link( parentPos, null, 1, childPos, 2 ) );
+		assertArrayEquals( new int[] { -1, 0 }, linker.link( parentPos, null, null, new double[] { Double.POSITIVE_INFINITY }, 1, childPos, 2 ) );
+		// a division cost above the squared radius is not taken either
+		assertArrayEquals( new int[] { -1, 0 }, linker.link( parentPos, null, null, new double[] { 5 }, 1, childPos, 2 ) );
+	}
+
+	@Test
+	public void testLinkDivisionCosts()
+	{
+		final double[] parentPos = { 0, 0, 0, 2.5, 0, 0 };
+		final double[] childPos = { 0.5, 0, 0, -0.6, 0, 0 };
+		final MinCostLinker linker = new MinCostLinker( 9, 2 );
+		// a division costing the squared radius is more than the longer link
+		assertArrayEquals( new int[] { 1, 0 }, linker.link( parentPos, null, null, new double[] { 9, 9 }, 2, childPos, 2 ) );
+		// a cheap division of parent 0
+		assertArrayEquals( new int[] { 0, 0 }, linker.link( parentPos, null, null, new double[] { 0.1, 9 }, 2, childPos, 2 ) );
+		// three children on two parents need one division, the cheapest one
+		final double[] farPos = { 0.5, 0, 0, -0.6, 0, 0, 0, 0.4, 0 };
+		assertArrayEquals( new int[] { 1, 0, 0 }, linker.link( parentPos, null, null, new double[] { 9, 9 }, 2, farPos, 3 ) );
+	}
+
+	@Test
+	public void testLinkEmpty()
+	{
+		assertArrayEquals( new int[] { -1 }, new MinCostLinker( 4, 1 ).link( new double[ 0 ], null, 0, new double[ 3 ], 1 ) );
+		assertArrayEquals( new int[ 0 ], new MinCostLinker( 4, 1 ).link( new double[ 3 ], null, 1, new double[ 0 ], 0 ) );
+	}
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the refit of existing spots in {@link PredictSpotsAction}.
+ * 
+ * @author Ko Sugawara
+ */
+public class PredictSpotsActionTest
+{
+
+	/** Predicted spots with volumes 1, 8 and 2. */
+	private static final double[] PREDICTED_COV = {
+			1, 0, 0, 0, 1, 0, 0, 0, 1,
+			4, 0, 0, 0, 4, 0, 0, 0, 4,
+			2, 0, 0, 0, 2, 0, 0, 0, 1 };
+
+	/** An existing spot with volume 2. */
+	private static final double[] COV = { 2, 0, 0, 0, 1, 0, 0, 0, 2 };
+
+	@Test
+	public void testSelectRefitSource()
+	{
+		// a smaller predicted spot does not refit the existing spot
+		assertEquals( -1, PredictSpotsAction.selectRefitSource( PREDICTED_COV, 0, -1, COV, 0 ) );
+		// a greater one does
+		assertEquals( 1, PredictSpotsAction.selectRefitSource( PREDICTED_COV, 1, -1, COV, 0 ) );
+		// the same volume does not
+		assertEquals( -1, PredictSpotsAction.selectRefitSource( PREDICTED_COV, 2, -1, COV, 0 ) );
+	}
+
+	@Test
+	public void testSelectRefitSourceAgainstCurrentSource()
+	{
+		// the current refit source is compared instead of the existing spot
+		assertEquals( 1, PredictSpotsAction.selectRefitSource( PREDICTED_COV, 2, 1, COV, 0 ) );
+		assertEquals( 1, PredictSpotsAction.selectRefitSource( PREDICTED_COV, 1, 2, COV, 0 ) );
+	}
+
+}
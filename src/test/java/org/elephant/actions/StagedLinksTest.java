@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (C) 2021, Ko Sugawara
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.elephant.actions;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link StagedLinks}.
+ * 
+ * @author Ko Sugawara
+ */
+public class StagedLinksTest
+{
+
+	@Test
+	public void testAddLink()
+	{
+		final StagedLinks links = new StagedLinks( 4 );
+		assertEquals( -1, links.getParent( 0 ) );
+		assertEquals( -1, links.firstChild( 10 ) );
+		links.addLink( 10, 0, 2.5, 0.25 );
+		links.addLink( 10, 2, 3.5, 1.25 );
+		links.addLink( 20, 1, 4.5, 2.25 );
+		assertEquals( 10, links.getParent( 0 ) );
+		assertEquals( 10, links.getParent( 2 ) );
+		assertEquals( 20, links.getParent( 1 ) );
+		assertEquals( -1, links.getParent( 3 ) );
+		assertEquals( 2.5, links.getSquaredDistance( 0 ), 0 );
+		assertEquals( 1.25, links.getSqDisp( 2 ), 0 );
+		assertEquals( 2, countChildren( links, 10 ) );
+		assertEquals( 1, countChildren( links, 20 ) );
+	}
+
+	@Test
+	public void testRemoveLink()
+	{
+		final StagedLinks links = new StagedLinks( 3 );
+		for ( int i = 0; i < 3; i++ )
+			links.addLink( 10, i, i, i );
+		// the middle of the chain
+		links.removeLink( 1 );
+		assertEquals( -1, links.getParent( 1 ) );
+		assertEquals( 2, countChildren( links, 10 ) );
+		// the head of the chain
+		links.removeLink( links.firstChild( 10 ) );
+		assertEquals( 1, countChildren( links, 10 ) );
+		links.removeLink( links.firstChild( 10 ) );
+		assertEquals( 0, countChildren( links, 10 ) );
+		assertEquals( -1, links.firstChild( 10 ) );
+		// removing a link that is not staged does nothing
+		links.removeLink( 1 );
+		assertEquals( -1, links.getParent( 1 ) );
+	}
+
+	@Test
+	public void testReplaceLink()
+	{
+		final StagedLinks links = new StagedLinks( 1 );
+		links.addLink( 10, 0, 1, 1 );
+		links.addLink( 20, 0, 2, 2 );
+		assertEquals( 20, links.getParent( 0 ) );
+		assertEquals( 2, links.getSquaredDistance( 0 ), 0 );
+		assertEquals( 0, countChildren( links, 10 ) );
+		assertEquals( 1, countChildren( links, 20 ) );
+	}
+
+	@Test
+	public void testManyParents()
+	{
+		// enough parents to rehash the map several times, with ids sharing their low bits
+		final int n = 10000;
+		final StagedLinks links = new StagedLinks( n );
+		for ( int i = 0; i < n; i++ )
+			links.addLink( i * 1024, i, i, -i );
+		for ( int i = 0; i < n; i++ )
+		{
+			assertEquals( i, links.firstChild( i * 1024 ) );
+			assertEquals( -1, links.nextChild( i ) );
+			assertEquals( -1, links.firstChild( i * 1024 + 1 ) );
+			assertEquals( i, links.getSquaredDistance( i ), 0 );
+			assertEquals( -i, links.getSqDisp( i ), 0 );
+		}
+	}
+
+	@Test
+	public void testCollidingParents()
+	{
+		// consecutive ids probe into each other's slots
+		final StagedLinks links = new StagedLinks( 32 );
+		for ( int i = 0; i < 31; i++ )
+			links.addLink( i, i, i, i );
+		for ( int i = 0; i < 31; i++ )
+			assertEquals( i, links.firstChild( i ) );
+		assertEquals( -1, links.firstChild( 31 ) );
+		assertEquals( -1, links.firstChild( Integer.MAX_VALUE ) );
+		links.addLink( Integer.MAX_VALUE, 31, 1, 1 );
+		assertEquals( 31, links.firstChild( Integer.MAX_VALUE ) );
+	}
+
+	private static int countChildren( final StagedLinks links, final int parent )
+	{
+		int n = 0;
+		for ( int c = links.firstChild( parent ); 0 <= c; c = links.nextChild( c ) )
+			n++;
+		return n;
+	}
+
+}